@@ -1,7 +1,13 @@
 package eu.synectique.verveine.extractor.plugin;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
 import org.eclipse.cdt.core.dom.ast.IASTSimpleDeclSpecifier;
@@ -9,20 +15,27 @@ import org.eclipse.cdt.core.dom.ast.IBinding;
 
 import ch.akuhn.fame.Repository;
 import eu.synectique.verveine.core.Dictionary;
+import eu.synectique.verveine.core.gen.famix.Access;
 import eu.synectique.verveine.core.gen.famix.Association;
 import eu.synectique.verveine.core.gen.famix.Attribute;
 import eu.synectique.verveine.core.gen.famix.BehaviouralEntity;
 import eu.synectique.verveine.core.gen.famix.BehaviouralReference;
 import eu.synectique.verveine.core.gen.famix.CFile;
+import eu.synectique.verveine.core.gen.famix.Comment;
 import eu.synectique.verveine.core.gen.famix.CompilationUnit;
 import eu.synectique.verveine.core.gen.famix.ContainerEntity;
 import eu.synectique.verveine.core.gen.famix.DereferencedInvocation;
+import eu.synectique.verveine.core.gen.famix.Entity;
+import eu.synectique.verveine.core.gen.famix.Enum;
+import eu.synectique.verveine.core.gen.famix.EnumValue;
 import eu.synectique.verveine.core.gen.famix.Function;
 import eu.synectique.verveine.core.gen.famix.GlobalVariable;
 import eu.synectique.verveine.core.gen.famix.Header;
 import eu.synectique.verveine.core.gen.famix.ImplicitVariable;
 import eu.synectique.verveine.core.gen.famix.Include;
 import eu.synectique.verveine.core.gen.famix.IndexedFileAnchor;
+import eu.synectique.verveine.core.gen.famix.Inheritance;
+import eu.synectique.verveine.core.gen.famix.Invocation;
 import eu.synectique.verveine.core.gen.famix.Method;
 import eu.synectique.verveine.core.gen.famix.Module;
 import eu.synectique.verveine.core.gen.famix.MultipleFileAnchor;
@@ -34,6 +47,8 @@ import eu.synectique.verveine.core.gen.famix.ParameterType;
 import eu.synectique.verveine.core.gen.famix.ParameterizableClass;
 import eu.synectique.verveine.core.gen.famix.ParameterizedType;
 import eu.synectique.verveine.core.gen.famix.PreprocessorIfdef;
+import eu.synectique.verveine.core.gen.famix.PrimitiveType;
+import eu.synectique.verveine.core.gen.famix.Reference;
 import eu.synectique.verveine.core.gen.famix.ScopingEntity;
 import eu.synectique.verveine.core.gen.famix.SourceAnchor;
 import eu.synectique.verveine.core.gen.famix.SourcedEntity;
@@ -41,10 +56,30 @@ import eu.synectique.verveine.core.gen.famix.StructuralEntity;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.core.gen.famix.TypeAlias;
 import eu.synectique.verveine.core.gen.famix.UnknownVariable;
+import eu.synectique.verveine.extractor.utils.BindingCache;
+import eu.synectique.verveine.extractor.utils.ChildIndex;
 import eu.synectique.verveine.extractor.utils.FileUtil;
+import eu.synectique.verveine.extractor.utils.MSEStreamWriter;
+import eu.synectique.verveine.extractor.utils.ResolutionCache;
 import eu.synectique.verveine.extractor.utils.StubBinding;
+import eu.synectique.verveine.extractor.utils.StubBindingTable;
 import eu.synectique.verveine.extractor.utils.Visibility;
 
+/**
+ * The dictionary of all Famix entities created during an extraction.<br>
+ * It may be used by several visitor threads at the same time (see {@link ParallelPassRunner}):
+ * <ul>
+ * <li> The registry of entities (key to entity, name to entities, files) is made of concurrent maps, lookups do not lock.
+ * <li> Creating an entity is atomic (no duplicate entities): it locks one of {@link #LOCK_STRIPES} locks chosen from its name,
+ *   whether it is created for a key or unique by name. The entity is initialized (parent, signature, ...) before it is registered,
+ *   so other threads never see it half built (see {@link Initializer}).
+ * <li> New entities, associations and anchors are appended to a concurrent buffer instead of the Famix repository
+ *   which is not thread safe. The buffer is flushed in the repository with {@link #flushToRepository()} before exporting the model.
+ * <li> Famix entities maintain both sides of their relationships in non thread safe collections, so setting a relationship between
+ *   entities (parent, association, declared type, ...) holds the {@link #getModelLock() model lock}. Code browsing these relationships
+ *   while other threads may modify them must also synchronize on it.
+ * </ul>
+ */
 public class CDictionary extends Dictionary<IBinding> {
 
 	/**
@@ -52,6 +87,11 @@ public class CDictionary extends Dictionary<IBinding> {
 	 */
 	public static final String MOOSE_NAME_SEPARATOR = "::";
 
+	/**
+	 * Number of locks used to make entity creation atomic
+	 */
+	public static final int LOCK_STRIPES = 64;
+
 	/*
 	 * names for primitive types
 	 */
@@ -65,12 +105,496 @@ public class CDictionary extends Dictionary<IBinding> {
 	protected Map<IBinding,CFile> nameToFile;
 
 	public final static String DESTRUCTOR_KIND_MARKER = "destructor";
-	
+
+	/**
+	 * Locks for the creation of entities, an entity key always maps to the same lock
+	 */
+	private final Object[] stripes;
+
+	/**
+	 * Lock for setting relationships between entities
+	 */
+	private final Object modelLock;
+
+	/**
+	 * Entities created but not yet added to the Famix repository
+	 */
+	protected Queue<Entity> pendingEntities;
+
+	/**
+	 * When not null, the elements that will not change anymore are written as soon as the translation unit that created them is visited
+	 * (see {@link #translationUnitDone()})
+	 */
+	protected MSEStreamWriter streamWriter;
+
+	/**
+	 * While streaming, entities created by each thread since the last translation unit it visited (and all these lists)
+	 */
+	protected ThreadLocal<List<Entity>> createdByThread;
+	protected Queue<List<Entity>> allCreatedByThread;
+
+	/**
+	 * Keys of the stub entities of this extraction
+	 */
+	protected StubBindingTable stubBindings;
+
+	/**
+	 * Moose names of the container entities (see {@link #mooseNameOf(ContainerEntity)})
+	 */
+	protected Map<ContainerEntity,CachedMooseName> mooseNames;
+
+	/**
+	 * Children of container entities indexed by name, guarded by the model lock
+	 */
+	protected ChildIndex childIndex;
+
+	/**
+	 * Results of name resolutions (see {@link eu.synectique.verveine.extractor.utils.NameResolver#resolveOrCreate(eu.synectique.verveine.extractor.utils.QualifiedName, boolean, boolean)})
+	 */
+	protected ResolutionCache resolutions;
+
+	/**
+	 * Bindings found in the CDT index for the names in the source code, kept from one pass to the other
+	 */
+	protected BindingCache bindings;
+
+	/**
+	 * First Type, Namespace and Function created for each name (see {@link #findTopLevelEntity(String)})
+	 */
+	protected ConcurrentMap<String,Type> typesByName;
+	protected ConcurrentMap<String,Namespace> namespacesByName;
+	protected ConcurrentMap<String,Function> functionsByName;
+
  	public CDictionary(Repository famixRepo) {
 		super(famixRepo);
-		nameToFile = new Hashtable<IBinding,CFile>();
+
+		// the super constructor may have recovered entities from an existing repository
+		keyToEntity = new ConcurrentHashMap<IBinding,NamedEntity>(keyToEntity);
+		entityToKey = new ConcurrentHashMap<NamedEntity,IBinding>(entityToKey);
+		Map<String,Collection<NamedEntity>> names = new ConcurrentHashMap<String,Collection<NamedEntity>>();
+		for (Map.Entry<String,Collection<NamedEntity>> entry : nameToEntity.entrySet()) {
+			names.put(entry.getKey(), new ConcurrentLinkedQueue<NamedEntity>(entry.getValue()));
+		}
+		nameToEntity = names;
+		typesByName = new ConcurrentHashMap<String,Type>();
+		namespacesByName = new ConcurrentHashMap<String,Namespace>();
+		functionsByName = new ConcurrentHashMap<String,Function>();
+		for (Map.Entry<String,Collection<NamedEntity>> entry : nameToEntity.entrySet()) {
+			for (NamedEntity ent : entry.getValue()) {
+				indexTopLevel(entry.getKey(), ent);
+			}
+		}
+		typeToImpVar = new ConcurrentHashMap<Type,ImplicitVars>(typeToImpVar);
+
+		nameToFile = new ConcurrentHashMap<IBinding,CFile>();
+		pendingEntities = new ConcurrentLinkedQueue<Entity>();
+		streamWriter = null;
+		stubBindings = new StubBindingTable();
+		mooseNames = new ConcurrentHashMap<ContainerEntity,CachedMooseName>();
+		childIndex = new ChildIndex();
+		resolutions = new ResolutionCache();
+		bindings = new BindingCache();
+		modelLock = new Object();
+		stripes = new Object[LOCK_STRIPES];
+		for (int i=0; i < LOCK_STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+	}
+
+	// CONCURRENCY =======================================================================================================================================
+
+	/**
+	 * The lock to hold when setting or browsing relationships between entities
+	 */
+	public Object getModelLock() {
+		return modelLock;
+	}
+
+	/**
+	 * The lock guarding the creation of the entity with the given key
+	 */
+	protected Object lockFor(Object key) {
+		return stripes[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
+
+	/**
+	 * Adds to the Famix repository all entities created since the last call.
+	 * Must be called (from one thread) before using the repository, typically before exporting the model
+	 */
+	public void flushToRepository() {
+		Entity e;
+		synchronized (famixRepo) {
+			while ( (e = pendingEntities.poll()) != null ) {
+				famixRepo.add(e);
+			}
+		}
+	}
+
+	/**
+	 * Entities are buffered and added to the repository in {@link #flushToRepository()}
+	 */
+	@Override
+	public void famixRepoAdd(Entity e) {
+		if (streamWriter != null) {
+			createdByThread.get().add(e);
+		}
+		else {
+			pendingEntities.add(e);
+		}
+	}
+
+	// STREAMING =========================================================================================================================================
+
+	/**
+	 * From now on, the associations, comments and their anchors are written to <code>writer</code> when the translation unit that created them
+	 * has been visited, and they are not kept in memory.<br>
+	 * This must only be used for the last passes, when no association will be looked for or modified once its translation unit is visited.
+	 */
+	public void startStreaming(MSEStreamWriter writer) {
+		flushToRepository();
+		allCreatedByThread = new ConcurrentLinkedQueue<List<Entity>>();
+		createdByThread = new ThreadLocal<List<Entity>>() {
+			@Override
+			protected List<Entity> initialValue() {
+				List<Entity> created = new ArrayList<Entity>();
+				allCreatedByThread.add(created);
+				return created;
+			}
+		};
+		streamWriter = writer;
+	}
+
+	/**
+	 * Called when a translation unit has been visited: writes the finalized elements created by this thread,
+	 * other entities will be added to the repository
+	 */
+	public void translationUnitDone() {
+		if (streamWriter == null) {
+			return;
+		}
+		streamCreated(createdByThread.get());
+	}
+
+	/**
+	 * Writes what was created by all threads since their last translation unit and stops streaming
+	 */
+	public void stopStreaming() {
+		if (streamWriter == null) {
+			return;
+		}
+		for (List<Entity> created : allCreatedByThread) {
+			streamCreated(created);
+		}
+		streamWriter = null;
+		createdByThread = null;
+		allCreatedByThread = null;
+	}
+
+	protected void streamCreated(List<Entity> created) {
+		List<Entity> finalized = new ArrayList<Entity>();
+
+		if (created.isEmpty()) {
+			return;
+		}
+		for (Entity e : created) {
+			if (isFinalized(e)) {
+				finalized.add(e);
+			}
+			else {
+				pendingEntities.add(e);
+			}
+		}
+		created.clear();
+
+		streamWriter.stream(finalized);
+		synchronized (modelLock) {
+			streamWriter.release(finalized);
+		}
+	}
+
+	/**
+	 * Associations and comments do not change once their translation unit is visited, nor their anchors.
+	 * Other entities may still be referenced or modified
+	 */
+	protected boolean isFinalized(Entity e) {
+		if (e instanceof SourceAnchor) {
+			SourcedEntity element = ((SourceAnchor) e).getElement();
+			return (element != null) && isFinalized(element);
+		}
+		return (e instanceof Association) || (e instanceof Comment);
+	}
+
+	/**
+	 * Same as the inherited method except that it does not add the entity directly in the Famix repository
+	 */
+	@Override
+	protected <T extends NamedEntity> T createFamixEntity(java.lang.Class<T> fmxClass, String name, boolean persistIt) {
+		T fmx = newFamixEntity(fmxClass, name);
+		if (fmx != null) {
+			registerEntity(fmx, name, persistIt);
+		}
+		return fmx;
+	}
+
+	/**
+	 * Instantiates a Famix entity without registering it anywhere, so that it is not visible to other threads yet
+	 */
+	protected <T extends NamedEntity> T newFamixEntity(java.lang.Class<T> fmxClass, String name) {
+		T fmx = null;
+
+		if (name == null) {
+			return null;
+		}
+
+		try {
+			fmx = fmxClass.newInstance();
+		} catch (Exception e) {
+			System.err.println("Unexpected error, could not create a FAMIX entity: "+e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+
+		fmx.setName(name);
+		fmx.setIsStub(Boolean.TRUE);
+		return fmx;
+	}
+
+	/**
+	 * Makes a new entity visible by its name (and in the repository)
+	 */
+	protected void registerEntity(NamedEntity fmx, String name, boolean persistIt) {
+		mapEntityToName(name, fmx);
+		if (persistIt) {
+			famixRepoAdd(fmx);
+		}
+		// a new entity may change the result of the resolutions of its name
+		resolutions.entityCreated(name);
+	}
+	@Override
+	protected void mapEntityToName(String name, NamedEntity ent) {
+		if (! (nameToEntity instanceof ConcurrentHashMap)) {
+			// called from the super constructor when recovering entities from an existing repository, we are not initialized yet
+			super.mapEntityToName(name, ent);
+			return;
+		}
+
+		Collection<NamedEntity> l_ent = nameToEntity.get(name);
+		if (l_ent == null) {
+			Collection<NamedEntity> l_new = new ConcurrentLinkedQueue<NamedEntity>();
+			l_ent = ((ConcurrentHashMap<String,Collection<NamedEntity>>)nameToEntity).putIfAbsent(name, l_new);
+			if (l_ent == null) {
+				l_ent = l_new;
+			}
+		}
+		l_ent.add(ent);
+		indexTopLevel(name, ent);
+	}
+
+	/**
+	 * Records <code>ent</code> if it is the first Type, Namespace or Function with this name
+	 */
+	protected void indexTopLevel(String name, NamedEntity ent) {
+		if (ent instanceof Type) {
+			typesByName.putIfAbsent(name, (Type) ent);
+		}
+		else if (ent instanceof Namespace) {
+			namespacesByName.putIfAbsent(name, (Namespace) ent);
+		}
+		else if (ent instanceof Function) {
+			functionsByName.putIfAbsent(name, (Function) ent);
+		}
+	}
+
+	/**
+	 * Returns the first Type created with this name, or if there is none, the first Namespace, or the first Function.
+	 * This is the same as looking in {@link #getEntityByName(java.lang.Class, String)} for each of these Famix classes,
+	 * but without going through all the entities with this name
+	 * @return the entity found or null
+	 */
+	public ContainerEntity findTopLevelEntity(String name) {
+		ContainerEntity found;
+
+		found = typesByName.get(name);
+		if (found != null) {
+			return found;
+		}
+		found = namespacesByName.get(name);
+		if (found != null) {
+			return found;
+		}
+		return functionsByName.get(name);
+	}
+
+	/**
+	 * Initializes a new entity before it is registered in the dictionary (see {@link CDictionary#ensureFamixEntity(java.lang.Class, IBinding, String, boolean, Initializer)}).
+	 * Called while holding the model lock, only once per entity
+	 */
+	protected interface Initializer<T extends NamedEntity> {
+		void initialize(T fmx);
+	}
+
+	/**
+	 * Atomic version of the inherited method: only one entity may ever be created for a given key
+	 */
+	@Override
+	protected <T extends NamedEntity> T ensureFamixEntity(java.lang.Class<T> fmxClass, IBinding key, String name, boolean persistIt) {
+		return ensureFamixEntity(fmxClass, key, name, persistIt, null);
+	}
+
+	/**
+	 * Returns the entity of <code>key</code>, or creates it, initializes it with <code>init</code> (may be null) and only then registers it.<br>
+	 * The lock is chosen from the name, like for {@link #ensureFamixUniqEntity(java.lang.Class, IBinding, String, Initializer)},
+	 * the name of an entity being computed from its key
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends NamedEntity> T ensureFamixEntity(java.lang.Class<T> fmxClass, IBinding key, String name, boolean persistIt, Initializer<? super T> init) {
+		T fmx;
+
+		if (ImplicitVariable.class.isAssignableFrom(fmxClass)) {
+			return null;   // same as the inherited method, see ensureFamixImplicitVariable()
+		}
+		if (key != null) {
+			fmx = (T) keyToEntity.get(key);
+			if (fmx != null) {
+				return fmx;
+			}
+		}
+		if (name == null) {
+			return null;
+		}
+
+		synchronized (lockFor(name)) {
+			if (key != null) {
+				fmx = (T) keyToEntity.get(key);
+				if (fmx != null) {
+					return fmx;
+				}
+			}
+
+			fmx = newFamixEntity(fmxClass, name);
+			if (fmx == null) {
+				return null;
+			}
+			initialize(fmx, init);
+			registerEntity(fmx, name, persistIt);
+			if (key != null) {
+				entityToKey.put(fmx, key);
+				keyToEntity.put(key, fmx);    // last, the entity is complete when it can be found by its key
+			}
+		}
+		return fmx;
+	}
+
+	/**
+	 * Atomic version of the inherited method: only one entity may ever be created for a given name
+	 */
+	@Override
+	public <T extends NamedEntity> T ensureFamixUniqEntity(java.lang.Class<T> fmxClass, IBinding key, String name) {
+		return ensureFamixUniqEntity(fmxClass, key, name, null);
+	}
+
+	/**
+	 * Returns the entity of <code>key</code> or the first entity named <code>name</code>, or creates it, initializes it with <code>init</code>
+	 * (may be null) and only then registers it. Uses the same locks as {@link #ensureFamixEntity(java.lang.Class, IBinding, String, boolean, Initializer)}
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends NamedEntity> T ensureFamixUniqEntity(java.lang.Class<T> fmxClass, IBinding key, String name, Initializer<? super T> init) {
+		T fmx = null;
+
+		if (name == null) {
+			return null;
+		}
+
+		synchronized (lockFor(name)) {
+			if (key != null) {
+				fmx = (T) keyToEntity.get(key);
+			}
+			if (fmx == null) {
+				Collection<T> named = getEntityByName(fmxClass, name);
+				if (named.size() > 0) {
+					fmx = named.iterator().next();
+				}
+				else {
+					fmx = newFamixEntity(fmxClass, name);
+					if (fmx == null) {
+						return null;
+					}
+					initialize(fmx, init);
+					registerEntity(fmx, name, /*persistIt*/true);
+				}
+				if (key != null) {
+					keyToEntity.put(key, fmx);
+				}
+			}
+		}
+		return fmx;
+	}
+
+	private <T extends NamedEntity> void initialize(T fmx, Initializer<? super T> init) {
+		if (init != null) {
+			synchronized (modelLock) {
+				init.initialize(fmx);
+			}
+		}
+	}
+
+	/**
+	 * Index of the children of container entities, must only be used while holding the model lock
+	 */
+	public ChildIndex getChildIndex() {
+		return childIndex;
+	}
+
+	public ResolutionCache getResolutionCache() {
+		return resolutions;
+	}
+
+	public BindingCache getBindingCache() {
+		return bindings;
+	}
+
+	/**
+	 * Adds a new child to the index of its parent, must be called while holding the model lock
+	 */
+	protected void indexChild(ContainerEntity parent, int kind, NamedEntity child) {
+		if (parent == null) {
+			return;
+		}
+
+		switch (kind) {
+		case ChildIndex.TYPES:            childIndex.childAdded(parent, kind, parent.getTypes(), child);                           break;
+		case ChildIndex.FUNCTIONS:        childIndex.childAdded(parent, kind, parent.getFunctions(), child);                       break;
+		case ChildIndex.ATTRIBUTES:       childIndex.childAdded(parent, kind, ((Type)parent).getAttributes(), child);              break;
+		case ChildIndex.METHODS:          childIndex.childAdded(parent, kind, ((Type)parent).getMethods(), child);                 break;
+		case ChildIndex.GLOBAL_VARIABLES: childIndex.childAdded(parent, kind, ((ScopingEntity)parent).getGlobalVariables(), child); break;
+		case ChildIndex.CHILD_SCOPES:     childIndex.childAdded(parent, kind, ((ScopingEntity)parent).getChildScopes(), child);     break;
+		case ChildIndex.PARAMETERS:       childIndex.childAdded(parent, kind, ((BehaviouralEntity)parent).getParameters(), child);  break;
+		}
+	}
+
+	// STUB KEYS =======================================================================================================================================
+
+	/**
+	 * Returns the key of a stub entity (see {@link StubBindingTable#getInstance(java.lang.Class, String)})
+	 */
+	public <T extends NamedEntity> StubBinding getStubBinding(java.lang.Class<T> clazz, String id) {
+		return stubBindings.getInstance(clazz, id);
+	}
+
+	public StubBindingTable getStubBindings() {
+		return stubBindings;
 	}
 
+	/**
+	 * Releases the stub keys that are not used as entity keys, typically at the end of the extraction.
+	 * Stub keys asked after that will not be the same instances as before (but they will still be equal)
+	 */
+	public void releaseStubBindings() {
+		stubBindings.clear();
+	}
+
+	// ENTITIES AND ASSOCIATIONS =========================================================================================================================
+
 	protected NamedEntity getEntityIfNotNull(IBinding key) {
 		if (key == null) {
 			return null;
@@ -122,7 +646,9 @@ public class CDictionary extends Dictionary<IBinding> {
 			}
 
 			fa = createIndexedSourceAnchor(filename, start, end);
-			fmx.setSourceAnchor(fa);
+			synchronized (modelLock) {
+				fmx.setSourceAnchor(fa);
+			}
 
 			return fa;
 		}
@@ -151,36 +677,43 @@ public class CDictionary extends Dictionary<IBinding> {
 
 	public SourceAnchor addSourceAnchorMulti(SourcedEntity fmx, String filename, int start, int end) {
 		MultipleFileAnchor mfa;
+		IndexedFileAnchor fa;
 
 		if (fmx == null) {
 			return null;
 		}
 
-		mfa = (MultipleFileAnchor) fmx.getSourceAnchor();
-		if (mfa == null) {
-			mfa = new MultipleFileAnchor();
-			fmx.setSourceAnchor(mfa);
-			famixRepoAdd(mfa);
-		}
+		fa = createIndexedSourceAnchor(filename, start, end);
 
-		// check if we already have this filename in the MultipleFileAnchor
-		/*for (AbstractFileAnchor f : mfa.getAllFiles()) {
-			if ( f.getFileName().equals(filename) ) {
-				// note: Could check also the position in the file ...
-				return mfa;
+		synchronized (modelLock) {
+			mfa = (MultipleFileAnchor) fmx.getSourceAnchor();
+			if (mfa == null) {
+				mfa = new MultipleFileAnchor();
+				fmx.setSourceAnchor(mfa);
+				famixRepoAdd(mfa);
 			}
-		}*/
 
-		mfa.addAllFiles( createIndexedSourceAnchor(filename, start, end) );
+			// check if we already have this filename in the MultipleFileAnchor
+			/*for (AbstractFileAnchor f : mfa.getAllFiles()) {
+				if ( f.getFileName().equals(filename) ) {
+					// note: Could check also the position in the file ...
+					return mfa;
+				}
+			}*/
+
+			mfa.addAllFiles(fa);
+		}
 
 		return mfa;
 	}
 
 	public DereferencedInvocation addFamixDereferencedInvocation(BehaviouralEntity sender, StructuralEntity referencer, String signature, Association prev) {
 		DereferencedInvocation invok = new DereferencedInvocation();
-		invok.setSender(sender);
-		invok.setReferencer(referencer);
-		chainPrevNext(prev, invok);
+		synchronized (modelLock) {
+			invok.setSender(sender);
+			invok.setReferencer(referencer);
+			chainPrevNext(prev, invok);
+		}
 		famixRepoAdd(invok);
 
 		if (signature != null) {
@@ -192,8 +725,10 @@ public class CDictionary extends Dictionary<IBinding> {
 
 	public BehaviouralReference addFamixBehaviouralPointer(BehaviouralEntity ref, BehaviouralEntity fmx) {
 		BehaviouralReference pointer = new BehaviouralReference();
-		pointer.setPointed(fmx);
-		pointer.setReferer(ref);
+		synchronized (modelLock) {
+			pointer.setPointed(fmx);
+			pointer.setReferer(ref);
+		}
 		famixRepoAdd(pointer);
 		return pointer;
 	}
@@ -201,24 +736,37 @@ public class CDictionary extends Dictionary<IBinding> {
 	public CFile ensureFamixCFile( IBinding key, String name) {
 		CFile fmx = nameToFile.get(key);
 		if (fmx == null) {
+			CFile created;
 			if (FileUtil.isHeader(name)) {
-				fmx = new Header();
+				created = new Header();
 			}
 			else {
-				fmx = new CompilationUnit();
+				created = new CompilationUnit();
+			}
+			created.setName(name);
+
+			fmx = ((ConcurrentHashMap<IBinding,CFile>)nameToFile).putIfAbsent(key, created);
+			if (fmx == null) {
+				// we won the race, the new file is the one
+				fmx = created;
+				famixRepoAdd(fmx);
 			}
-			fmx.setName(name);
-			famixRepo.add(fmx);
-			nameToFile.put(key, fmx);
 		}
 		
 		return fmx;
 	}
 
-	public Module ensureFamixModule(IBinding key, String name, Package owner) {
-		Module fmx = ensureFamixEntity(Module.class, key, name, /*persistIt*/true);
-		fmx.setParentPackage(owner);
-
+	public Module ensureFamixModule(IBinding key, String name, final Package owner) {
+		Module fmx = ensureFamixEntity(Module.class, key, name, /*persistIt*/true, new Initializer<Module>() {
+			public void initialize(Module fmx) {
+				fmx.setParentPackage(owner);
+			}
+		});
+		synchronized (modelLock) {
+			if (fmx.getParentPackage() != owner) {
+				fmx.setParentPackage(owner);
+			}
+		}
 		return fmx;
 	}
 
@@ -228,8 +776,10 @@ public class CDictionary extends Dictionary<IBinding> {
 		}
 
 		Include inc = new Include();
-		inc.setTarget(tgt);
-		inc.setSource(src);
+		synchronized (modelLock) {
+			inc.setTarget(tgt);
+			inc.setSource(src);
+		}
 		famixRepoAdd(inc);
 
 		return inc;
@@ -240,107 +790,132 @@ public class CDictionary extends Dictionary<IBinding> {
 
 		fmx = new PreprocessorIfdef();
 		fmx.setMacro(macroName);
-		this.famixRepo.add(fmx);
+		famixRepoAdd(fmx);
 
 		return fmx;
 	}
 
-	public UnknownVariable ensureFamixUnknownVariable(IBinding key, String name, Package parent) {
-		UnknownVariable fmx = null;
-		
-		if (key != null) {
-			fmx = (UnknownVariable) getEntityByKey(key);
-		}
-
-		if (fmx == null) {
-			fmx = super.ensureFamixEntity(UnknownVariable.class, key, name, /*persistIt*/true);
-			fmx.setParentPackage(parent);
-		}
-		
-		return fmx;
+	public UnknownVariable ensureFamixUnknownVariable(IBinding key, String name, final Package parent) {
+		return ensureFamixEntity(UnknownVariable.class, key, name, /*persistIt*/true, new Initializer<UnknownVariable>() {
+			public void initialize(UnknownVariable fmx) {
+				fmx.setParentPackage(parent);
+			}
+		});
 	}
 
-	public GlobalVariable ensureFamixGlobalVariable(IBinding key, String name, ScopingEntity parent) {
-		GlobalVariable fmx;
-		fmx = ensureFamixEntity(GlobalVariable.class, key, name, /*persistIt*/true);
-		fmx.setParentScope(parent);
-
+	public GlobalVariable ensureFamixGlobalVariable(IBinding key, String name, final ScopingEntity parent) {
+		GlobalVariable fmx = ensureFamixEntity(GlobalVariable.class, key, name, /*persistIt*/true, new Initializer<GlobalVariable>() {
+			public void initialize(GlobalVariable fmx) {
+				fmx.setParentScope(parent);
+				indexChild(parent, ChildIndex.GLOBAL_VARIABLES, fmx);
+			}
+		});
+		synchronized (modelLock) {
+			if (fmx.getParentScope() != parent) {
+				// e.g. declared in another scope before
+				fmx.setParentScope(parent);
+				indexChild(parent, ChildIndex.GLOBAL_VARIABLES, fmx);
+			}
+		}
 		return fmx;
 	}
 
-	public Namespace ensureFamixNamespace(IBinding key, String name, ScopingEntity parent) {
-		Namespace fmx = super.ensureFamixNamespace(key, name);
-		if (parent != null) {
-			fmx.setParentScope(parent);
+	public Namespace ensureFamixNamespace(IBinding key, String name, final ScopingEntity parent) {
+		Namespace fmx = ensureFamixUniqEntity(Namespace.class, key, name, new Initializer<Namespace>() {
+			public void initialize(Namespace fmx) {
+				if (parent != null) {
+					fmx.setParentScope(parent);
+					indexChild(parent, ChildIndex.CHILD_SCOPES, fmx);
+				}
+			}
+		});
+		if ( (fmx != null) && (parent != null) ) {
+			synchronized (modelLock) {
+				if (fmx.getParentScope() != parent) {
+					// found by name, e.g. created before as a stub
+					fmx.setParentScope(parent);
+					indexChild(parent, ChildIndex.CHILD_SCOPES, fmx);
+				}
+			}
 		}
 		return fmx;
 	}
 
-	public Package ensureFamixPackage(String name, Package parent) {
-		IBinding key = StubBinding.getInstance(Package.class, mooseName(parent, name));
-		Package fmx = super.ensureFamixEntity(Package.class, key, name, /*persitIt*/true);
-		fmx.setIsStub(false);
-		if (parent != null) {
-			fmx.setParentPackage(parent);
+	public Package ensureFamixPackage(String name, final Package parent) {
+		IBinding key = getStubBinding(Package.class, mooseName(parent, name));
+		Package fmx = ensureFamixEntity(Package.class, key, name, /*persitIt*/true, new Initializer<Package>() {
+			public void initialize(Package fmx) {
+				fmx.setIsStub(false);
+				fmx.setParentPackage(parent);
+			}
+		});
+		synchronized (modelLock) {
+			fmx.setIsStub(false);    // may have been created as a stub before
+			if ( (parent != null) && (fmx.getParentPackage() != parent) ) {
+				fmx.setParentPackage(parent);
+			}
 		}
 		return fmx;
 	}
 
 	public TypeAlias ensureFamixTypeAlias(IBinding key, String name, ContainerEntity owner) {
-		TypeAlias fmx;
-
-		fmx = super.ensureFamixEntity(TypeAlias.class, key, name, /*persistIt*/true);
-		fmx.setContainer(owner);
-
+		TypeAlias fmx = ensureFamixEntity(TypeAlias.class, key, name, /*persistIt*/true, new ContainedType(owner));
+		setContainer(fmx, owner);
 		return fmx;
 	}
 
 	public Type ensureFamixType(IBinding key, String name, ContainerEntity owner) {
-		Type fmx = (Type) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixType(key, name, owner, /*persistIt*/true);
-		}
-		
-		return fmx;
+		return ensureFamixEntity(Type.class, key, name, /*persistIt*/true, new ContainedType(owner));
 	}
 
 	public eu.synectique.verveine.core.gen.famix.Class ensureFamixClass(IBinding key, String name, ContainerEntity owner) {
-		eu.synectique.verveine.core.gen.famix.Class fmx;
-		fmx = (eu.synectique.verveine.core.gen.famix.Class) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixClass(key, name, owner, /*persistIt*/true);
-		}
-		
-		return fmx;
+		return ensureFamixEntity(eu.synectique.verveine.core.gen.famix.Class.class, key, name, /*persistIt*/true, new ContainedType(owner));
 	}
 
 	public ParameterizableClass ensureFamixParameterizableClass(IBinding key, String name, ContainerEntity owner) {
-		ParameterizableClass fmx;
-		fmx = (ParameterizableClass) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixParameterizableClass(key, name, owner, /*persistIt*/true);
-		}
-		
-		return fmx;
+		return ensureFamixEntity(ParameterizableClass.class, key, name, /*persistIt*/true, new ContainedType(owner));
 	}
 
 	public ParameterType ensureFamixParameterType(IBinding key, String name, ContainerEntity owner) {
-		ParameterType fmx;
-		fmx = (ParameterType) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixParameterType(key, name, owner, /*persistIt*/true);
+		return ensureFamixEntity(ParameterType.class, key, name, /*persistIt*/true, new ContainedType(owner));
+	}
+
+ 	public ParameterizedType ensureFamixParameterizedType(IBinding key, String name, final ParameterizableClass generic, final ContainerEntity owner) {
+		return ensureFamixEntity(ParameterizedType.class, key, name, /*persistIt*/true, new Initializer<ParameterizedType>() {
+			public void initialize(ParameterizedType fmx) {
+				fmx.setContainer(owner);
+				fmx.setParameterizableClass(generic);
+				indexChild(owner, ChildIndex.TYPES, fmx);
+			}
+		});
+	}
+
+	/**
+	 * Moves an existing type to <code>owner</code> if it is in another container (e.g. it was declared before its definition)
+	 */
+	protected void setContainer(Type fmx, ContainerEntity owner) {
+		synchronized (modelLock) {
+			if (fmx.getContainer() != owner) {
+				fmx.setContainer(owner);
+				indexChild(owner, ChildIndex.TYPES, fmx);
+			}
 		}
-		return fmx;
 	}
 
- 	public ParameterizedType ensureFamixParameterizedType(IBinding key, String name, ParameterizableClass generic, ContainerEntity owner) {
-		ParameterizedType fmx;
-		fmx = (ParameterizedType) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixParameterizedType(key, name, generic, owner, /*persistIt*/true);
+	/**
+	 * Initializes a new type in its container
+	 */
+	protected class ContainedType implements Initializer<Type> {
+		private ContainerEntity owner;
+
+		protected ContainedType(ContainerEntity owner) {
+			this.owner = owner;
+		}
+
+		public void initialize(Type fmx) {
+			fmx.setContainer(owner);
+			indexChild(owner, ChildIndex.TYPES, fmx);
 		}
-		
-		return fmx;
 	}
 
 	/** 
@@ -354,7 +929,7 @@ public class CDictionary extends Dictionary<IBinding> {
 		// apparently CDT gives a binding to the parameterType at its declaration ("template <class T> ...")
 		// but not when used ("... mth(T)") so we ignore CDT binding and always use our custom build one
     	IBinding bnd;
-    	bnd = StubBinding.getInstance(Type.class, mooseName(owner, name));
+    	bnd = getStubBinding(Type.class, mooseName(owner, name));
 
 		if (owner instanceof ParameterizableClass) {
 			return ensureFamixParameterType(bnd, name, owner);
@@ -365,71 +940,147 @@ public class CDictionary extends Dictionary<IBinding> {
 	}
 
 	/**
-	 * May return null
+	 * May return null (e.g. for <code>void</code>).<br>
+	 * The key is made of the PrimitiveType class and the name of the type, so it cannot collide with the key of another Type
 	 */
 	public Type ensureFamixPrimitiveType(int type) {
-		StubBinding bnd = StubBinding.getInstance(Type.class, "_primitive_/"+type);
-		return ensureFamixPrimitiveType(bnd, primitiveTypeName(type));
-	}
-
-	public Function ensureFamixFunction(IBinding key, String name, String sig, ContainerEntity parent) {
-		Function fmx;
-		fmx = (Function) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixFunction(key, name, sig, /*returnType*/null, parent, /*persistIt*/true);
-			fmx.setCyclomaticComplexity(1);
-			fmx.setNumberOfStatements(0);
+		String name = primitiveTypeName(type);
+		if (name == null) {
+			return null;
 		}
-		return fmx;
+		StubBinding bnd = getStubBinding(PrimitiveType.class, name);
+		return ensureFamixPrimitiveType(bnd, name);
 	}
 
-	public Method ensureFamixMethod(IBinding key, String name, String signature, Type parent) {
-		Method fmx;
-		fmx = (Method) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixMethod(key, name, signature, /*returnType*/null, parent, /*persistIt*/true);
-			fmx.setCyclomaticComplexity(1);
-			fmx.setNumberOfStatements(0);
-		}
-
-		return fmx;
+	public Function ensureFamixFunction(IBinding key, String name, final String sig, final ContainerEntity parent) {
+		return ensureFamixEntity(Function.class, key, name, /*persistIt*/true, new Initializer<Function>() {
+			public void initialize(Function fmx) {
+				fmx.setSignature(sig);
+				fmx.setContainer(parent);
+				indexChild(parent, ChildIndex.FUNCTIONS, fmx);
+				fmx.setCyclomaticComplexity(1);
+				fmx.setNumberOfStatements(0);
+			}
+		});
 	}
 
-	public Attribute ensureFamixAttribute(IBinding key, String name, Type parent) {
-		Attribute fmx;
-		fmx = (Attribute) getEntityIfNotNull(key);
-		if (fmx == null) {
-			fmx = super.ensureFamixAttribute(key, name, /*type*/null, parent, /*persistIt*/true);
-		}
+	public Method ensureFamixMethod(IBinding key, String name, final String signature, final Type parent) {
+		return ensureFamixEntity(Method.class, key, name, /*persistIt*/true, new Initializer<Method>() {
+			public void initialize(Method fmx) {
+				fmx.setSignature(signature);
+				fmx.setParentType(parent);
+				indexChild(parent, ChildIndex.METHODS, fmx);
+				fmx.setCyclomaticComplexity(1);
+				fmx.setNumberOfStatements(0);
+			}
+		});
+	}
 
-		return fmx;
+	public Attribute ensureFamixAttribute(IBinding key, String name, final Type parent) {
+		return ensureFamixEntity(Attribute.class, key, name, /*persistIt*/true, new Initializer<Attribute>() {
+			public void initialize(Attribute fmx) {
+				fmx.setParentType(parent);
+				indexChild(parent, ChildIndex.ATTRIBUTES, fmx);
+			}
+		});
 	}
 
 	/**
 	 * Returns a Famix Parameter associated with the IBinding.
 	 * The Entity is created if it does not exist.<br>
 	 * Params: see {@link Dictionary#ensureFamixParameter(Object, String, Type, eu.synectique.verveine.core.gen.famix.BehaviouralEntity, boolean)}.
-	 * @param persistIt -- whether to persist or not the entity eventually created
 	 * @return the Famix Entity found or created. May return null if "bnd" is null or in case of a Famix error
 	 */
-	public Parameter ensureFamixParameter(IBinding bnd, String name, BehaviouralEntity owner) {
-		Parameter fmx = null;
+	public Parameter ensureFamixParameter(IBinding bnd, String name, final BehaviouralEntity owner) {
+		return ensureFamixEntity(Parameter.class, bnd, name, /*persistIt*/true, new Initializer<Parameter>() {
+			public void initialize(Parameter fmx) {
+				fmx.setParentBehaviouralEntity(owner);
+				indexChild(owner, ChildIndex.PARAMETERS, fmx);
+			}
+		});
+	}
 
-		// --------------- to avoid useless computations if we can
-		fmx = (Parameter)getEntityByKey(bnd);
-		if (fmx != null) {
-			return fmx;
+	public ImplicitVariable ensureFamixImplicitVariable(String name, Type type, BehaviouralEntity owner) {
+		synchronized (modelLock) {
+			return super.ensureFamixImplicitVariable( name, type, owner, /*persistIt*/true);
 		}
+	}
 
-		if (fmx == null) {
-			fmx = super.createFamixParameter(bnd, name, /*type*/null, owner, /*persistIt*/true);
-		}
+	@Override
+	public Enum ensureFamixEnum(IBinding key, String name, ContainerEntity owner, boolean persistIt) {
+		Enum fmx = ensureFamixEntity(Enum.class, key, name, persistIt, new ContainedType(owner));
+		setContainer(fmx, owner);
+		return fmx;
+	}
 
+	@Override
+	public EnumValue ensureFamixEnumValue(IBinding key, String name, final Enum owner, boolean persistIt) {
+		EnumValue fmx = ensureFamixEntity(EnumValue.class, key, name, persistIt, new Initializer<EnumValue>() {
+			public void initialize(EnumValue fmx) {
+				fmx.setParentEnum(owner);
+			}
+		});
+		synchronized (modelLock) {
+			if (fmx.getParentEnum() != owner) {
+				fmx.setParentEnum(owner);
+			}
+		}
 		return fmx;
 	}
 
-	public ImplicitVariable ensureFamixImplicitVariable(String name, Type type, BehaviouralEntity owner) {
-		return super.ensureFamixImplicitVariable( name, type, owner, /*persistIt*/true);
+	@Override
+	public Comment createFamixComment(String txt) {
+		Comment cmt = null;
+
+		if (txt != null) {
+			cmt = new Comment();
+			cmt.setContent(txt);
+			famixRepoAdd(cmt);
+		}
+
+		return cmt;
+	}
+
+	@Override
+	public Comment createFamixComment(String txt, SourcedEntity owner) {
+		Comment cmt = null;
+
+		if ( (txt != null) && (owner != null) ) {
+			cmt = createFamixComment(txt);
+			synchronized (modelLock) {
+				cmt.setContainer(owner);
+			}
+		}
+
+		return cmt;
+	}
+
+	@Override
+	public Inheritance ensureFamixInheritance(Type sup, Type sub, Association prev) {
+		synchronized (modelLock) {
+			return super.ensureFamixInheritance(sup, sub, prev);
+		}
+	}
+
+	@Override
+	public Reference addFamixReference(ContainerEntity src, ContainerEntity tgt, Association prev) {
+		synchronized (modelLock) {
+			return super.addFamixReference(src, tgt, prev);
+		}
+	}
+
+	@Override
+	public Invocation addFamixInvocation(BehaviouralEntity sender, BehaviouralEntity invoked, NamedEntity receiver, String signature, Association prev) {
+		synchronized (modelLock) {
+			return super.addFamixInvocation(sender, invoked, receiver, signature, prev);
+		}
+	}
+
+	@Override
+	public Access addFamixAccess(BehaviouralEntity accessor, StructuralEntity var, boolean isWrite, Association prev) {
+		synchronized (modelLock) {
+			return super.addFamixAccess(accessor, var, isWrite, prev);
+		}
 	}
 
 	/**
@@ -438,7 +1089,39 @@ public class CDictionary extends Dictionary<IBinding> {
 	 */
 	public void setVisibility(NamedEntity fmx, Visibility visi) {
 		if (visi != null) {
-			fmx.addModifiers(visi.toString());
+			synchronized (modelLock) {
+				fmx.addModifiers(visi.toString());
+			}
+		}
+	}
+
+	/**
+	 * Sets the declared type of a variable, attribute, parameter, ... (see also {@link #setDeclaredType(BehaviouralEntity, Type)})
+	 */
+	public void setDeclaredType(StructuralEntity fmx, Type type) {
+		synchronized (modelLock) {
+			fmx.setDeclaredType(type);
+		}
+	}
+
+	/**
+	 * Sets the declared (return) type of a function or method
+	 */
+	public void setDeclaredType(BehaviouralEntity fmx, Type type) {
+		synchronized (modelLock) {
+			fmx.setDeclaredType(type);
+		}
+	}
+
+	public void addInvocationArgument(Invocation invok, Association arg) {
+		synchronized (modelLock) {
+			invok.addArguments(arg);
+		}
+	}
+
+	public void addTypeArgument(ParameterizedType fmx, Type arg) {
+		synchronized (modelLock) {
+			fmx.addArguments(arg);
 		}
 	}
 
@@ -483,97 +1166,108 @@ public class CDictionary extends Dictionary<IBinding> {
 
 	/**
 	 * Computes moose name for an entity in a Container.
-	 * This is a convenience method that delegates to one of {@link #mooseName(Function, String)}; {@link #mooseName(Method, String)}; {@link #mooseName(Namespace, String)};
-	 * {@link #mooseName(Package, String)}; or {@link #mooseName(Type, String)}
-	 * And this is required because at some point we need to call it with an unknown ContainerEntity :-(
+	 * MooseName is the concatenation of the moosename of the parent with the simple name of the child
+	 * (see {@link #mooseNameOf(ContainerEntity)} for the parent)
 	 */
-	static public String mooseName(ContainerEntity parent, String name) {
-		if (parent instanceof Namespace) {
-			return mooseName((Namespace)parent, name);
-		}
-		else if (parent instanceof Package) {
-			return mooseName((Package)parent, name);
-		}
-		else if (parent instanceof Type) {
-			return mooseName((Type)parent, name);
-		}
-		else if (parent instanceof Method) {
-			return mooseName((Method)parent, name);
-		}
-		else if (parent instanceof Function) {
-			return mooseName((Function)parent, name);
-		}
-		else { // e.g. parent == null
-			return name;
-		}
-	}
+	public String mooseName(ContainerEntity parent, String name) {
+		String prefix = null;
 
-	/**
-	 * Computes moose name for a Namespace child.
-	 * MooseName is the concatenation of the moosename of the parent Namescape with the simple name of the child
-	 */
-	static public String mooseName(Namespace parent, String name) {
-		String ret;
-		
 		if (parent != null) {
-			ret = concatMooseName( mooseName((Namespace)parent.getParentScope(), parent.getName()) , name);
-		}
-		else {
-			ret = name;
+			prefix = mooseNameOf(parent);
 		}
 
-		return ret;
-	}
-	
-	/**
-	 * Computes moose name for a Package child
-	 * MooseName is the concatenation of the moosename of the parent Package with the simple name of the child
-	 */
-	static public String mooseName(Package parent, String name) {
-		if (parent != null) {
-			return concatMooseName( mooseName(parent.getParentPackage(), parent.getName()) , name);
+		if (prefix == null) { // e.g. parent == null
+			return name;
 		}
 		else {
-			return name;
+			return concatMooseName(prefix, name);
 		}
 	}
 
 	/**
-	 * Computes moose name for a Method child.
-	 * MooseName is the concatenation of the moosename of the parent Mathod with the simple name of the child
+	 * Moose name of a Namespace, Package, Type, Method or Function (null for other entities).<br>
+	 * Moose names are cached: each cache entry records the parent, the moose name of the parent and the local name
+	 * (name or signature) it was computed from. The cached entry is checked first and only against the direct parent:
+	 * it is recomputed (one concatenation) when the entity was renamed or given another parent, or when the cached
+	 * moose name of the parent changed. Parents and local names are read under the model lock.
 	 */
-	static public String mooseName(Method parent, String name) {
-		if (parent != null) {
-			return concatMooseName( mooseName(parent.getParentType(), parent.getSignature()) , name);
+	protected String mooseNameOf(ContainerEntity entity) {
+		ContainerEntity parent;
+		String localName;
+
+		synchronized (modelLock) {
+			if (entity instanceof Namespace) {
+				parent = ((Namespace)entity).getParentScope();
+				localName = entity.getName();
+			}
+			else if (entity instanceof Package) {
+				parent = ((Package)entity).getParentPackage();
+				localName = entity.getName();
+			}
+			else if (entity instanceof Type) {
+				parent = ((Type)entity).getContainer();
+				localName = entity.getName();
+			}
+			else if (entity instanceof Method) {
+				parent = ((Method)entity).getParentType();
+				localName = ((Method)entity).getSignature();
+			}
+			else if (entity instanceof Function) {
+				parent = ((Function)entity).getContainer();
+				localName = ((Function)entity).getSignature();
+			}
+			else {
+				return null;
+			}
 		}
-		else {
-			return name;
+
+		CachedMooseName cached = mooseNames.get(entity);
+		if ( (cached != null) && (cached.parent == parent) && sameName(cached.localName, localName) ) {
+			if (parent == null) {
+				return cached.name;
+			}
+			// parent moose names are compared by identity, a recomputed moose name is a new String
+			CachedMooseName parentCached = mooseNames.get(parent);
+			if ( (parentCached != null) && (parentCached.name == cached.parentName) ) {
+				return cached.name;
+			}
 		}
-	}
 
-	/**
-	 * Computes moose name for a Function child.
-	 * MooseName is the concatenation of the moosename of the parent Function with the simple name of the child
-	 */
-	static public String mooseName(Function parent, String name) {
+		String parentName = null;
+		String fullName;
 		if (parent != null) {
-			return concatMooseName( mooseName(parent.getContainer(), parent.getSignature()) , name);
+			parentName = mooseNameOf(parent);
+		}
+
+		if (parentName == null) {
+			fullName = localName;
 		}
 		else {
-			return name;
+			fullName = concatMooseName(parentName, localName);
 		}
+		mooseNames.put(entity, new CachedMooseName(parent, parentName, localName, fullName));
+
+		return fullName;
+	}
+
+	private static boolean sameName(String cached, String current) {
+		return (cached == null) ? (current == null) : cached.equals(current);
 	}
 
 	/**
-	 * Computes moose name for a Type.
-	 * MooseName is the concatenation of the moosename of the parent package with the simple name of the type
+	 * A moose name with what it was computed from
 	 */
-	static public String mooseName(Type parent, String name) {
-		if (parent != null) {
-			return concatMooseName( mooseName(parent.getContainer(), parent.getName()) , name);
-		}
-		else {
-			return name;
+	protected static class CachedMooseName {
+		protected final ContainerEntity parent;
+		protected final String parentName;
+		protected final String localName;
+		protected final String name;
+
+		protected CachedMooseName(ContainerEntity parent, String parentName, String localName, String name) {
+			this.parent = parent;
+			this.parentName = parentName;
+			this.localName = localName;
+			this.name = name;
 		}
 	}
 
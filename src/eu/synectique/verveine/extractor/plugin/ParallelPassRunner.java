@@ -0,0 +1,144 @@
+package eu.synectique.verveine.extractor.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.model.ITranslationUnit;
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.utils.ASTCache;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
+import eu.synectique.verveine.extractor.visitors.AbstractDispatcherVisitor;
+
+/**
+ * Runs a pass on all translation units of the project with several threads (a fork-join pool).<br>
+ * The pool is given by the caller and shared by all the passes of a run, including the ones run by the {@link PassScheduler}:
+ * a pass run from a thread of the pool forks its workers in the same pool, so passes running at the same time share its threads.<br>
+ * Each worker thread has its own instance of the pass (visitor), and thus its own NameResolver and context,
+ * and takes translation units one after the other from the common list until all are visited.
+ * Passes run this way must only modify the model through the {@link CDictionary} (which is thread safe).
+ * This is the case of the reference passes that mostly look up entities created in the definition passes.
+ * <p>
+ * Without a pool, the pass is run the same way by a single worker in the calling thread.
+ * An exception while visiting a translation unit is logged and the worker goes on with the next translation unit
+ * with a new instance of the pass, because the context of the failed one may not be consistent any more.
+ */
+public class ParallelPassRunner {
+
+	/**
+	 * Creates the visitor instance of a worker
+	 */
+	public interface PassFactory {
+		AbstractDispatcherVisitor newPass();
+	}
+
+	/**
+	 * CDT index, workers hold a read lock on it while visiting
+	 */
+	protected IIndex index;
+
+	/**
+	 * AST cache shared by all the workers (it is thread safe)
+	 */
+	protected ASTCache astCache;
+
+	/**
+	 * Runs the workers, one worker per thread of the pool. <code>null</code> to run a single worker in the calling thread
+	 */
+	protected ForkJoinPool pool;
+
+	public ParallelPassRunner(ForkJoinPool pool, IIndex index, ASTCache astCache) {
+		this.pool = pool;
+		this.index = index;
+		this.astCache = astCache;
+	}
+
+	/**
+	 * Runs the pass created by <code>factory</code> on all the translation units and returns when they are all visited
+	 */
+	public void run(TranslationUnitManifest manifest, PassFactory factory) {
+		AtomicInteger next = new AtomicInteger(0);
+
+		if (pool == null) {
+			new Worker(factory, manifest, next).compute();
+			return;
+		}
+
+		final List<Worker> workers = new ArrayList<Worker>(pool.getParallelism());
+		for (int i=0; i < pool.getParallelism(); i++) {
+			workers.add(new Worker(factory, manifest, next));
+		}
+
+		if (ForkJoinTask.getPool() == pool) {
+			// already in a thread of the pool (pass run by the PassScheduler)
+			ForkJoinTask.invokeAll(workers);
+		}
+		else {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(workers);
+				}
+			});
+		}
+	}
+
+	/**
+	 * A worker visiting translation units with its own visitor until there are no more to visit
+	 */
+	protected class Worker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private PassFactory factory;
+		private AbstractDispatcherVisitor pass;
+		private TranslationUnitManifest manifest;
+		private AtomicInteger next;
+
+		protected Worker(PassFactory factory, TranslationUnitManifest manifest, AtomicInteger next) {
+			this.factory = factory;
+			this.manifest = manifest;
+			this.next = next;
+			newPass();
+		}
+
+		private void newPass() {
+			pass = factory.newPass();
+			pass.setASTCache(astCache);
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				index.acquireReadLock();
+			} catch (InterruptedException e) {
+				Activator.log(IStatus.ERROR, "Interrupted while waiting for the index read lock");
+				return;
+			}
+
+			try {
+				ITranslationUnit[] tus = manifest.getTranslationUnits();
+				int i;
+				while ( (i = next.getAndIncrement()) < tus.length ) {
+					ITranslationUnit tu = tus[i];
+					try {
+						pass.visit(manifest, tu);
+					} catch (RuntimeException e) {
+						Activator.log(IStatus.ERROR, "Got "+ e.getClass().getSimpleName() +" (\""+ e.getMessage() +"\") while visiting "+ tu.getElementName() );
+						newPass();    // entities of the failed translation unit may still be on the context stack
+					}
+				}
+			}
+			finally {
+				index.releaseReadLock();
+			}
+		}
+	}
+
+}
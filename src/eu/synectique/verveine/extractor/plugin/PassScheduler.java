@@ -0,0 +1,326 @@
+package eu.synectique.verveine.extractor.plugin;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.visitors.AbstractDispatcherVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
+
+/**
+ * Runs the passes of an extraction, as a DAG of dependencies between passes.<br>
+ * Passes added with {@link #add(String, PassTask, Set, Set)} run one after the other in the order they were added:
+ * the definition passes look up the entities created by the previous ones by name, and creating them in a different order
+ * changes the model (e.g. a stub created instead of the real entity).
+ * Passes added with {@link #addIndependent(String, PassTask, Set, Set)} only depend on the passes creating a part of the model
+ * they need or a part they create too (see {@link AbstractDispatcherVisitor#inputs()} and {@link AbstractDispatcherVisitor#outputs()}),
+ * this is for passes that create entities without looking up others (e.g. comments).
+ * <p>
+ * With an executor, a pass starts as soon as all the passes it depends on are finished, so an independent pass runs at the same time
+ * as the others (it must only modify the model through the {@link CDictionary}, which is thread safe).
+ * Without one, the passes run in the calling thread in the order they were added.
+ * <p>
+ * After the run, {@link #report()} gives the duration of each pass and its contribution to the critical path
+ * (the chain of dependent passes that determines the total duration), or how much it could be delayed without making the run longer.
+ */
+public class PassScheduler {
+
+	/**
+	 * Runs a pass
+	 */
+	public interface PassTask {
+		void run() throws CoreException;
+	}
+
+	/**
+	 * A pass of the DAG
+	 */
+	protected class Pass {
+		protected String name;
+		protected PassTask task;
+		protected Set<ModelPart> inputs;
+		protected Set<ModelPart> outputs;
+
+		/**
+		 * Passes that must be finished before this one starts, and passes waiting for this one
+		 */
+		protected List<Pass> predecessors;
+		protected List<Pass> successors;
+
+		/**
+		 * Number of predecessors not finished yet
+		 */
+		protected AtomicInteger waitingFor;
+
+		/**
+		 * Start and end times, in ms since the beginning of the run
+		 */
+		protected long start;
+		protected long end;
+
+		/**
+		 * Earliest and latest finish times allowed by the dependencies (see {@link PassScheduler#report()})
+		 */
+		protected long earliestFinish;
+		protected long latestFinish;
+
+		protected Pass(String name, PassTask task, Set<ModelPart> inputs, Set<ModelPart> outputs) {
+			this.name = name;
+			this.task = task;
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.predecessors = new ArrayList<Pass>();
+			this.successors = new ArrayList<Pass>();
+			this.waitingFor = new AtomicInteger(0);
+		}
+
+		protected long duration() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * Runs the passes, <code>null</code> to run them one after the other in the calling thread.
+	 * It is shared with the {@link ParallelPassRunner} of the passes, so passes running at the same time share its threads instead of each having its own
+	 */
+	protected ExecutorService executor;
+
+	/**
+	 * CDT index, passes run by another thread hold a read lock on it
+	 */
+	protected IIndex index;
+
+	/**
+	 * In the order they were added (a topological order of the DAG)
+	 */
+	protected List<Pass> passes;
+
+	/**
+	 * Last pass added with {@link #add(String, PassTask, Set, Set)}, the next one runs after it
+	 */
+	protected Pass lastOrdered;
+
+	private long runStart;
+	private long runEnd;
+
+	/**
+	 * First exception (CoreException) or Error of a pass, the passes not started yet are not run
+	 */
+	private volatile Throwable failure;
+
+	public PassScheduler(ExecutorService executor, IIndex index) {
+		this.executor = executor;
+		this.index = index;
+		this.passes = new ArrayList<Pass>();
+		this.lastOrdered = null;
+		this.failure = null;
+	}
+
+	/**
+	 * Adds a pass running after the ones added before, the inputs and outputs are the ones declared by the visitors it runs
+	 */
+	public void add(String name, PassTask task, AbstractDispatcherVisitor... visitors) {
+		Set<ModelPart> inputs = EnumSet.noneOf(ModelPart.class);
+		Set<ModelPart> outputs = EnumSet.noneOf(ModelPart.class);
+		for (AbstractDispatcherVisitor visitor : visitors) {
+			inputs.addAll(visitor.inputs());
+			outputs.addAll(visitor.outputs());
+		}
+		add(name, task, inputs, outputs);
+	}
+
+	/**
+	 * Adds a pass running after the ones added before
+	 */
+	public void add(String name, PassTask task, Set<ModelPart> inputs, Set<ModelPart> outputs) {
+		lastOrdered = addPass(new Pass(name, task, inputs, outputs), lastOrdered);
+	}
+
+	/**
+	 * Adds a pass that may run at the same time as the others, as long as they do not create a part of the model it needs or creates
+	 */
+	public void addIndependent(String name, PassTask task, Set<ModelPart> inputs, Set<ModelPart> outputs) {
+		addPass(new Pass(name, task, inputs, outputs), null);
+	}
+
+	/**
+	 * Adds <code>pass</code> after the passes it depends on, including <code>after</code> if not <code>null</code>
+	 */
+	protected Pass addPass(Pass pass, Pass after) {
+		for (Pass previous : passes) {
+			if ( (previous == after) || intersect(previous.outputs, pass.inputs) || intersect(previous.outputs, pass.outputs) || intersect(previous.inputs, pass.outputs) ) {
+				pass.predecessors.add(previous);
+				previous.successors.add(pass);
+			}
+		}
+		pass.waitingFor.set(pass.predecessors.size());
+		passes.add(pass);
+		return pass;
+	}
+
+	private boolean intersect(Set<ModelPart> set1, Set<ModelPart> set2) {
+		for (ModelPart part : set1) {
+			if (set2.contains(part)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs all the passes and returns when they are finished
+	 */
+	public void run() throws CoreException {
+		runStart = System.currentTimeMillis();
+		if (executor == null) {
+			for (Pass pass : passes) {
+				runPass(pass);
+			}
+		}
+		else {
+			runConcurrently();
+		}
+		runEnd = System.currentTimeMillis();
+
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw (CoreException) failure;
+		}
+	}
+
+	protected void runConcurrently() {
+		final AtomicInteger remaining = new AtomicInteger(passes.size());
+
+		for (Pass pass : passes) {
+			if (pass.predecessors.isEmpty()) {
+				submit(pass, remaining);
+			}
+		}
+
+		synchronized (remaining) {
+			while (remaining.get() > 0) {
+				try {
+					remaining.wait();
+				} catch (InterruptedException e) {
+					Activator.log(IStatus.ERROR, "Interrupted while waiting for the passes to finish");
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a pass in the thread pool, then the passes that were only waiting for it.
+	 * These are released whatever happens in the pass, otherwise {@link #runConcurrently()} would wait for them forever
+	 */
+	protected void submit(final Pass pass, final AtomicInteger remaining) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					index.acquireReadLock();
+					try {
+						runPass(pass);
+					}
+					finally {
+						index.releaseReadLock();
+					}
+				} catch (InterruptedException e) {
+					Activator.log(IStatus.ERROR, "Interrupted while waiting for the index read lock");
+					failure = new CoreException(Activator.logMsg(IStatus.ERROR, "Interrupted pass " + pass.name));
+				} catch (RuntimeException e) {
+					Activator.log(IStatus.ERROR, "Got "+ e.getClass().getSimpleName() +" (\""+ e.getMessage() +"\") in pass " + pass.name);
+					failure = new CoreException(Activator.logMsg(IStatus.ERROR, e.getMessage()));
+				} catch (Error e) {
+					Activator.log(IStatus.ERROR, "Got "+ e.getClass().getSimpleName() +" (\""+ e.getMessage() +"\") in pass " + pass.name);
+					failure = e;
+				}
+				finally {
+					for (Pass next : pass.successors) {
+						if (next.waitingFor.decrementAndGet() == 0) {
+							submit(next, remaining);
+						}
+					}
+					synchronized (remaining) {
+						if (remaining.decrementAndGet() == 0) {
+							remaining.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	protected void runPass(Pass pass) {
+		pass.start = System.currentTimeMillis() - runStart;
+		if (failure == null) {
+			try {
+				pass.task.run();
+			} catch (CoreException e) {
+				Activator.log(IStatus.ERROR, "Got CoreException (\""+ e.getMessage() +"\") in pass " + pass.name);
+				failure = e;
+			} catch (RuntimeException e) {
+				Activator.log(IStatus.ERROR, "Got "+ e.getClass().getSimpleName() +" (\""+ e.getMessage() +"\") in pass " + pass.name);
+				failure = new CoreException(Activator.logMsg(IStatus.ERROR, e.getMessage()));
+			} catch (Error e) {
+				// e.g. StackOverflowError on a deep AST, the next passes are not run and run() throws it again
+				Activator.log(IStatus.ERROR, "Got "+ e.getClass().getSimpleName() +" (\""+ e.getMessage() +"\") in pass " + pass.name);
+				failure = e;
+			}
+		}
+		pass.end = System.currentTimeMillis() - runStart;
+	}
+
+	// STATISTICS
+
+	/**
+	 * Logs, for each pass, its duration and either its share of the critical path or its slack
+	 * (how long it could have been delayed without delaying the end of the run).
+	 * Computed from the actual durations, as if each pass had started as soon as the passes it depends on were finished
+	 */
+	public void report() {
+		long critical = 0;
+		for (Pass pass : passes) {
+			long ready = 0;
+			for (Pass previous : pass.predecessors) {
+				ready = Math.max(ready, previous.earliestFinish);
+			}
+			pass.earliestFinish = ready + pass.duration();
+			critical = Math.max(critical, pass.earliestFinish);
+		}
+		for (int i = passes.size() - 1; i >= 0; i--) {
+			Pass pass = passes.get(i);
+			pass.latestFinish = critical;
+			for (Pass next : pass.successors) {
+				pass.latestFinish = Math.min(pass.latestFinish, next.latestFinish - next.duration());
+			}
+		}
+
+		StringBuilder msg = new StringBuilder("Passes run in " + seconds(runEnd - runStart) + " s, critical path " + seconds(critical) + " s:");
+		for (Pass pass : passes) {
+			long slack = pass.latestFinish - pass.earliestFinish;
+			msg.append("\n  " + pass.name + ": " + seconds(pass.duration()) + " s");
+			if (slack == 0) {
+				msg.append(", critical path " + ((critical == 0) ? 0 : (100 * pass.duration()) / critical) + "%");
+			}
+			else {
+				msg.append(", slack " + seconds(slack) + " s");
+			}
+		}
+		Activator.log(IStatus.INFO, msg.toString());
+	}
+
+	private String seconds(long ms) {
+		return String.format("%.1f", ms / 1000.0);
+	}
+
+}
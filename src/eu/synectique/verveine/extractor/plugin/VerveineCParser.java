@@ -1,23 +1,34 @@
 package eu.synectique.verveine.extractor.plugin;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.index.IIndex;
 import org.eclipse.cdt.core.index.IIndexManager;
 import org.eclipse.cdt.core.model.CModelException;
 import org.eclipse.cdt.core.model.CoreModel;
+import org.eclipse.cdt.core.model.ICElement;
 import org.eclipse.cdt.core.model.ICProject;
 import org.eclipse.cdt.core.model.IPathEntry;
+import org.eclipse.cdt.core.model.ITranslationUnit;
 import org.eclipse.cdt.core.settings.model.ICProjectDescription;
 import org.eclipse.cdt.core.settings.model.ICProjectDescriptionManager;
 import org.eclipse.core.resources.IProject;
@@ -32,13 +43,27 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 
+import ch.akuhn.fame.Repository;
 import eu.synectique.verveine.core.VerveineParser;
 import eu.synectique.verveine.core.gen.famix.CSourceLanguage;
 import eu.synectique.verveine.core.gen.famix.CppSourceLanguage;
 import eu.synectique.verveine.core.gen.famix.SourceLanguage;
+import eu.synectique.verveine.extractor.utils.ASTCache;
+import eu.synectique.verveine.extractor.utils.BinaryModelReader;
+import eu.synectique.verveine.extractor.utils.BinaryModelWriter;
 import eu.synectique.verveine.extractor.utils.Constants;
+import eu.synectique.verveine.extractor.utils.ExtractionState;
 import eu.synectique.verveine.extractor.utils.FileUtil;
+import eu.synectique.verveine.extractor.utils.HeaderLocator;
+import eu.synectique.verveine.extractor.utils.IncludeDirScanner;
+import eu.synectique.verveine.extractor.utils.MSEStreamWriter;
+import eu.synectique.verveine.extractor.utils.ModelSplicer;
+import eu.synectique.verveine.extractor.utils.SourceImporter;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
+import eu.synectique.verveine.extractor.visitors.AbstractDispatcherVisitor;
+import eu.synectique.verveine.extractor.visitors.CompositeVisitor;
 import eu.synectique.verveine.extractor.visitors.IncludeVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 import eu.synectique.verveine.extractor.visitors.def.AttributeGlobalVarDefVisitor;
 import eu.synectique.verveine.extractor.visitors.def.BehaviouralDefVisitor;
 import eu.synectique.verveine.extractor.visitors.def.CommentDefVisitor;
@@ -55,6 +80,16 @@ import eu.synectique.verveine.extractor.visitors.ref.ReferenceRefVisitor;
 public class VerveineCParser extends VerveineParser {
 	public static final String WORKSPACE_NAME = "tempWS";
 
+	/**
+	 * Name of the file keeping the result of the -autoinclude scan
+	 */
+	public static final String AUTOINCLUDE_CACHE_FILE = "autoinclude.cache";
+
+	/**
+	 * Name of the file keeping the state of the last run for -incremental
+	 */
+	public static final String INCREMENTAL_STATE_FILE = "incremental.state";
+
 	public static final String DEFAULT_PROJECT_NAME = "tempProj";
 
 	private static final String SOURCE_ROOT_DIR = "src";
@@ -104,6 +139,12 @@ public class VerveineCParser extends VerveineParser {
 	 */
 	private boolean autoinclude;
 
+	/**
+	 * Option: with autoinclude, adds all directories containing header files in the include paths,
+	 * not only those needed to resolve the includes (see {@link HeaderLocator})
+	 */
+	private boolean autoincludeAll;
+
 	/**
 	 * flag telling whether we want to create a C or a C++ model.
 	 * Defaults to C++ (cModel == false)
@@ -121,41 +162,202 @@ public class VerveineCParser extends VerveineParser {
 	private CDictionary dico;
 
 	/**
-	 * whether to add a .h extension to the includes that do not specify one (e.g. <code>#include &lt;string&gt;</code>).
-	 * The idea is to help the include resolver
+	 * Maximum size (in estimated number of AST nodes) of the AST cache shared by all visitors. 0 disables the cache.
+	 * Negative until given as option, the default depends on {@link #tuOrder}
+	 */
+	private long astCacheSize;
+
+	/**
+	 * Cache of ASTs shared by all visitors
+	 */
+	private ASTCache astCache = null;
+
+	/**
+	 * whether to run the visitors one translation unit at a time (all passes on a translation unit before going to the next one)
+	 * instead of one pass at a time (a pass on all translation units before going to the next pass).
+	 * This only applies to the group of passes on behaviourals of source files, template parameters, and attributes,
+	 * the other passes depend on each other and still visit all translation units one after the other
+	 */
+	private boolean tuOrder;
+
+	/**
+	 * All translation units of the project, listed once when needed for all the passes
+	 */
+	private TranslationUnitManifest manifest = null;
+
+	/**
+	 * Number of threads used to run the reference passes, and the passes that do not depend on the others (see {@link PassScheduler})
+	 */
+	private int nbThreads;
+
+	/**
+	 * Runs the reference passes, on the thread pool shared with the {@link PassScheduler} if there is more than one thread
+	 */
+	private ParallelPassRunner passRunner = null;
+
+	/**
+	 * Option: keep the Eclipse project and its CDT index from one run to the next, only modified files are re-indexed
+	 */
+	private boolean keepIndex;
+
+	/**
+	 * Whether the Eclipse project of a previous run was reused (see {@link #keepIndex})
+	 */
+	private boolean reusedProject;
+
+	/**
+	 * Option: links the source directory in the Eclipse project instead of copying all the files
+	 */
+	private boolean linkSources;
+
+	/**
+	 * Option: only extracts again the translation units modified since the last run (and the ones including them)
+	 * and splices the result into the model emitted by the last run (see {@link ExtractionState} and {@link ModelSplicer})
 	 */
-	private boolean forceIncludeH;
+	private boolean incremental;
+
+	/**
+	 * Program arguments, an incremental extraction is only possible with the same arguments as the last run
+	 */
+	private String arguments;
+
+	/**
+	 * For {@link #incremental}, state of the last run and of this run
+	 */
+	private ExtractionState extractionState = null;
+
+	/**
+	 * For {@link #incremental}, files extracted again, null when everything is extracted
+	 */
+	private Set<String> dirtyFiles = null;
+
+	/**
+	 * For {@link #incremental}, translation units extracted again, null when everything is extracted
+	 */
+	private Set<ITranslationUnit> selection = null;
+
+	/**
+	 * For {@link #incremental}, whether nothing changed since the last run (the model emitted is still valid)
+	 */
+	private boolean upToDate;
+
+	/**
+	 * Option: writes the associations, comments and their anchors to the output file during the last passes, as soon as they are final,
+	 * instead of keeping them in memory until the whole model is exported (see {@link MSEStreamWriter})
+	 */
+	private boolean streamMSE;
+
+	/**
+	 * For {@link #streamMSE}, writer of the output file
+	 */
+	private MSEStreamWriter mseStream = null;
+
+	/**
+	 * Option: writes the model in the binary format of {@link BinaryModelWriter} instead of MSE
+	 */
+	private boolean binaryModel;
+
+	/**
+	 * Option: only extracts the files of this top-level directory of the project (a shard), <code>null</code> to extract everything.
+	 * Entities of the other directories referenced by the shard are stubs, they are replaced by their definition when the shards are merged
+	 * (see {@link #mergedModels})
+	 */
+	private String shard;
+
+	/**
+	 * Option: models to merge into one (typically models of shards), <code>null</code> if this is not a merge
+	 */
+	private List<String> mergedModels;
 
 	public VerveineCParser() {
 		super();
 		this.argIncludes = new ArrayList<String>();
 		this.argDefined = new HashMap<String,String>();
-		this.forceIncludeH = false;
 		this.autoinclude = false;
+		this.autoincludeAll = false;
 		this.windows = false;
 		this.cModel = false;
 		this.includeConfigFile = null;
 		this.userProjectDir = null;
+		this.astCacheSize = -1;
+		this.tuOrder = false;
+		this.nbThreads = 1;
+		this.keepIndex = false;
+		this.reusedProject = false;
+		this.linkSources = false;
+		this.incremental = false;
+		this.upToDate = false;
+		this.streamMSE = false;
+		this.binaryModel = false;
+		this.shard = null;
+		this.mergedModels = null;
 
 		dico = new CDictionary(getFamixRepo());
 	}
 
 	public boolean parse() {
-		Activator.log(IStatus.INFO, "Copying source files in local project");
+		if (mergedModels != null) {
+			return mergeModels();
+		}
+
+		Activator.log(IStatus.INFO, (linkSources ? "Linking" : "Copying") + " source files in local project");
         ICProject cproject = createEclipseProject(DEFAULT_PROJECT_NAME, userProjectDir);
         if (cproject == null) {
         	// could not create the project :-(
         	return false;
         }
-        projectPrefix = cproject.getLocationURI().getPath() + File.separator + (windows ? SOURCE_ROOT_DIR.toLowerCase() : SOURCE_ROOT_DIR) + File.separator;
+        // location of the source files: in the project if they were copied, the user's directory if it was linked
+        projectPrefix = cproject.getProject().getFolder(windows ? SOURCE_ROOT_DIR.toLowerCase() : SOURCE_ROOT_DIR).getLocationURI().getPath() + File.separator;
 
         configIndexer(cproject);
 		computeIndex(cproject);
+		astCache = new ASTCache(index, astCacheSize);
+		if (shard != null) {
+			try {
+				selectShardTranslationUnits(cproject);
+			} catch (CoreException e) {
+				Activator.log(IStatus.ERROR, "Could not list the translation units of shard " + shard + " (\""+ e.getMessage() +"\")");
+				return false;
+			}
+		}
+		if (incremental) {
+			try {
+				selectModifiedTranslationUnits(cproject);
+			} catch (CoreException e) {
+				Activator.log(IStatus.WARNING, "Could not list modified translation units (\""+ e.getMessage() +"\"), extracting everything");
+				dirtyFiles = null;
+				selection = null;
+				manifest = null;
+			}
+			if (upToDate) {
+				Activator.log(IStatus.INFO, "No source file modified since last run, " + getOutputFileName() + " is up to date");
+				return true;
+			}
+		}
 
         try {
+        	if (streamMSE && binaryModel) {
+        		OutputStream out = new BufferedOutputStream(new FileOutputStream(getOutputFileName()));
+        		mseStream = new MSEStreamWriter(getFamixRepo().getMetamodel(), new BinaryModelWriter(out), out);
+        	}
+        	else if (streamMSE) {
+        		mseStream = new MSEStreamWriter(getFamixRepo().getMetamodel(),
+        				new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getOutputFileName()), "UTF8")));
+        	}
     		runAllVisitors(dico, cproject);
+    		astCache.report();
+    		astCache.clear();
+    		dico.flushToRepository();
+    		dico.getStubBindings().report();
+    		dico.getResolutionCache().report();
+    		dico.getBindingCache().report();
+    		dico.getBindingCache().clear();
+    		dico.releaseStubBindings();
+    		if (dirtyFiles != null) {
+    			spliceIntoPreviousModel();
+    		}
 
-		} catch (CoreException e) {
+		} catch (CoreException | IOException e) {
 			e.printStackTrace();
 			return false;
 		}
@@ -163,47 +365,384 @@ public class VerveineCParser extends VerveineParser {
         return true;
 	}
 
-	private void runAllVisitors(CDictionary dico, ICProject cproject) throws CoreException {
+	private void runAllVisitors(final CDictionary dico, final ICProject cproject) throws CoreException {
 		/*Having very specialized visitors helps because each one is simpler
 		 * so it is worth the impact on execution time
-		 * Note that the order is important, the visitors are not independent */
+		 * Note that the order is important, the visitors are not independent: the scheduler runs them in the order they are added,
+		 * except the ones added with addIndependent() (see ModelPart) that may run at the same time as the others with -threads */
+		ForkJoinPool pool = null;
+		if (nbThreads > 1) {
+			getManifest(cproject);    // computed once before passes run concurrently
+			pool = new ForkJoinPool(nbThreads);
+		}
+		passRunner = new ParallelPassRunner(pool, index, astCache);
+		PassScheduler scheduler = new PassScheduler(pool, index);
 
-		IncludeVisitor incVisitor;
-		incVisitor = new IncludeVisitor(dico, index, projectPrefix);
-		cproject.accept(incVisitor);
+		IncludeVisitor incVisitor = new IncludeVisitor(dico, index, projectPrefix);
+		scheduler.add("includes", passesTask(cproject, incVisitor), incVisitor);
 
-        int nbUI = 0;
-        for (@SuppressWarnings("unused") String ui : incVisitor.getUnresolvedIncludes()) {
-        	nbUI++;
-        }
-        modelComment(nbUI + " unresolved includes:", incVisitor.getUnresolvedIncludes());
-		incVisitor.reportUnresolvedIncludes();
+		PackageDefVisitor pckgVisitor = new PackageDefVisitor(dico);
+		scheduler.add("packages", passesTask(cproject, pckgVisitor), pckgVisitor);
 
-		cproject.accept(new PackageDefVisitor(dico));
 		if (!cModel) {
-			cproject.accept(new NamespaceDefVisitor(dico, index, projectPrefix));
+			NamespaceDefVisitor nsVisitor = new NamespaceDefVisitor(dico, index, projectPrefix);
+			scheduler.add("namespaces", passesTask(cproject, nsVisitor), nsVisitor);
 		}
-		cproject.accept(new TypeDefVisitor(dico, index, projectPrefix));
-		
-		BehaviouralDefVisitor behavVisitor = new BehaviouralDefVisitor(dico, index, projectPrefix);		// must be after class definitions
-		behavVisitor.setHeaderFiles(true);
-		cproject.accept(behavVisitor);
+
+		TypeDefVisitor typeVisitor = new TypeDefVisitor(dico, index, projectPrefix);
+		scheduler.add("types", passesTask(cproject, typeVisitor), typeVisitor);
+
+		BehaviouralDefVisitor behavHeaderVisitor = new BehaviouralDefVisitor(dico, index, projectPrefix);
+		behavHeaderVisitor.setHeaderFiles(true);
+		scheduler.add("behaviourals in headers", passesTask(cproject, behavHeaderVisitor), behavHeaderVisitor);
+
+		BehaviouralDefVisitor behavVisitor = new BehaviouralDefVisitor(dico, index, projectPrefix);
 		behavVisitor.setHeaderFiles(false);
-		cproject.accept(behavVisitor);
-		if (!cModel) {
-			cproject.accept(new TemplateParameterDefVisitor(dico, index, projectPrefix));	// must be after method definitions (possible template)
+		AttributeGlobalVarDefVisitor attrVisitor = new AttributeGlobalVarDefVisitor(dico, index, projectPrefix);
+		TemplateParameterDefVisitor templVisitor = (cModel ? null : new TemplateParameterDefVisitor(dico, index, projectPrefix));
+		if (tuOrder) {
+			// one pass to visit each translation unit once
+			AbstractDispatcherVisitor[] group = cModel ? new AbstractDispatcherVisitor[] { behavVisitor, attrVisitor }
+													   : new AbstractDispatcherVisitor[] { behavVisitor, templVisitor, attrVisitor };
+			scheduler.add("behaviourals, attributes", passesTask(cproject, group), group);
+		}
+		else {
+			scheduler.add("behaviourals", passesTask(cproject, behavVisitor), behavVisitor);
+			if (!cModel) {
+				scheduler.add("template parameters", passesTask(cproject, templVisitor), templVisitor);
+			}
+			scheduler.add("attributes", passesTask(cproject, attrVisitor), attrVisitor);
 		}
-		cproject.accept(new AttributeGlobalVarDefVisitor(dico, index, projectPrefix));			// must be after class/struct/enum definitions
 
+		// reference passes, may run on several threads
 		if (!cModel) {
-			cproject.accept(new InheritanceRefVisitor(dico, index, projectPrefix));
+			scheduler.add("inheritances", refPassTask(cproject, new ParallelPassRunner.PassFactory() {
+				public AbstractDispatcherVisitor newPass() {
+					return new InheritanceRefVisitor(dico, index, projectPrefix);  // name resolution of the next passes may look into super-classes
+				}
+			}), EnumSet.of(ModelPart.TYPES, ModelPart.TEMPLATE_PARAMETERS), EnumSet.of(ModelPart.INHERITANCES));
+		}
+
+		Set<ModelPart> refInputs = EnumSet.of(ModelPart.FILES, ModelPart.NAMESPACES, ModelPart.TYPES, ModelPart.BEHAVIOURAL_DECLARATIONS,
+				ModelPart.BEHAVIOURALS, ModelPart.TEMPLATE_PARAMETERS, ModelPart.ATTRIBUTES, ModelPart.INHERITANCES);
+		// on all translation units before the invocations (e.g. stubs of constructors are named after the declared type of an attribute)
+		scheduler.add("declared types", refPassTask(cproject, new ParallelPassRunner.PassFactory() {
+			public AbstractDispatcherVisitor newPass() {
+				return new DeclaredTypeRefVisitor(dico, index, projectPrefix);
+			}
+		}), refInputs, EnumSet.of(ModelPart.DECLARED_TYPES));
+		refInputs = EnumSet.copyOf(refInputs);
+		refInputs.add(ModelPart.DECLARED_TYPES);
+
+		// independent passes, all done in a single traversal of each AST
+		ParallelPassRunner.PassFactory refFactory;
+		Set<ModelPart> refOutputs;
+		if (mseStream == null) {
+			refOutputs = EnumSet.of(ModelPart.REFERENCES);
+			refFactory = new ParallelPassRunner.PassFactory() {
+				public AbstractDispatcherVisitor newPass() {
+					return new CompositeVisitor(dico, index,
+							new InvocationAccessRefVisitor(dico, index, projectPrefix),
+							new ReferenceRefVisitor(dico, index, projectPrefix));
+				}
+			};
+			// only create comments and preprocessor statements, without looking up other entities: may run at the same time as the other passes
+			ParallelPassRunner.PassFactory fileFactory = new ParallelPassRunner.PassFactory() {
+				public AbstractDispatcherVisitor newPass() {
+					return new CompositeVisitor(dico, index,
+							new CommentDefVisitor(dico, index, projectPrefix),
+							new PreprocessorStmtDefVisitor(dico, index, projectPrefix));
+				}
+			};
+			scheduler.addIndependent("comments, preprocessor statements", refPassTask(cproject, fileFactory),
+					EnumSet.noneOf(ModelPart.class), EnumSet.of(ModelPart.COMMENTS, ModelPart.PREPROCESSOR_STATEMENTS));
+		}
+		else {
+			// streamed with the references
+			refOutputs = EnumSet.of(ModelPart.REFERENCES, ModelPart.COMMENTS, ModelPart.PREPROCESSOR_STATEMENTS);
+			refFactory = new ParallelPassRunner.PassFactory() {
+				public AbstractDispatcherVisitor newPass() {
+					return new CompositeVisitor(dico, index,
+							new InvocationAccessRefVisitor(dico, index, projectPrefix),
+							new ReferenceRefVisitor(dico, index, projectPrefix),
+							new CommentDefVisitor(dico, index, projectPrefix),
+							new PreprocessorStmtDefVisitor(dico, index, projectPrefix));
+				}
+			};
+		}
+		final PassScheduler.PassTask refTask = refPassTask(cproject, refFactory);
+		scheduler.add("references", new PassScheduler.PassTask() {
+			public void run() throws CoreException {
+				if (mseStream != null) {
+					// associations of the last passes are final once their translation unit is visited
+					dico.startStreaming(mseStream);
+				}
+				refTask.run();
+				dico.stopStreaming();
+			}
+		}, refInputs, refOutputs);
+
+		try {
+			scheduler.run();
+		}
+		finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			passRunner = null;
+		}
+		scheduler.report();
+
+		int nbUI = 0;
+		for (@SuppressWarnings("unused") String ui : incVisitor.getUnresolvedIncludes()) {
+			nbUI++;
+		}
+		modelComment(nbUI + " unresolved includes:", incVisitor.getUnresolvedIncludes());
+		incVisitor.reportUnresolvedIncludes();
+	}
+
+	/**
+	 * A pass of the {@link PassScheduler} running visitors with {@link #runPasses(ICProject, AbstractDispatcherVisitor...)}
+	 */
+	private PassScheduler.PassTask passesTask(final ICProject cproject, final AbstractDispatcherVisitor... visitors) {
+		return new PassScheduler.PassTask() {
+			public void run() throws CoreException {
+				runPasses(cproject, visitors);
+			}
+		};
+	}
+
+	/**
+	 * A pass of the {@link PassScheduler} running a reference pass with {@link #runRefPass(ICProject, ParallelPassRunner.PassFactory)}
+	 */
+	private PassScheduler.PassTask refPassTask(final ICProject cproject, final ParallelPassRunner.PassFactory factory) {
+		return new PassScheduler.PassTask() {
+			public void run() throws CoreException {
+				runRefPass(cproject, factory);
+			}
+		};
+	}
+
+	/**
+	 * Runs a reference pass with {@link #passRunner}, on several threads if more than one was requested
+	 */
+	private void runRefPass(ICProject cproject, ParallelPassRunner.PassFactory factory) throws CoreException {
+		passRunner.run(getManifest(cproject), factory);
+	}
+
+	/**
+	 * Runs a group of passes that do not depend on each other.<br>
+	 * By default each pass is run on the whole project before the next one starts.
+	 * With {@link #tuOrder}, all the passes of the group are run on one translation unit before going to the next one so that its AST is parsed only once.
+	 * The passes iterate on the {@link TranslationUnitManifest} instead of walking the C model of the project.
+	 */
+	private void runPasses(ICProject cproject, AbstractDispatcherVisitor... visitors) throws CoreException {
+		TranslationUnitManifest tus = getManifest(cproject);
+		for (AbstractDispatcherVisitor visitor : visitors) {
+			visitor.setASTCache(astCache);
+			visitor.setSelection(selection);
+		}
+
+		if (tuOrder && (visitors.length > 1)) {
+			for (ITranslationUnit tu : tus.getTranslationUnits()) {
+				for (AbstractDispatcherVisitor visitor : visitors) {
+					visitor.visit(tus, tu);
+				}
+			}
+		}
+		else {
+			for (AbstractDispatcherVisitor visitor : visitors) {
+				visitor.visit(tus);
+			}
+		}
+	}
+
+	/**
+	 * All translation units of the project (or the ones selected, see {@link #selection}), listed only once
+	 */
+	private TranslationUnitManifest getManifest(ICProject cproject) throws CoreException {
+		if (manifest == null) {
+			manifest = TranslationUnitManifest.build(cproject);
+		}
+		return manifest;
+	}
+
+	/**
+	 * For {@link #incremental}: computes the hash of all translation units and compares them to the last run (if its state is valid)
+	 * to select the translation units to extract again, see {@link ExtractionState#dirtyFiles(Map)}.<br>
+	 * {@link #manifest} is restricted to the selected translation units.
+	 */
+	private void selectModifiedTranslationUnits(ICProject cproject) throws CoreException {
+		File modelFile = new File(getOutputFileName());
+		Map<String,String> hashes = new HashMap<String,String>();
+		Map<String,ITranslationUnit> tuByName = new HashMap<String,ITranslationUnit>();
+
+		for (ITranslationUnit tu : getManifest(cproject).getTranslationUnits()) {
+			String name = FileUtil.localized(FileUtil.location(tu.getFile()), projectPrefix);
+			try {
+				hashes.put(name, ExtractionState.hash(tu.getFile().getContents(/*force*/true)));
+				tuByName.put(name, tu);
+			} catch (IOException e) {
+				Activator.log(IStatus.WARNING, "Could not read " + name + " (\""+ e.getMessage() +"\"), extracting everything");
+				return;
+			}
+		}
+
+		extractionState = new ExtractionState(stateFile(INCREMENTAL_STATE_FILE), arguments);
+		boolean valid = modelFile.exists() && extractionState.load(modelFile);
+		extractionState.setHashes(hashes);
+		if (! valid) {
+			Activator.log(IStatus.INFO, "Incremental extraction: no valid state of last run, extracting everything");
+			return;
+		}
+
+		dirtyFiles = extractionState.dirtyFiles(hashes);
+		if (dirtyFiles.isEmpty()) {
+			upToDate = true;
+			return;
+		}
+
+		List<ITranslationUnit> selected = new ArrayList<ITranslationUnit>();
+		for (String name : dirtyFiles) {
+			if (tuByName.containsKey(name)) {        // deleted files are not translation units anymore
+				selected.add(tuByName.get(name));
+			}
+		}
+		selection = new HashSet<ITranslationUnit>(selected);
+		manifest = getManifest(cproject).select(selection);    // keeps the order of cproject.accept()
+		Activator.log(IStatus.INFO, "Incremental extraction: " + dirtyFiles.size() + " files modified or including a modified file, "
+				+ selected.size() + " translation units to extract out of " + hashes.size());
+	}
+
+	/**
+	 * For {@link #shard}: restricts {@link #manifest} to the translation units in the top-level directory of the shard
+	 */
+	private void selectShardTranslationUnits(ICProject cproject) throws CoreException {
+		List<ITranslationUnit> selected = new ArrayList<ITranslationUnit>();
+		int nbTUs = 0;
+
+		for (ITranslationUnit tu : getManifest(cproject).getTranslationUnits()) {
+			String name = FileUtil.localized(FileUtil.location(tu.getFile()), projectPrefix);
+			int i = name.indexOf('/');
+			String topDir = (i < 0) ? SourceImporter.ROOT_SHARD : name.substring(0, i);
+			if ( windows ? topDir.equalsIgnoreCase(shard) : topDir.equals(shard) ) {
+				selected.add(tu);
+			}
+			nbTUs++;
+		}
+
+		selection = new HashSet<ITranslationUnit>(selected);
+		manifest = getManifest(cproject).select(selection);
+		Activator.log(IStatus.INFO, "Shard " + shard + ": " + selected.size() + " translation units to extract out of " + nbTUs);
+	}
+
+	/**
+	 * For {@link #mergedModels}: merges the models one after the other (see {@link ModelSplicer#merge()})
+	 */
+	private boolean mergeModels() {
+		long start = System.currentTimeMillis();
+		for (String name : mergedModels) {
+			Repository model;
+			try {
+				model = readModel(new File(name));
+			} catch (IOException e) {
+				Activator.log(IStatus.ERROR, "Error reading " + name + ": " + e.getMessage());
+				return false;
+			}
+			if (getFamixRepo().isEmpty()) {
+				setFamixRepo(model);
+			}
+			else {
+				ModelSplicer splicer = new ModelSplicer(getFamixRepo(), model);
+				setFamixRepo(splicer.merge());
+				splicer.report();
+			}
+		}
+		Activator.log(IStatus.INFO, mergedModels.size() + " models merged in " + String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+		return true;
+	}
+
+	/**
+	 * Reads a model in MSE or binary format (see {@link BinaryModelReader#isBinaryModel(File)})
+	 */
+	private Repository readModel(File file) throws IOException {
+		if (BinaryModelReader.isBinaryModel(file)) {
+			return BinaryModelReader.fromFile(file).importModel(getFamixRepo().getMetamodel());
+		}
+		Repository model = new Repository(getFamixRepo().getMetamodel());
+		model.importMSEFile(file.getPath());
+		return model;
+	}
+
+	/**
+	 * For {@link #incremental}: replaces the entities of the modified files in the model emitted by the last run by the ones just extracted
+	 */
+	private void spliceIntoPreviousModel() throws IOException {
+		long start = System.currentTimeMillis();
+		Repository previous = readModel(new File(getOutputFileName()));
+
+		ModelSplicer splicer = new ModelSplicer(previous, getFamixRepo(), dirtyFiles);
+		setFamixRepo(splicer.splice());
+		splicer.report();
+		Activator.log(IStatus.INFO, "Model spliced in " + String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+	}
+
+	/**
+	 * Does not emit anything if the model of the last run is up to date.
+	 * With {@link #incremental}, saves the state of this run after the model.
+	 */
+	@Override
+	public void emitMSE() {
+		if (upToDate) {
+			return;
+		}
+		if (mseStream != null) {
+			closeMSEStream();
+		}
+		else if (binaryModel) {
+			emitBinaryModel();
+		}
+		else {
+			super.emitMSE();
+		}
+		if (extractionState != null) {
+			extractionState.setIncludes(getFamixRepo());
+			extractionState.save(new File(getOutputFileName()));
 		}
-		cproject.accept(new DeclaredTypeRefVisitor(dico, index, projectPrefix));
-		cproject.accept(new InvocationAccessRefVisitor(dico, index, projectPrefix));
-		cproject.accept(new ReferenceRefVisitor(dico, index, projectPrefix));
+	}
+
+	/**
+	 * For {@link #streamMSE}: writes the entities kept in memory after the elements streamed during the extraction
+	 */
+	private void closeMSEStream() {
+		ensureSourceLanguage();
+		try {
+			mseStream.close(getFamixRepo().getElements());
+			mseStream.report();
+		} catch (IOException e) {
+			Activator.log(IStatus.ERROR, "Error writing " + getOutputFileName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * For {@link #binaryModel}: same as {@link #emitMSE()} in binary format
+	 */
+	private void emitBinaryModel() {
+		ensureSourceLanguage();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(getOutputFileName()))) {
+			getFamixRepo().accept(new BinaryModelWriter(out));
+		} catch (IOException | IllegalStateException e) {
+			Activator.log(IStatus.ERROR, "Error writing " + getOutputFileName() + ": " + e.getMessage());
+		}
+	}
 
-		cproject.accept(new CommentDefVisitor(dico, index, projectPrefix));
-		cproject.accept(new PreprocessorStmtDefVisitor(dico, index, projectPrefix));
+	/**
+	 * As in VerveineParser.emitMSE()
+	 */
+	private void ensureSourceLanguage() {
+		if (listAll(SourceLanguage.class).isEmpty()) {
+			getFamixRepo().add(getMyLgge());
+		}
 	}
 
 	private void configWorkspace(IWorkspace workspace) {
@@ -226,36 +765,44 @@ public class VerveineCParser extends VerveineParser {
 		eclipseProjPath.toFile().mkdirs();
 
 		final IProject project = root.getProject(projName);
+		reusedProject = false;
 		try {
+			if (project.exists() && keepIndex) {
+				// keep the project and its index, source files are synchronized below
+				project.open(Constants.NULL_PROGRESS_MONITOR);
+				reusedProject = true;
+			}
 			// delete content if the project exists
-			if (project.exists()) {
+			else if (project.exists()) {
 				project.delete(/*deleteContent*/true, /*force*/true, Constants.NULL_PROGRESS_MONITOR);
 				project.refreshLocal(IResource.DEPTH_INFINITE, Constants.NULL_PROGRESS_MONITOR);
 			}
 		} catch (Exception exc) {
-			Activator.log(IStatus.ERROR, "Error deleting project path=" + project.getFullPath().toString());
+			Activator.log(IStatus.ERROR, "Error "+ (keepIndex ? "opening" : "deleting") +" project path=" + project.getFullPath().toString());
 			exc.printStackTrace();
 		}
 
-		IProjectDescription eclipseProjDesc = workspace.newProjectDescription(project.getName());
-		eclipseProjDesc.setLocation(eclipseProjPath);
+		if (! reusedProject) {
+			IProjectDescription eclipseProjDesc = workspace.newProjectDescription(project.getName());
+			eclipseProjDesc.setLocation(eclipseProjPath);
 
-		try {
-			project.create(eclipseProjDesc, Constants.NULL_PROGRESS_MONITOR);
-			project.open(Constants.NULL_PROGRESS_MONITOR);
-		} catch (CoreException e1) {
-			e1.printStackTrace();
-		}
-
-		try {
-			// now we make it a C project
-			CCorePlugin.getDefault().createCProject(eclipseProjDesc, project, Constants.NULL_PROGRESS_MONITOR, project.getName());
-			if (!project.isOpen()) {
+			try {
+				project.create(eclipseProjDesc, Constants.NULL_PROGRESS_MONITOR);
 				project.open(Constants.NULL_PROGRESS_MONITOR);
+			} catch (CoreException e1) {
+				e1.printStackTrace();
+			}
+
+			try {
+				// now we make it a C project
+				CCorePlugin.getDefault().createCProject(eclipseProjDesc, project, Constants.NULL_PROGRESS_MONITOR, project.getName());
+				if (!project.isOpen()) {
+					project.open(Constants.NULL_PROGRESS_MONITOR);
+				}
+			} catch (Exception exc) {
+				Activator.log(IStatus.ERROR, "Error ("+exc.getClass().getSimpleName()+") in Project creation: " + exc.getMessage());
+				exc.printStackTrace();
 			}
-		} catch (Exception exc) {
-			Activator.log(IStatus.ERROR, "Error ("+exc.getClass().getSimpleName()+") in Project creation: " + exc.getMessage());
-			exc.printStackTrace();
 		}
 
 		ICProjectDescription cProjectDesc = CoreModel.getDefault().getProjectDescription(project, true);
@@ -266,7 +813,16 @@ public class VerveineCParser extends VerveineParser {
 			Activator.log(IStatus.ERROR, "Project directory "+sourcePath+ " not found !");
 			return null;
 		}
-		FileUtil.copySourceFilesInProject(project, SOURCE_ROOT_DIR, projSrc, /*toLowerCase*/windows, /*addHExtension*/forceIncludeH);
+		if (linkSources && projSrc.isDirectory()) {
+			FileUtil.linkSourceDirInProject(project, SOURCE_ROOT_DIR, projSrc, /*toLowerCase*/windows);
+		}
+		else {
+			FileUtil.copySourceFilesInProject(project, SOURCE_ROOT_DIR, projSrc, /*toLowerCase*/windows, shard);
+			if (reusedProject && projSrc.isDirectory()) {
+				int removed = FileUtil.removeStaleFiles(project.getFolder(windows ? SOURCE_ROOT_DIR.toLowerCase() : SOURCE_ROOT_DIR), projSrc, /*toLowerCase*/windows);
+				Activator.log(IStatus.INFO, "Reusing project of previous run, " + removed + " deleted files or directories removed");
+			}
+		}
 		ICProjectDescriptionManager descManager = CoreModel.getDefault().getProjectDescriptionManager();
         try {
 			descManager.updateProjectDescriptions(new IProject[] { project }, Constants.NULL_PROGRESS_MONITOR);
@@ -295,40 +851,39 @@ public class VerveineCParser extends VerveineParser {
 			readIncludeConf(includeConfigFile, includeFromConf);
 		}
 		
-		IPathEntry[] newEntries = new IPathEntry[
-		                                         oldEntries.length +
-		                                         LINUX_DEFAULT_INCLUDE.length +
-		                                         argIncludes.size() +
-		                                         includeFromConf.size() +
-		                                         argDefined.size()];
-		int i;
+		List<IPathEntry> newEntries = new ArrayList<IPathEntry>();
 
-		/* include paths */
-		for (i=0; i < oldEntries.length; i++) {
-			newEntries[i] = oldEntries[i];
+		for (IPathEntry entry : oldEntries) {
+			if ( reusedProject && ( (entry.getEntryKind() == IPathEntry.CDT_INCLUDE) || (entry.getEntryKind() == IPathEntry.CDT_MACRO) ) ) {
+				// set by the previous run, will be set again below
+				continue;
+			}
+			newEntries.add(entry);
 		}
 		/* include paths */
 		for (String path : LINUX_DEFAULT_INCLUDE) {
-			newEntries[i] = CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/true);
-			i++;
+			newEntries.add( CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/true) );
 		}
 		/* include paths */
 		for (String path : argIncludes) {
-			newEntries[i] = CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/false);
-			i++;
+			newEntries.add( CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/false) );
 		}
 		/* include paths */
 		for (String path : includeFromConf) {
-			newEntries[i] = CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/false);
-			i++;
+			newEntries.add( CoreModel.newIncludeEntry(projPath, null, new Path(path), /*isSystemInclude*/false) );
 		}
 		/* macros  defined */
 		for (Map.Entry<String, String> macro : argDefined.entrySet()) {
-			newEntries[i] = CoreModel.newMacroEntry(projPath, macro.getKey(), macro.getValue());
+			newEntries.add( CoreModel.newMacroEntry(projPath, macro.getKey(), macro.getValue()) );
+		}
+
+		if (reusedProject && Arrays.equals(oldEntries, newEntries.toArray())) {
+			// changing the path entries would re-index the whole project
+			return;
 		}
 
 		try {			
-			proj.setRawPathEntries(newEntries, Constants.NULL_PROGRESS_MONITOR);
+			proj.setRawPathEntries(newEntries.toArray(new IPathEntry[newEntries.size()]), Constants.NULL_PROGRESS_MONITOR);
 
 		} catch (CModelException e) {
 			e.printStackTrace();
@@ -369,8 +924,28 @@ public class VerveineCParser extends VerveineParser {
 
 		IIndexManager imanager = CCorePlugin.getIndexManager();
 		imanager.setIndexerId(cproject, "org.eclipse.cdt.core.fastIndexer");
-        imanager.reindex(cproject);
+		if (reusedProject) {
+			// index of the previous run: only re-index files that changed (content hash checked when the time stamp changed)
+			try {
+				imanager.update(new ICElement[] {cproject}, IIndexManager.UPDATE_ALL | IIndexManager.UPDATE_CHECK_TIMESTAMPS | IIndexManager.UPDATE_CHECK_CONTENTS_HASH);
+			} catch (CoreException e) {
+				Activator.log(IStatus.WARNING, "Could not update index of previous run (\""+ e.getMessage() +"\"), re-indexing everything");
+				imanager.reindex(cproject);
+			}
+		}
+		else {
+			imanager.reindex(cproject);
+		}
         imanager.joinIndexer(IIndexManager.FOREVER, Constants.NULL_PROGRESS_MONITOR );
+
+        if (keepIndex) {
+        	// so that the next run finds the project and its index
+        	try {
+				ResourcesPlugin.getWorkspace().save(/*full*/true, Constants.NULL_PROGRESS_MONITOR);
+			} catch (CoreException e) {
+				Activator.log(IStatus.WARNING, "Could not save the workspace, the index will not be kept for next run: " + e.getMessage());
+			}
+        }
 		try {
 			this.index = imanager.getIndex(cproject);
 		} catch (CoreException e) {
@@ -390,6 +965,7 @@ public class VerveineCParser extends VerveineParser {
 
 	public void setOptions(String[] args) {
 		modelComment("Program call arguments:", Arrays.asList(args));
+		arguments = Arrays.toString(args);
 
 		int i = 0;
 		while (i < args.length && args[i].trim().startsWith("-")) {
@@ -404,11 +980,15 @@ public class VerveineCParser extends VerveineParser {
 			else if (arg.equals("-autoinclude")) {
 				autoinclude = true;
 			}
+			else if (arg.equals("-autoincludeall")) {
+				autoinclude = true;
+				autoincludeAll = true;
+			}
 			else if (arg.equals("-includeconf")) {
 				includeConfigFile = args[i++].trim();
 			}
 			else if (arg.equals("-forceincludeH")) {
-				forceIncludeH = true;
+				// no-op, kept so that existing command lines still work
 			}
 			else if (arg.startsWith("-I")) {
 				argIncludes.add(arg.substring(2));
@@ -419,6 +999,48 @@ public class VerveineCParser extends VerveineParser {
 			else if (arg.equals("-windows")) {
 				windows = true;
 			}
+			else if (arg.equals("-astcache")) {
+				try {
+					astCacheSize = Long.parseLong(args[i++].trim());
+				}
+				catch (NumberFormatException e) {
+					Activator.log(IStatus.WARNING, "** Invalid AST cache size: " + args[i-1]);
+					usage();
+				}
+			}
+			else if (arg.equals("-linksrc")) {
+				linkSources = true;
+			}
+			else if (arg.equals("-keepindex")) {
+				keepIndex = true;
+			}
+			else if (arg.equals("-incremental")) {
+				incremental = true;
+			}
+			else if (arg.equals("-streammse")) {
+				streamMSE = true;
+			}
+			else if (arg.equals("-binary")) {
+				binaryModel = true;
+			}
+			else if (arg.equals("-shard")) {
+				shard = args[i++].trim();
+			}
+			else if (arg.equals("-merge")) {
+				mergedModels = new ArrayList<String>();
+			}
+			else if (arg.equals("-tuorder")) {
+				tuOrder = true;
+			}
+			else if (arg.equals("-threads")) {
+				try {
+					nbThreads = Math.max(1, Integer.parseInt(args[i++].trim()));
+				}
+				catch (NumberFormatException e) {
+					Activator.log(IStatus.WARNING, "** Invalid number of threads: " + args[i-1]);
+					usage();
+				}
+			}
 			else {
 				int j = super.setOption(i - 1, args);
 				if (j > 0) {     // j is the number of args consumed by super.setOption()
@@ -432,15 +1054,75 @@ public class VerveineCParser extends VerveineParser {
 			}
 		}
 
+		if (incremental && streamMSE) {
+			Activator.log(IStatus.WARNING, "-streammse ignored with -incremental (the whole model is needed to update the model of last run)");
+			streamMSE = false;
+		}
+		if (astCacheSize < 0) {
+			// without -tuorder, every pass visits all the translation units in the same order: the cache would get no hits
+			astCacheSize = tuOrder ? ASTCache.DEFAULT_MAX_NODES : 0;
+		}
+		if (incremental && (shard != null)) {
+			Activator.log(IStatus.WARNING, "-incremental ignored with -shard");
+			incremental = false;
+		}
+		if (mergedModels != null) {
+			// arguments are the models to merge, not a project
+			for ( ; i < args.length; i++) {
+				mergedModels.add(args[i]);
+			}
+			if (mergedModels.size() < 2) {
+				Activator.log(IStatus.WARNING, "** -merge needs at least two models");
+				usage();
+			}
+			return;
+		}
+
+		IncludeDirScanner includeScanner = null;
+		List<String> autoIncludes = new ArrayList<String>();
+		if (autoinclude) {
+			includeScanner = new IncludeDirScanner(autoincludeCacheFile());
+		}
+
 		for ( ; i < args.length; i++) {
 			userProjectDir = args[i];
 			
 			if (autoinclude) {
-				for (String inc : FileUtil.gatherIncludeDirs(args[i])) {
-					argIncludes.add(inc);					
+				for (String inc : includeScanner.gatherIncludeDirs(args[i])) {
+					autoIncludes.add(inc);					
 				}
 			}
 		}
+
+		if (includeScanner != null) {
+			includeScanner.save();
+			if (autoincludeAll) {
+				argIncludes.addAll(autoIncludes);
+			}
+			else {
+				// only the directories needed to resolve the includes
+				HeaderLocator locator = new HeaderLocator(autoIncludes, includeScanner);
+				locator.collectIncludes(includeScanner);
+				argIncludes.addAll(locator.neededDirs());
+				locator.report();
+			}
+		}
+	}
+
+	/**
+	 * File where the result of the -autoinclude scan is kept from one run to the next (next to the temporary project)
+	 */
+	private File autoincludeCacheFile() {
+		return stateFile(AUTOINCLUDE_CACHE_FILE);
+	}
+
+	/**
+	 * A file kept from one run to the next (next to the temporary project)
+	 */
+	private File stateFile(String name) {
+		File dir = ResourcesPlugin.getWorkspace().getRoot().getRawLocation().removeLastSegments(1).append(WORKSPACE_NAME).toFile();
+		dir.mkdirs();
+		return new File(dir, name);
 	}
 
 	private void modelComment(String title, Iterable<String> values) {
@@ -479,8 +1161,19 @@ public class VerveineCParser extends VerveineParser {
 				//"      -D<macro>: defines a C/C++ macro");
 				"      -I<include-dir>: adds a directory containing include files\n" +
 				"      -includeconf <config-file>: adds the directories listed in config-file in the include paths\n" +
-				"      -forceincludeH: when an include does not specify an extension (#include <string>) adds a .h to help include resolver\n" +
-				"      -autoinclude: looks for _all_ directories containing .h/.hh files and add them in the include paths\n" +
+				"      -forceincludeH: no-op (accepted for compatibility, includes are left as they are written)\n" +
+				"      -autoinclude: looks for directories containing .h/.hh files and add in the include paths those needed to resolve the #include\n" +
+				"      -autoincludeall: same as -autoinclude, but adds _all_ directories containing .h/.hh files\n" +
+				"      -astcache <nb-nodes>: maximum size of the AST cache in number of AST nodes (estimated from the source of a translation unit and of the headers parsed with it), 0 disables it (default: "+ASTCache.DEFAULT_MAX_NODES+" with -tuorder, 0 otherwise)\n" +
+				"      -tuorder: runs the passes creating behaviourals of source files, template parameters and attributes on a translation unit before going to the next one (its AST is parsed once for them), the other passes still visit all translation units one after the other\n" +
+				"      -threads <N>: runs the reference passes on N threads, and the comments and preprocessor statements pass at the same time as the others (default: 1)\n" +
+				"      -keepindex: keeps the project and its index for the next run, which only re-indexes the files modified in between\n" +
+				"      -incremental: only extracts the files modified since the last run (and the ones including them) and updates the model of the last run (best with -keepindex)\n" +
+				"      -streammse: writes the associations in the output file as soon as they are final (less memory used)\n" +
+				"      -binary: writes the model in a compact binary format instead of MSE (see BinaryModelConverter to convert it)\n" +
+				"      -shard <dir>: only extracts the files of top-level directory <dir> of the project ('.' for the files directly in the project), see -merge\n" +
+				"      -merge <model> <model>...: instead of extracting a project, merges models (in MSE or binary format) extracted from different files, typically shards\n" +
+				"      -linksrc: links the source directory in the project instead of copying the files (with -windows, names are converted when files are read)\n" +
 				"      <eclipse-Cproject-to-parse>: directory containing the C/C++ project to export in MSE");
 		Activator.stop();
 	}
@@ -0,0 +1,204 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.model.ITranslationUnit;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * A bounded cache of ASTs shared by all the visitor passes of one extraction run.<br>
+ * Every pass needs the AST of every translation unit, and parsing is by far the most expensive part of the extraction.
+ * The cache is an LRU on translation units, bounded by the estimated number of AST nodes it holds
+ * (see {@link #estimatedNodes(IASTTranslationUnit)}) rather than by a number of entries, because translation units vary a lot in size.
+ * It only helps when the same translation unit is visited by several passes in a row (see the -tuorder option of VerveineCParser):
+ * passes visiting all the translation units one after the other in the same order are a cyclic scan, on which an LRU smaller
+ * than the project gets no hits.
+ * <p>
+ * The cache may be used by several threads: lookups are synchronized, but parsing is done outside of the lock.
+ */
+public class ASTCache {
+
+	/**
+	 * Default maximum number of (estimated) AST nodes kept in the cache
+	 */
+	public static final long DEFAULT_MAX_NODES = 2000000;
+
+	/**
+	 * Rough average number of source characters per AST node, used to estimate the size of an AST
+	 */
+	public static final int AVERAGE_CHARS_PER_NODE = 6;
+
+	/**
+	 * How ASTs are requested to CDT (this was previously hard-coded in each visitor)
+	 */
+	public static final int AST_STYLE = ITranslationUnit.AST_CONFIGURE_USING_SOURCE_CONTEXT | ITranslationUnit.AST_SKIP_INDEXED_HEADERS;
+
+	/**
+	 * CDT index used to build the ASTs
+	 */
+	protected IIndex index;
+
+	/**
+	 * Maximum number of (estimated) AST nodes kept in the cache. 0 means no caching at all
+	 */
+	protected long maxNodes;
+
+	/**
+	 * Number of (estimated) AST nodes currently in the cache
+	 */
+	protected long cachedNodes;
+
+	/**
+	 * The cached ASTs in access order (least recently used first)
+	 */
+	protected LinkedHashMap<ITranslationUnit,CachedAST> entries;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * An AST with its estimated size
+	 */
+	protected static class CachedAST {
+		protected IASTTranslationUnit ast;
+		protected long nodes;
+
+		protected CachedAST(IASTTranslationUnit ast, long nodes) {
+			this.ast = ast;
+			this.nodes = nodes;
+		}
+	}
+
+	public ASTCache(IIndex index, long maxNodes) {
+		this.index = index;
+		this.maxNodes = maxNodes;
+		this.cachedNodes = 0;
+		this.entries = new LinkedHashMap<ITranslationUnit,CachedAST>(/*initialCapacity*/64, /*loadFactor*/0.75f, /*accessOrder*/true);
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+
+	public ASTCache(IIndex index) {
+		this(index, DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * Returns the AST of a translation unit, from the cache if possible, otherwise asks CDT to parse it.
+	 */
+	public IASTTranslationUnit getAST(ITranslationUnit tu) throws CoreException {
+		IASTTranslationUnit ast;
+		long nodes;
+
+		synchronized (this) {
+			CachedAST cached = entries.get(tu);
+			if (cached != null) {
+				hits++;
+				return cached.ast;
+			}
+			misses++;
+		}
+
+		// parsing outside of the lock so that several threads may parse at the same time
+		ast = tu.getAST(index, AST_STYLE);
+		if (ast == null) {
+			return null;
+		}
+		nodes = estimatedNodes(ast);
+
+		synchronized (this) {
+			if ( (nodes <= maxNodes) && (! entries.containsKey(tu)) ) {
+				entries.put(tu, new CachedAST(ast, nodes));
+				cachedNodes += nodes;
+				evictToFit();
+			}
+		}
+
+		return ast;
+	}
+
+	/**
+	 * Removes an AST from the cache, e.g. when it is known that no other pass will need it
+	 */
+	public synchronized void release(ITranslationUnit tu) {
+		CachedAST cached = entries.remove(tu);
+		if (cached != null) {
+			cachedNodes -= cached.nodes;
+		}
+	}
+
+	/**
+	 * Empties the cache (statistics are kept)
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		cachedNodes = 0;
+	}
+
+	/**
+	 * Removes least recently used ASTs until the cache is within its bounds
+	 */
+	protected void evictToFit() {
+		Iterator<Map.Entry<ITranslationUnit,CachedAST>> it = entries.entrySet().iterator();
+		while ( (cachedNodes > maxNodes) && it.hasNext() ) {
+			cachedNodes -= it.next().getValue().nodes;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Estimates the number of nodes in an AST from the length of the source of its top-level declarations.
+	 * These include the declarations of the headers parsed into the AST (the ones not in the index, see {@link #AST_STYLE}),
+	 * not only the ones of the translation unit itself.
+	 * Actually counting the nodes would cost a traversal of the AST, which is what we are trying to save.
+	 */
+	protected long estimatedNodes(IASTTranslationUnit ast) {
+		long chars = 0;
+		for (IASTDeclaration decl : ast.getDeclarations()) {
+			IASTFileLocation loc = decl.getFileLocation();
+			if (loc != null) {
+				chars += loc.getNodeLength();
+			}
+		}
+		return Math.max(1, chars / AVERAGE_CHARS_PER_NODE);
+	}
+
+	// STATISTICS
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getCachedNodes() {
+		return cachedNodes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized double hitRatio() {
+		return CacheStatistics.hitRatio(hits, misses);
+	}
+
+	public synchronized void report() {
+		CacheStatistics.report("AST cache", hits + " hits, " + misses + " misses (parses), " + evictions + " evictions", hits, misses);
+	}
+
+}
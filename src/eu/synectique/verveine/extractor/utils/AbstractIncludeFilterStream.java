@@ -5,28 +5,118 @@ import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * This Filter FilterInputStream reads an input stream and converts to lower case the name of all included files
+ * This FilterInputStream reads an input stream and transforms the name of all included files
+ * (e.g. converts it to lower case, see concrete sub-classes).<br>
+ * <code>#include</code> directives are recognized with a state machine which transitions are precomputed for all byte values
+ * (see {@link #TRANSITIONS}), and the stream is processed by buffers: bytes outside of a directive are copied in bulk
+ * until the next <code>'#'</code>. Nothing is allocated while reading.
+ * <p>
+ * Sub-classes may convert the characters of the included file names ({@link #convertChar(int)}) and/or add some bytes
+ * at the end of the names ({@link #nameSuffix(boolean)}). {@link #nameStart(int)} tells them that a new name starts.
  */
 public abstract class AbstractIncludeFilterStream extends FilterInputStream {
 
 	public static final String INCLUDE_MARKER = "#include";
 
-	private byte[] includeBuffer;
-	private int iBuf;
-	private boolean markerFound;
-	private boolean fileNameFound;
+	private static final int BUFFER_SIZE = 8192;
+
+	/*
+	 * States of the recognizer. Between HASH and AFTER_MARKER are the states where the i first characters of the marker were read
+	 */
+	private static final int SCAN = 0;                                      // outside of an #include
+	private static final int HASH = 1;                                      // after '#' (possibly followed by blanks)
+	private static final int AFTER_MARKER = 8;                              // after "#include" (i.e. INCLUDE_MARKER.length()), possibly followed by blanks
+	private static final int IN_ANGLE_NAME = AFTER_MARKER + 1;              // after "#include <"
+	private static final int IN_QUOTE_NAME = AFTER_MARKER + 2;              // after "#include \""
+	private static final int NB_STATES = AFTER_MARKER + 3;
+
+	/**
+	 * Next state for each state and each byte value
+	 */
+	private static final byte[][] TRANSITIONS = computeTransitions();
+
+	/**
+	 * Bytes read from the underlying stream, not yet returned
+	 */
+	private byte[] buffer;
+	private int bufferPos;
+	private int bufferEnd;
+	private boolean eof;
+
+	/**
+	 * Bytes produced but not yet returned (a suffix added to an included file name and the closing delimiter)
+	 */
+	private byte[] pending;
+	private int pendingPos;
+	private int pendingEnd;
+
+	private int state;
+
+	/**
+	 * For {@link #read()}
+	 */
+	private byte[] single;
+
+	/**
+	 * Whether the included file name read so far has an extension
+	 */
+	private boolean nameHasExtension;
 
 	public AbstractIncludeFilterStream(InputStream in) {
 		super(in);
-		includeBuffer = new byte[500];  // seems enough to store any realistic #include line
-		iBuf = 0;
-		markerFound = false;
-		fileNameFound = false;
+		buffer = new byte[BUFFER_SIZE];
+		bufferPos = 0;
+		bufferEnd = 0;
+		eof = false;
+		pending = new byte[16];
+		pendingPos = 0;
+		pendingEnd = 0;
+		state = SCAN;
+		nameHasExtension = false;
+		single = new byte[1];
+	}
+
+	private static byte[][] computeTransitions() {
+		byte[][] transitions = new byte[NB_STATES][256];
+
+		for (int s = 0; s < NB_STATES; s++) {
+			for (int c = 0; c < 256; c++) {
+				switch (s) {
+				case IN_ANGLE_NAME:
+					transitions[s][c] = (byte) ( ((c == '>') || (c == '\n')) ? SCAN : IN_ANGLE_NAME );
+					break;
+				case IN_QUOTE_NAME:
+					transitions[s][c] = (byte) ( ((c == '"') || (c == '\n')) ? SCAN : IN_QUOTE_NAME );
+					break;
+				default:
+					transitions[s][c] = (byte) ( (c == '#') ? HASH : SCAN );
+				}
+			}
+		}
+
+		// "# include" is also an include directive
+		transitions[HASH][' '] = HASH;
+		transitions[HASH]['\t'] = HASH;
+		// state i (HASH <= i < AFTER_MARKER) expects the (i+1)-th character of the marker
+		for (int s = HASH; s < AFTER_MARKER; s++) {
+			transitions[s][INCLUDE_MARKER.charAt(s)] = (byte) (s+1);
+		}
+		transitions[AFTER_MARKER][' '] = AFTER_MARKER;
+		transitions[AFTER_MARKER]['\t'] = AFTER_MARKER;
+		transitions[AFTER_MARKER]['<'] = IN_ANGLE_NAME;
+		transitions[AFTER_MARKER]['"'] = IN_QUOTE_NAME;
+
+		return transitions;
 	}
 
 	@Override
 	public int read() throws IOException {
-		return myReadChar(super.read());
+		int n;
+		do {
+			n = read(single, 0, 1);
+		} while (n == 0);
+
+		return (n < 0) ? -1 : (single[0] & 0xFF);
 	}
 
 	@Override
@@ -36,99 +126,175 @@ public abstract class AbstractIncludeFilterStream extends FilterInputStream {
 
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		int nb = super.read(b, off, len);
-		for (int i=0; i<nb; i++) {
-			b[i] = (byte) myReadChar(b[i]);
+		int n = 0;
+
+		if (len == 0) {
+			return 0;
 		}
-		return nb;
-	}
 
-	@Override
-	public long skip(long n) throws IOException {
-		iBuf = 0;
-		markerFound = false;
-		fileNameFound = false;
-		return super.skip(n);
+		while (n < len) {
+			if (pendingPos < pendingEnd) {
+				int nb = Math.min(len - n, pendingEnd - pendingPos);
+				System.arraycopy(pending, pendingPos, b, off + n, nb);
+				pendingPos += nb;
+				n += nb;
+				continue;
+			}
+
+			if (bufferPos == bufferEnd) {
+				if ( (n > 0) && (in.available() <= 0) ) {
+					break;   // do not block when some bytes can be returned
+				}
+				if (! fillBuffer()) {
+					break;
+				}
+			}
+
+			if (state == SCAN) {
+				// bulk copy up to the next '#'
+				int end = Math.min(bufferEnd, bufferPos + (len - n));
+				int i = bufferPos;
+				while ( (i < end) && (buffer[i] != '#') ) {
+					i++;
+				}
+				System.arraycopy(buffer, bufferPos, b, off + n, i - bufferPos);
+				n += i - bufferPos;
+				bufferPos = i;
+				if (i == end) {
+					continue;
+				}
+			}
+
+			int c = nextChar(buffer[bufferPos++] & 0xFF);
+			if (c >= 0) {
+				b[off + n] = (byte) c;
+				n++;
+			}
+			// else: produced in pending
+		}
+
+		return ( (n == 0) && eof ) ? -1 : n;
 	}
 
 	/**
-	 * Analyzes chars read as they come to detect presence of INCLUDE_MARKER string and
-	 * then transform them according to the specific concrete sub-class.<br>
-	 * Returns the transformed (or not) character
+	 * Reads from the underlying stream, returns false at end of stream
 	 */
-	protected int myReadChar(int c) {
-		if (! markerFound) {
-			return lookingForMarker(c);
+	private boolean fillBuffer() throws IOException {
+		if (eof) {
+			return false;
 		}
-		else {
-			return lookingForIncludedFile(c);
+		int nb = in.read(buffer, 0, buffer.length);
+		if (nb < 0) {
+			eof = true;
+			return false;
 		}
+		bufferPos = 0;
+		bufferEnd = nb;
+		return true;
 	}
 
-
 	/**
-	 * Analyzes chars read as they come to detect the start of the included filename.
-	 * After this marker, passes the include file name to concrete convertChar(char)<br>
-	 * Returns the transformed (or not) character
+	 * Runs the state machine on one byte read and returns the (possibly transformed) byte,
+	 * or -1 if the result was put in {@link #pending}
 	 */
-	private int lookingForIncludedFile(int c) {
-		if (! fileNameFound) {
-			switch (c) {
-			case ' ' :
-			case '\t': return c;
-
-			case '<' :
-			case '"':
-				fileNameFound = true;
-				return c;
-			
-			default:
-				// cannot happen
-				return c;
+	private int nextChar(int c) {
+		int next = TRANSITIONS[state][c];
+
+		if ( (state == IN_ANGLE_NAME) || (state == IN_QUOTE_NAME) ) {
+			if (next == state) {
+				if (c == '.') {
+					nameHasExtension = true;
+				}
+				else if ( (c == '/') || (c == '\\') ) {
+					nameHasExtension = false;
+				}
+				c = convertChar(c);
+			}
+			else if (c != '\n') {
+				// end of the included file name
+				byte[] suffix = nameSuffix(nameHasExtension);
+				if ( (suffix != null) && (suffix.length > 0) ) {
+					setPending(suffix, c);
+					c = -1;
+				}
 			}
 		}
-		else {
-			switch (c) {
-			case '>' :
-			case '"':
-				fileNameFound = false;
-				markerFound = false;
-				return c;
-			
-			default:
-				return convertChar(c);
+		else if ( (next == IN_ANGLE_NAME) || (next == IN_QUOTE_NAME) ) {
+			nameHasExtension = false;
+			nameStart(c);
+		}
+
+		state = next;
+		return c;
+	}
+
+	private void setPending(byte[] suffix, int closing) {
+		if (pending.length < suffix.length + 1) {
+			pending = new byte[suffix.length + 1];
+		}
+		System.arraycopy(suffix, 0, pending, 0, suffix.length);
+		pending[suffix.length] = (byte) closing;
+		pendingPos = 0;
+		pendingEnd = suffix.length + 1;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		byte[] skipped = new byte[(int) Math.min(n, BUFFER_SIZE)];
+		long total = 0;
+		while (total < n) {
+			int nb = read(skipped, 0, (int) Math.min(n - total, skipped.length));
+			if (nb < 0) {
+				break;
 			}
+			total += nb;
 		}
+		return total;
 	}
 
-	protected abstract int convertChar(int c);
+	@Override
+	public int available() throws IOException {
+		return (pendingEnd - pendingPos) + (bufferEnd - bufferPos) + in.available();
+	}
 
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		// not supported
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
 
 	/**
-	 * Analyzes chars read as they come to detect presence of INCLUDE_MARKER string.
-	 * After this marker, passes the include file name to concrete convertChar(char)<br>
-	 * Returns the transformed (or not) character
+	 * Called at the start of an included file name, after its opening delimiter
+	 * @param delimiter -- <code>'&lt;'</code> or <code>'"'</code>
 	 */
-	protected int lookingForMarker(int c) {
-		includeBuffer[iBuf] = (byte) c;
-		iBuf++;
-		if (! INCLUDE_MARKER.startsWith(new String(includeBuffer, 0, iBuf))) {
-			if (c == INCLUDE_MARKER.charAt(0)) {   // i.e. '#'
-				includeBuffer[0] = (byte) c;
-				iBuf = 1;
-			}
-			else {
-				iBuf = 0;
-			}
-		}
-		else
-			if (iBuf == INCLUDE_MARKER.length()) {
-				iBuf = 0;
-				markerFound = true;
-				fileNameFound = false;
-			}
+	protected void nameStart(int delimiter) {
+	}
 
+	/**
+	 * Transforms one character of an included file name. Default is to leave it unchanged
+	 */
+	protected int convertChar(int c) {
 		return c;
 	}
 
+	/**
+	 * Bytes to add at the end of an included file name (before the closing delimiter), or null. Default is to add nothing
+	 * @param hasExtension -- whether the file name has an extension
+	 */
+	protected byte[] nameSuffix(boolean hasExtension) {
+		return null;
+	}
+
 }
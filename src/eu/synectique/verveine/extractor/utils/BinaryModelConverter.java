@@ -0,0 +1,55 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import ch.akuhn.fame.internal.MSEPrinter;
+import ch.akuhn.fame.parser.InputSource;
+import ch.akuhn.fame.parser.Parser;
+import ch.akuhn.fame.parser.Scanner;
+
+/**
+ * Converts models between MSE and the binary format of {@link BinaryModelWriter}, without loading them in a repository:
+ * the events of the parser of one format are sent directly to the printer of the other.
+ * <p>
+ * Usage: <code>BinaryModelConverter -tomse &lt;model.vbm&gt; &lt;model.mse&gt;</code> or <code>BinaryModelConverter -tobinary &lt;model.mse&gt; &lt;model.vbm&gt;</code>
+ */
+public class BinaryModelConverter {
+
+	/**
+	 * Default extension of binary model files
+	 */
+	public static final String BINARY_EXTENSION = ".vbm";
+
+	public static void toMSE(File binary, File mse) throws IOException {
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mse), "UTF8"))) {
+			BinaryModelReader.fromFile(binary).accept(new MSEPrinter(out));
+		}
+	}
+
+	public static void toBinary(File mse, File binary) throws IOException {
+		try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(binary))) {
+			new Parser(new Scanner(InputSource.fromFile(mse))).accept(new BinaryModelWriter(out));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ( (args.length == 3) && args[0].equals("-tomse") ) {
+			toMSE(new File(args[1]), new File(args[2]));
+		}
+		else if ( (args.length == 3) && args[0].equals("-tobinary") ) {
+			toBinary(new File(args[1]), new File(args[2]));
+		}
+		else {
+			System.err.println("Usage: BinaryModelConverter -tomse <model" + BINARY_EXTENSION + "> <model.mse>\n"
+					+ "       BinaryModelConverter -tobinary <model.mse> <model" + BINARY_EXTENSION + ">");
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.akuhn.fame.MetaRepository;
+import ch.akuhn.fame.Repository;
+import ch.akuhn.fame.parser.Importer;
+import ch.akuhn.fame.parser.ParseClient;
+
+/**
+ * Reads a model written by {@link BinaryModelWriter} (see there for the format).<br>
+ * Like the MSE parser, it sends the model to a FAME {@link ParseClient}: an {@link Importer} to get a repository (see {@link #importModel(MetaRepository)}),
+ * an MSE printer to convert it (see {@link BinaryModelConverter}), or any client of its own.
+ * <p>
+ * Files are memory-mapped when possible ({@link #fromFile(File)}), otherwise read through a buffer.
+ */
+public class BinaryModelReader {
+
+	/**
+	 * Files bigger than this are not memory-mapped (a mapped buffer is indexed by an int)
+	 */
+	public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Where the bytes are read, the whole file if it is memory-mapped
+	 */
+	protected ByteBuffer buffer;
+
+	/**
+	 * Where the buffer is refilled from, <code>null</code> if the file is memory-mapped
+	 */
+	protected ReadableByteChannel channel;
+
+	/**
+	 * The string table, read as it goes
+	 */
+	protected List<String> strings;
+
+	public BinaryModelReader(InputStream in) {
+		this.channel = Channels.newChannel(in);
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.flip();
+		this.strings = new ArrayList<String>();
+	}
+
+	protected BinaryModelReader(ByteBuffer mapped) {
+		this.channel = null;
+		this.buffer = mapped;
+		this.strings = new ArrayList<String>();
+	}
+
+	/**
+	 * A reader on a file, memory-mapped if it is not too big
+	 */
+	public static BinaryModelReader fromFile(File file) throws IOException {
+		if (file.length() > MAX_MAPPED_SIZE) {
+			return new BinaryModelReader(new FileInputStream(file));
+		}
+		try (FileInputStream in = new FileInputStream(file)) {
+			// the mapping remains valid after the channel is closed
+			FileChannel fileChannel = in.getChannel();
+			return new BinaryModelReader(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+		}
+	}
+
+	/**
+	 * Whether a file starts as a binary model
+	 */
+	public static boolean isBinaryModel(File file) throws IOException {
+		byte[] magic = new byte[BinaryModelWriter.MAGIC.length];
+		try (InputStream in = new FileInputStream(file)) {
+			return (in.read(magic) == magic.length) && Arrays.equals(magic, BinaryModelWriter.MAGIC);
+		}
+	}
+
+	/**
+	 * Reads the model into a new repository
+	 */
+	public Repository importModel(MetaRepository metamodel) throws IOException {
+		Importer importer = new Importer(metamodel);
+		accept(importer);
+		return importer.getResult();
+	}
+
+	/**
+	 * Sends the whole model to <code>client</code>, then closes the input
+	 */
+	public void accept(ParseClient client) throws IOException {
+		try {
+			for (int i = 0; i < BinaryModelWriter.MAGIC.length; i++) {
+				if (next() != BinaryModelWriter.MAGIC[i]) {
+					throw new IOException("Not a binary model");
+				}
+			}
+			if (next() != BinaryModelWriter.VERSION) {
+				throw new IOException("Unsupported binary model version");
+			}
+
+			client.beginDocument();
+			for (byte tag = next(); tag != BinaryModelWriter.END; tag = next()) {
+				if (tag == BinaryModelWriter.STRING) {
+					stringEntry();
+				}
+				else if (tag == BinaryModelWriter.BLOCK) {
+					block(client);
+				}
+				else {
+					throw new IOException("Unexpected tag " + tag + " at top level");
+				}
+			}
+			client.endDocument();
+		}
+		finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	protected void block(ParseClient client) throws IOException {
+		String name = string();
+		for (byte tag = next(); tag != BinaryModelWriter.END; tag = next()) {
+			if (tag == BinaryModelWriter.STRING) {
+				stringEntry();
+			}
+			else if (tag == BinaryModelWriter.ELEMENT) {
+				element(client, name);
+			}
+			else {
+				throw new IOException("Unexpected tag " + tag + " in block of " + name);
+			}
+		}
+	}
+
+	protected void element(ParseClient client, String name) throws IOException {
+		client.beginElement(name);
+		int serial = (int) varint();
+		if (serial != 0) {
+			client.serial(serial);
+		}
+		for (byte tag = next(); tag != BinaryModelWriter.END; tag = next()) {
+			if (tag != BinaryModelWriter.ATTRIBUTE) {
+				throw new IOException("Unexpected tag " + tag + " in element of " + name);
+			}
+			attribute(client);
+		}
+		client.endElement(name);
+	}
+
+	protected void attribute(ParseClient client) throws IOException {
+		String name = string();
+		client.beginAttribute(name);
+		for (byte tag = next(); tag != BinaryModelWriter.END; tag = next()) {
+			switch (tag) {
+			case BinaryModelWriter.REF:
+				client.reference((int) varint());
+				break;
+			case BinaryModelWriter.NAME_REF:
+				client.reference(string());
+				break;
+			case BinaryModelWriter.STR:
+				client.primitive(string());
+				break;
+			case BinaryModelWriter.LONG_STR:
+				client.primitive(utf8((int) varint()));
+				break;
+			case BinaryModelWriter.INT:
+				long zigzag = varint();
+				long l = (zigzag >>> 1) ^ -(zigzag & 1);
+				if ( (l >= Integer.MIN_VALUE) && (l <= Integer.MAX_VALUE) ) {
+					client.primitive(Integer.valueOf((int) l));
+				}
+				else {
+					client.primitive(Long.valueOf(l));
+				}
+				break;
+			case BinaryModelWriter.FLOAT:
+				long bits = 0;
+				for (int i = 0; i < 8; i++) {
+					bits |= (next() & 0xFFL) << (8 * i);
+				}
+				client.primitive(Double.longBitsToDouble(bits));
+				break;
+			case BinaryModelWriter.TRUE:
+				client.primitive(Boolean.TRUE);
+				break;
+			case BinaryModelWriter.FALSE:
+				client.primitive(Boolean.FALSE);
+				break;
+			case BinaryModelWriter.NESTED:
+				element(client, string());
+				break;
+			default:
+				throw new IOException("Unexpected tag " + tag + " in attribute " + name);
+			}
+		}
+		client.endAttribute(name);
+	}
+
+	// DECODING
+
+	protected void stringEntry() throws IOException {
+		strings.add(utf8((int) varint()));
+	}
+
+	protected String string() throws IOException {
+		int num = (int) varint();
+		if (num >= strings.size()) {
+			throw new IOException("Undefined string " + num);
+		}
+		return strings.get(num);
+	}
+
+	protected String utf8(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while (read < length) {
+			fill();
+			int n = Math.min(length - read, buffer.remaining());
+			buffer.get(bytes, read, n);
+			read += n;
+		}
+		return new String(bytes, BinaryModelWriter.UTF8);
+	}
+
+	protected long varint() throws IOException {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = next();
+			value |= (b & 0x7FL) << shift;
+			shift += 7;
+		} while ( (b & 0x80) != 0);
+		return value;
+	}
+
+	protected byte next() throws IOException {
+		fill();
+		return buffer.get();
+	}
+
+	/**
+	 * Makes sure there is something left to read in the buffer
+	 */
+	private void fill() throws IOException {
+		if (buffer.hasRemaining()) {
+			return;
+		}
+		if (channel != null) {
+			buffer.clear();
+			while (channel.read(buffer) == 0) {
+				// nothing read yet
+			}
+			buffer.flip();
+		}
+		if (! buffer.hasRemaining()) {
+			throw new EOFException("Truncated binary model");
+		}
+	}
+
+}
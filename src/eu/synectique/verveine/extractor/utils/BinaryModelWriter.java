@@ -0,0 +1,334 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.akuhn.fame.parser.AbstractParserClient;
+
+/**
+ * Writes a model in a compact binary format, an alternative to MSE that is smaller and faster to load.<br>
+ * This is a FAME {@link ch.akuhn.fame.parser.ParseClient}, so it receives a model the same way as the MSE printer:
+ * from a repository (<code>repository.accept(writer)</code>), from the MSE parser (see {@link BinaryModelConverter}),
+ * or element by element while extracting (see {@link MSEStreamWriter}). It writes as it receives, nothing is kept in memory but the string table.
+ * <p>
+ * Format: the header {@link #MAGIC} and {@link #VERSION}, then a sequence of records, each starting with a tag byte:
+ * <ul>
+ * <li>{@link #STRING}: a new entry of the string table, its UTF-8 length (varint) and bytes.
+ *   Entries are numbered in order of appearance, starting at 0. Class names, attribute names, entity names, signatures, file names, ...
+ *   are interned this way and then referenced by number</li>
+ * <li>{@link #BLOCK}: the class name (string number) of the elements in the block, then the elements, then {@link #END}.
+ *   Consecutive elements of the same class (e.g. all invocations of a translation unit) share their block</li>
+ * <li>{@link #END}: end of the document</li>
+ * </ul>
+ * An element is {@link #ELEMENT}, its serial number (varint, 0 if none), its attributes, then {@link #END}.<br>
+ * An attribute is {@link #ATTRIBUTE}, its name (string number), its values, then {@link #END}.<br>
+ * A value is one of {@link #REF} and the serial number of the element referenced (varint), {@link #NAME_REF} and a string number
+ * (reference to a FAME meta-description), {@link #STR} and a string number, {@link #LONG_STR} and an UTF-8 length and bytes
+ * (strings too long to be interned, e.g. comments), {@link #INT} and a zig-zag varint, {@link #FLOAT} and 8 bytes,
+ * {@link #TRUE}, {@link #FALSE}, or {@link #NESTED}, a class name (string number) and a nested element (as above, without its tag).
+ * <p>
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, high bit set on all bytes but the last.
+ */
+public class BinaryModelWriter extends AbstractParserClient {
+
+	public static final byte[] MAGIC = { 'V', 'B', 'M' };
+
+	public static final byte VERSION = 1;
+
+	/*
+	 * record tags
+	 */
+	public static final byte END = 0;
+	public static final byte STRING = 1;
+	public static final byte BLOCK = 2;
+	public static final byte ELEMENT = 3;
+	public static final byte ATTRIBUTE = 4;
+	public static final byte REF = 5;
+	public static final byte NAME_REF = 6;
+	public static final byte STR = 7;
+	public static final byte LONG_STR = 8;
+	public static final byte INT = 9;
+	public static final byte FLOAT = 10;
+	public static final byte TRUE = 11;
+	public static final byte FALSE = 12;
+	public static final byte NESTED = 13;
+
+	/**
+	 * Strings longer than this (in characters) are not interned
+	 */
+	public static final int MAX_INTERNED_LENGTH = 256;
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected OutputStream out;
+
+	/**
+	 * Numbers of the strings in the string table
+	 */
+	protected Map<String,Integer> strings;
+
+	/**
+	 * Class name of the current block, <code>null</code> if there is none
+	 */
+	protected String block;
+
+	/**
+	 * Depth of the current element: 0 outside elements, more than 1 in nested elements
+	 */
+	protected int depth;
+
+	/**
+	 * Whether the serial number of the current element is still to be written
+	 */
+	private boolean noSerialYet;
+
+	/**
+	 * Elements are received one event at a time, they are written in a buffer first
+	 */
+	private byte[] buffer;
+	private int length;
+
+	/**
+	 * Beginning of the current top-level element in the buffer
+	 */
+	private int recordStart;
+
+	public BinaryModelWriter(OutputStream out) {
+		this.out = out;
+		this.strings = new HashMap<String,Integer>();
+		this.block = null;
+		this.depth = 0;
+		this.noSerialYet = false;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.length = 0;
+		this.recordStart = 0;
+	}
+
+	@Override
+	public void beginDocument() {
+		bytes(MAGIC, 0, MAGIC.length);
+		put(VERSION);
+	}
+
+	@Override
+	public void endDocument() {
+		endBlock();
+		put(END);
+		flush();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Error writing binary model: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void beginElement(String name) {
+		serialIfNone();
+		depth++;
+		if (depth > 1) {
+			put(NESTED);
+			string(name);
+		}
+		else {
+			recordStart = length;
+			if (! name.equals(block)) {
+				endBlock();
+				put(BLOCK);
+				string(name);
+				block = name;
+			}
+			put(ELEMENT);
+		}
+		noSerialYet = true;
+	}
+
+	/**
+	 * Called after {@link #beginElement(String)} if the element has a serial number
+	 */
+	@Override
+	public void serial(int serial) {
+		varint(serial);
+		noSerialYet = false;
+	}
+
+	@Override
+	public void endElement(String name) {
+		serialIfNone();
+		put(END);
+		depth--;
+		if ( (depth == 0) && (length > BUFFER_SIZE / 2) ) {
+			flush();
+		}
+	}
+
+	@Override
+	public void beginAttribute(String name) {
+		serialIfNone();
+		put(ATTRIBUTE);
+		string(name);
+	}
+
+	@Override
+	public void endAttribute(String name) {
+		put(END);
+	}
+
+	@Override
+	public void primitive(Object value) {
+		if (value instanceof String) {
+			String str = (String) value;
+			if (str.length() > MAX_INTERNED_LENGTH) {
+				put(LONG_STR);
+				byte[] utf8 = str.getBytes(UTF8);
+				varint(utf8.length);
+				bytes(utf8, 0, utf8.length);
+			}
+			else {
+				put(STR);
+				string(str);
+			}
+		}
+		else if (value instanceof Boolean) {
+			put( ((Boolean) value) ? TRUE : FALSE);
+		}
+		else if ( (value instanceof Double) || (value instanceof Float) ) {
+			put(FLOAT);
+			long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+			for (int i = 0; i < 8; i++) {
+				put((byte) (bits >>> (8 * i)));
+			}
+		}
+		else if (value instanceof Number) {
+			put(INT);
+			long l = ((Number) value).longValue();
+			varint( (l << 1) ^ (l >> 63));  // zig-zag: small negative numbers take few bytes too
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported primitive value: " + value);
+		}
+	}
+
+	@Override
+	public void reference(int serial) {
+		put(REF);
+		varint(serial);
+	}
+
+	@Override
+	public void reference(String name) {
+		put(NAME_REF);
+		string(name);
+	}
+
+	@Override
+	public void reference(String name, int serial) {
+		reference(serial);
+	}
+
+	// ENCODING
+
+	/**
+	 * Elements without serial number are written with serial 0 (serial numbers start at 1)
+	 */
+	private void serialIfNone() {
+		if (noSerialYet) {
+			varint(0);
+			noSerialYet = false;
+		}
+	}
+
+	private void endBlock() {
+		if (block != null) {
+			put(END);
+			block = null;
+		}
+	}
+
+	/**
+	 * Writes the number of a string, after adding it to the string table if it is new.
+	 * The entry is written before the current top-level element, so that the reader always knows a string before it is used
+	 */
+	protected void string(String str) {
+		Integer num = strings.get(str);
+		if (num == null) {
+			num = strings.size();
+			strings.put(str, num);
+
+			byte[] utf8 = str.getBytes(UTF8);
+			byte[] entry = new byte[utf8.length + 6];
+			int entryLength = 0;
+			entry[entryLength++] = STRING;
+			for (long v = utf8.length; ; v >>>= 7) {
+				if (v < 0x80) {
+					entry[entryLength++] = (byte) v;
+					break;
+				}
+				entry[entryLength++] = (byte) ((v & 0x7F) | 0x80);
+			}
+			System.arraycopy(utf8, 0, entry, entryLength, utf8.length);
+			entryLength += utf8.length;
+			insert(entry, entryLength);
+		}
+		varint(num);
+	}
+
+	protected void varint(long value) {
+		while ( (value & ~0x7FL) != 0) {
+			put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		put((byte) value);
+	}
+
+	protected void put(byte b) {
+		if (length == buffer.length) {
+			grow(1);
+		}
+		buffer[length++] = b;
+	}
+
+	protected void bytes(byte[] b, int off, int len) {
+		if (length + len > buffer.length) {
+			grow(len);
+		}
+		System.arraycopy(b, off, buffer, length, len);
+		length += len;
+	}
+
+	/**
+	 * Inserts a string table entry before the record being written in the buffer.
+	 * Elements are only flushed when complete (see {@link #endElement(String)}), so the current top-level element is still in the buffer
+	 */
+	private void insert(byte[] entry, int entryLength) {
+		if (length + entryLength > buffer.length) {
+			grow(entryLength);
+		}
+		System.arraycopy(buffer, recordStart, buffer, recordStart + entryLength, length - recordStart);
+		System.arraycopy(entry, 0, buffer, recordStart, entryLength);
+		length += entryLength;
+		recordStart += entryLength;
+	}
+
+	private void grow(int needed) {
+		byte[] bigger = new byte[Math.max(buffer.length * 2, length + needed)];
+		System.arraycopy(buffer, 0, bigger, 0, length);
+		buffer = bigger;
+	}
+
+	protected void flush() {
+		try {
+			out.write(buffer, 0, length);
+		} catch (IOException e) {
+			throw new IllegalStateException("Error writing binary model: " + e.getMessage(), e);
+		}
+		length = 0;
+		recordStart = 0;
+	}
+
+}
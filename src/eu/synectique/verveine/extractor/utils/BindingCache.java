@@ -0,0 +1,169 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
+import org.eclipse.cdt.core.dom.ast.IASTImplicitName;
+import org.eclipse.cdt.core.dom.ast.IASTName;
+import org.eclipse.cdt.core.dom.ast.IASTNodeLocation;
+import org.eclipse.cdt.core.dom.ast.IBinding;
+
+/**
+ * Remembers the bindings found in the CDT index for the names in the source code, so that each name is looked up in the index only once
+ * even though all the visitor passes ask for it (index lookups may go to the database on disk).<br>
+ * ASTs are not kept between passes, so names are identified by their location: file, offset and length.
+ * There is one table per file, keyed by offset and length of the names. "Not found" (null binding) is also remembered.
+ * <p>
+ * Names that do not have a unique location in a file are not cached: names coming from macro expansions
+ * (all names in the expansion have the location of the macro call) and implicit names (e.g. implicit calls to constructors).
+ * The text of the name is also checked to be on the safe side.
+ * <p>
+ * The cache is thread safe and bounded: once full, new bindings are not cached any more.
+ */
+public class BindingCache {
+
+	/**
+	 * Default maximum number of bindings cached
+	 */
+	public static final int DEFAULT_MAX_SIZE = 5000000;
+
+	/**
+	 * A binding with the name it was found for
+	 */
+	protected static class CachedBinding {
+		protected final char[] name;
+		protected final IBinding binding;
+
+		protected CachedBinding(char[] name, IBinding binding) {
+			this.name = name;
+			this.binding = binding;
+		}
+	}
+
+	/**
+	 * The bindings by file name, then by offset and length of the name (see {@link #position(IASTFileLocation)})
+	 */
+	protected ConcurrentMap<String,ConcurrentMap<Long,CachedBinding>> files;
+
+	protected int maxSize;
+
+	protected AtomicInteger size;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	public BindingCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.files = new ConcurrentHashMap<String,ConcurrentMap<Long,CachedBinding>>();
+		this.size = new AtomicInteger(0);
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+	}
+
+	public BindingCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Returns the location of the name in a file if it can be used as a key, null otherwise
+	 */
+	public IASTFileLocation cacheableLocation(IASTName name) {
+		if (name instanceof IASTImplicitName) {
+			return null;
+		}
+
+		IASTNodeLocation[] locs = name.getNodeLocations();
+		if ( (locs == null) || (locs.length != 1) || (! (locs[0] instanceof IASTFileLocation)) ) {
+			// e.g. macro expansion
+			return null;
+		}
+
+		IASTFileLocation loc = (IASTFileLocation) locs[0];
+		if ( (loc.getFileName() == null) || (loc.getNodeLength() == 0) ) {
+			return null;
+		}
+
+		return loc;
+	}
+
+	/**
+	 * Returns what is cached for a name at this location (see {@link #cacheableLocation(IASTName)}), or null if nothing is cached.
+	 * Note that the binding cached may be null: the name was not found in the index
+	 */
+	public CachedBinding lookup(IASTFileLocation loc, IASTName name) {
+		ConcurrentMap<Long,CachedBinding> inFile = files.get(loc.getFileName());
+		CachedBinding cached = null;
+
+		if (inFile != null) {
+			cached = inFile.get(position(loc));
+		}
+
+		if ( (cached != null) && Arrays.equals(cached.name, name.toCharArray()) ) {
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(IASTFileLocation loc, IASTName name, IBinding bnd) {
+		if (size.get() >= maxSize) {
+			return;
+		}
+
+		ConcurrentMap<Long,CachedBinding> inFile = files.get(loc.getFileName());
+		if (inFile == null) {
+			ConcurrentMap<Long,CachedBinding> created = new ConcurrentHashMap<Long,CachedBinding>();
+			inFile = files.putIfAbsent(loc.getFileName(), created);
+			if (inFile == null) {
+				inFile = created;
+			}
+		}
+
+		if (inFile.put(position(loc), new CachedBinding(name.toCharArray(), bnd)) == null) {
+			size.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Offset and length packed in a long
+	 */
+	protected Long position(IASTFileLocation loc) {
+		return Long.valueOf( (((long)loc.getNodeOffset()) << 32) | (loc.getNodeLength() & 0xFFFFFFFFL) );
+	}
+
+	public void clear() {
+		files.clear();
+		size.set(0);
+	}
+
+	// STATISTICS
+
+	public int size() {
+		return size.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double hitRatio() {
+		return CacheStatistics.hitRatio(getHits(), getMisses());
+	}
+
+	public void report() {
+		long h = getHits();
+		long m = getMisses();
+		CacheStatistics.report("Binding cache", size() + " bindings in " + files.size() + " files, " + h + " hits, " + m + " misses (index lookups)", h, m);
+	}
+
+}
@@ -0,0 +1,24 @@
+package eu.synectique.verveine.extractor.utils;
+
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Hit ratio and report of the caches of an extraction run ({@link ASTCache}, {@link StubBindingTable}, {@link ResolutionCache}, {@link BindingCache})
+ */
+public class CacheStatistics {
+
+	public static double hitRatio(long hits, long misses) {
+		long total = hits + misses;
+		return (total == 0) ? 0.0 : ((double)hits / total);
+	}
+
+	/**
+	 * Logs the statistics of a cache: <code>details</code> (its counts) followed by its hit ratio
+	 */
+	public static void report(String cache, String details, long hits, long misses) {
+		Activator.log(IStatus.INFO, cache + ": " + details + ", hit ratio " + String.format("%.1f", hitRatio(hits, misses)*100) + "%");
+	}
+
+}
@@ -0,0 +1,168 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import eu.synectique.verveine.core.gen.famix.BehaviouralEntity;
+import eu.synectique.verveine.core.gen.famix.ContainerEntity;
+import eu.synectique.verveine.core.gen.famix.Function;
+import eu.synectique.verveine.core.gen.famix.NamedEntity;
+
+/**
+ * Indexes by name the children of container entities, so that {@link NameResolver} does not have to scan all the types, methods, attributes, ...
+ * of a container to find one of them.<br>
+ * There is one index per container and per kind of children (see {@link #TYPES}, {@link #FUNCTIONS}, ...), created on first lookup.
+ * The {@link eu.synectique.verveine.extractor.plugin.CDictionary} adds to the index the children it creates (see {@link #childAdded(ContainerEntity, int, Collection, NamedEntity)}).
+ * An index is also checked against the actual children of its container at each lookup (size, and membership of the entity found)
+ * and rebuilt if they do not match, e.g. when a child was attached or moved without going through the dictionary.
+ * <p>
+ * This class is not thread safe, it is guarded by the model lock of the dictionary (see {@link eu.synectique.verveine.extractor.plugin.CDictionary#getModelLock()}).
+ */
+public class ChildIndex {
+
+	/*
+	 * Kinds of children
+	 */
+	public static final int TYPES = 0;
+	public static final int FUNCTIONS = 1;            // indexed by name and by signature
+	public static final int ATTRIBUTES = 2;
+	public static final int METHODS = 3;              // indexed by signature
+	public static final int GLOBAL_VARIABLES = 4;
+	public static final int CHILD_SCOPES = 5;
+	public static final int LOCAL_VARIABLES = 6;
+	public static final int PARAMETERS = 7;
+	private static final int NB_KINDS = 8;
+
+	/**
+	 * The children of one kind of one container, by name
+	 */
+	protected static class Slot {
+		protected Map<String,NamedEntity> byName = new HashMap<String,NamedEntity>();
+
+		/**
+		 * Number of children indexed
+		 */
+		protected int count = 0;
+	}
+
+	protected Map<ContainerEntity,Slot[]> slots;
+
+	private long lookups;
+	private long rebuilds;
+
+	public ChildIndex() {
+		slots = new IdentityHashMap<ContainerEntity,Slot[]>();
+		lookups = 0;
+		rebuilds = 0;
+	}
+
+	/**
+	 * Looks for a child of <code>container</code> with the given name (or signature)
+	 * @param kind -- kind of the children searched
+	 * @param children -- the actual children of this kind (e.g. <code>container.getTypes()</code>)
+	 * @return the child found or null
+	 */
+	public NamedEntity lookup(ContainerEntity container, int kind, Collection<? extends NamedEntity> children, String name) {
+		Slot slot;
+		NamedEntity found;
+
+		lookups++;
+		slot = slotFor(container, kind, children);
+		found = slot.byName.get(name);
+		if ( (found != null) && (! children.contains(found)) ) {
+			// child was moved to another container
+			slot = rebuild(container, kind, children);
+			found = slot.byName.get(name);
+		}
+
+		return found;
+	}
+
+	/**
+	 * Must be called after <code>child</code> was attached to <code>container</code>.
+	 * Does nothing if there is no index yet for this container (it will be built on first lookup),
+	 * or if the child was already there
+	 */
+	public void childAdded(ContainerEntity container, int kind, Collection<? extends NamedEntity> children, NamedEntity child) {
+		Slot[] all = slots.get(container);
+		if ( (all == null) || (all[kind] == null) ) {
+			return;
+		}
+
+		Slot slot = all[kind];
+		if (slot.count == children.size() - 1) {
+			index(slot, kind, child);
+			slot.count++;
+		}
+		// else, not in sync, will be rebuilt on next lookup
+	}
+
+	/**
+	 * Forgets all indexes
+	 */
+	public void clear() {
+		slots.clear();
+	}
+
+	protected Slot slotFor(ContainerEntity container, int kind, Collection<? extends NamedEntity> children) {
+		Slot[] all = slots.get(container);
+		if ( (all != null) && (all[kind] != null) && (all[kind].count == children.size()) ) {
+			return all[kind];
+		}
+		return rebuild(container, kind, children);
+	}
+
+	protected Slot rebuild(ContainerEntity container, int kind, Collection<? extends NamedEntity> children) {
+		Slot[] all = slots.get(container);
+		if (all == null) {
+			all = new Slot[NB_KINDS];
+			slots.put(container, all);
+		}
+
+		Slot slot = new Slot();
+		for (NamedEntity child : children) {
+			index(slot, kind, child);
+		}
+		slot.count = children.size();
+		all[kind] = slot;
+		rebuilds++;
+
+		return slot;
+	}
+
+	/**
+	 * Adds keys for a child. When several children have the same key, the first one is kept
+	 */
+	protected void index(Slot slot, int kind, NamedEntity child) {
+		switch (kind) {
+		case FUNCTIONS:
+			indexKey(slot, child.getName(), child);
+			indexKey(slot, ((Function)child).getSignature(), child);
+			break;
+		case METHODS:
+			indexKey(slot, ((BehaviouralEntity)child).getSignature(), child);
+			break;
+		default:
+			indexKey(slot, child.getName(), child);
+		}
+	}
+
+	protected void indexKey(Slot slot, String key, NamedEntity child) {
+		if ( (key != null) && (! slot.byName.containsKey(key)) ) {
+			slot.byName.put(key, child);
+		}
+	}
+
+	// STATISTICS
+
+	public long getLookups() {
+		return lookups;
+	}
+
+	public long getRebuilds() {
+		return rebuilds;
+	}
+
+}
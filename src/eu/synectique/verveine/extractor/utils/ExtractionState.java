@@ -0,0 +1,279 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.core.runtime.IStatus;
+
+import ch.akuhn.fame.Repository;
+import eu.synectique.verveine.core.gen.famix.Include;
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * What an incremental extraction needs to know of the previous run: the content hash of each translation unit and the files each one includes
+ * (from the Include entities of the model emitted).<br>
+ * From this, {@link #dirtyFiles(Map)} computes the files whose entities must be extracted again: the files that changed (or are new, or were deleted)
+ * and all the files that include them, directly or not.
+ * <p>
+ * The state is only valid for the model file it was saved with (same path, size and modification time) and for the same program arguments.
+ * <p>
+ * File format, a version line then:
+ * <pre>
+ * A &lt;program arguments&gt;
+ * O &lt;size&gt; &lt;mtime&gt; &lt;path of the model file&gt;
+ * T &lt;hash&gt; &lt;name of a translation unit&gt;
+ * I &lt;name of a file included by the previous translation unit&gt;
+ * ...
+ * </pre>
+ * (fields separated by tabs, file names as in the model)
+ */
+public class ExtractionState {
+
+	/**
+	 * Version of the state file format, state files of other versions are ignored
+	 */
+	public static final String STATE_VERSION = "1";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Where the state is saved
+	 */
+	protected File stateFile;
+
+	/**
+	 * Program arguments of the run
+	 */
+	protected String arguments;
+
+	/**
+	 * Model file emitted by the run, its size and modification time
+	 */
+	protected String modelPath;
+	protected long modelSize;
+	protected long modelMTime;
+
+	/**
+	 * Content hash of each translation unit
+	 */
+	protected Map<String,String> hashes;
+
+	/**
+	 * Files included by each file
+	 */
+	protected Map<String,Set<String>> includes;
+
+	public ExtractionState(File stateFile, String arguments) {
+		this.stateFile = stateFile;
+		this.arguments = arguments;
+		this.modelPath = null;
+		this.hashes = new TreeMap<String,String>();
+		this.includes = new TreeMap<String,Set<String>>();
+	}
+
+	/**
+	 * Reads the state of the previous run.
+	 * @return whether the state read is valid for <code>modelFile</code> and the program arguments of this run
+	 */
+	public boolean load(File modelFile) {
+		if (! stateFile.exists()) {
+			return false;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(stateFile))) {
+			String line;
+			String previousArgs = null;
+			Set<String> current = null;
+
+			line = reader.readLine();
+			if ( (line == null) || (! line.equals("V\t" + STATE_VERSION)) ) {
+				return false;
+			}
+			while ( (line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 4);
+				if ( fields[0].equals("A") && (fields.length == 2) ) {
+					previousArgs = fields[1];
+				}
+				else if ( fields[0].equals("O") && (fields.length == 4) ) {
+					modelSize = Long.parseLong(fields[1]);
+					modelMTime = Long.parseLong(fields[2]);
+					modelPath = fields[3];
+				}
+				else if ( fields[0].equals("T") && (fields.length == 3) ) {
+					hashes.put(fields[2], fields[1]);
+					current = includedBy(fields[2]);
+				}
+				else if ( fields[0].equals("I") && (fields.length == 2) && (current != null) ) {
+					current.add(fields[1]);
+				}
+			}
+
+			if (! arguments.equals(previousArgs)) {
+				Activator.log(IStatus.INFO, "Incremental extraction: program arguments changed since last run");
+				return false;
+			}
+			if ( (modelPath == null) || (! modelPath.equals(modelFile.getAbsolutePath()))
+					|| (modelFile.length() != modelSize) || (modelFile.lastModified() != modelMTime) ) {
+				Activator.log(IStatus.INFO, "Incremental extraction: " + modelFile.getPath() + " is not the model emitted by last run");
+				return false;
+			}
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			Activator.log(IStatus.WARNING, "Could not read incremental extraction state " + stateFile.getPath() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Saves the state of this run, for the model file just emitted (written in a temporary file first, then renamed)
+	 */
+	public void save(File modelFile) {
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+			writer.write("V\t" + STATE_VERSION);
+			writer.newLine();
+			writer.write("A\t" + arguments);
+			writer.newLine();
+			writer.write("O\t" + modelFile.length() + "\t" + modelFile.lastModified() + "\t" + modelFile.getAbsolutePath());
+			writer.newLine();
+			for (Map.Entry<String,String> tu : hashes.entrySet()) {
+				writer.write("T\t" + tu.getValue() + "\t" + tu.getKey());
+				writer.newLine();
+				Set<String> included = includes.get(tu.getKey());
+				if (included != null) {
+					for (String name : included) {
+						writer.write("I\t" + name);
+						writer.newLine();
+					}
+				}
+			}
+		} catch (IOException e) {
+			Activator.log(IStatus.WARNING, "Could not save incremental extraction state " + stateFile.getPath() + ": " + e.getMessage());
+			return;
+		}
+
+		stateFile.delete();
+		if (! tmp.renameTo(stateFile)) {
+			Activator.log(IStatus.WARNING, "Could not save incremental extraction state " + stateFile.getPath());
+		}
+	}
+
+	private Set<String> includedBy(String name) {
+		Set<String> included = includes.get(name);
+		if (included == null) {
+			included = new TreeSet<String>();
+			includes.put(name, included);
+		}
+		return included;
+	}
+
+	/**
+	 * The files to extract again, given the hashes of the translation units of this run:
+	 * modified, new and deleted translation units, plus all the files including them (transitively, according to the includes of the previous run)
+	 */
+	public Set<String> dirtyFiles(Map<String,String> currentHashes) {
+		Set<String> dirty = new HashSet<String>();
+		Map<String,List<String>> includers = new HashMap<String,List<String>>();
+		List<String> todo = new ArrayList<String>();
+
+		for (Map.Entry<String,String> tu : currentHashes.entrySet()) {
+			if (! tu.getValue().equals(hashes.get(tu.getKey()))) {
+				todo.add(tu.getKey());
+			}
+		}
+		for (String name : hashes.keySet()) {
+			if (! currentHashes.containsKey(name)) {
+				todo.add(name);
+			}
+		}
+
+		// reversed include graph
+		for (Map.Entry<String,Set<String>> inc : includes.entrySet()) {
+			for (String included : inc.getValue()) {
+				List<String> incs = includers.get(included);
+				if (incs == null) {
+					incs = new ArrayList<String>();
+					includers.put(included, incs);
+				}
+				incs.add(inc.getKey());
+			}
+		}
+
+		while (! todo.isEmpty()) {
+			String name = todo.remove(todo.size() - 1);
+			if (dirty.add(name)) {
+				List<String> incs = includers.get(name);
+				if (incs != null) {
+					todo.addAll(incs);
+				}
+			}
+		}
+
+		return dirty;
+	}
+
+	/**
+	 * Records the hashes of the translation units of this run
+	 */
+	public void setHashes(Map<String,String> currentHashes) {
+		hashes.clear();
+		hashes.putAll(currentHashes);
+	}
+
+	/**
+	 * Records the includes of the model emitted by this run
+	 */
+	public void setIncludes(Repository repo) {
+		includes.clear();
+		for (Include inc : repo.all(Include.class)) {
+			if ( (inc.getSource() != null) && (inc.getTarget() != null) ) {
+				includedBy(inc.getSource().getName()).add(inc.getTarget().getName());
+			}
+		}
+	}
+
+	/**
+	 * MD5 of the content of a file, in hexadecimal
+	 */
+	public static String hash(InputStream in) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ( (n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,68 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.eclipse.core.runtime.IStatus;
+
+import ch.akuhn.fame.fm3.PropertyDescription;
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Reflective access to FAMIX elements through their FAME meta-descriptions
+ */
+public class FameUtil {
+
+	/**
+	 * Writes a single valued property. Unlike FAME, accepts null values (calls the FAMIX setter directly).
+	 * As with all FAMIX setters, the opposite property of the old and new values are updated
+	 */
+	public static void write(PropertyDescription prop, Object elt, Object value) {
+		if (value != null) {
+			prop.writeAll(elt, Collections.singletonList(value));
+			return;
+		}
+
+		Method setter = setter(prop, elt.getClass());
+		if (setter != null) {
+			try {
+				setter.invoke(elt, (Object) null);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				Activator.log(IStatus.WARNING, "Could not clear property " + prop.getName() + " of " + elt + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Removes an element from all the elements it references with an opposite property
+	 * (e.g. an invocation from the outgoing invocations of its sender)
+	 */
+	public static void detach(PropertyDescription prop, Object elt) {
+		if (prop.isMultivalued()) {
+			Collection<Object> values = prop.readAll(elt);
+			if (! values.isEmpty()) {
+				prop.writeAll(elt, Collections.emptyList());
+			}
+		}
+		else if (prop.read(elt) != null) {
+			write(prop, elt, null);
+		}
+	}
+
+	/**
+	 * The FAMIX setter of a single valued property: <code>setXyz()</code> for property <code>xyz</code>
+	 * (not given by FAME)
+	 */
+	public static Method setter(PropertyDescription prop, Class<?> eltClass) {
+		String name = "set" + Character.toUpperCase(prop.getName().charAt(0)) + prop.getName().substring(1);
+		for (Method meth : eltClass.getMethods()) {
+			if ( meth.getName().equals(name) && (meth.getParameterTypes().length == 1) && (! meth.getParameterTypes()[0].isPrimitive()) ) {
+				return meth;
+			}
+		}
+		return null;
+	}
+
+}
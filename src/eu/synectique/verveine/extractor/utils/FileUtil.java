@@ -1,22 +1,21 @@
 package eu.synectique.verveine.extractor.utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.nio.file.Files;
-import java.util.LinkedList;
+import java.net.URI;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.cdt.core.model.ITranslationUnit;
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 
 import eu.synectique.verveine.extractor.plugin.Activator;
@@ -61,151 +60,142 @@ public class FileUtil {
 
 
 	/**
-	 * Copies all source files from src to the source directory of project
+	 * Copies all source files from src to the source directory of project (see {@link SourceImporter})
 	 * @param project -- Eclipse project where to copy the file(s)
 	 * @param src -- A directory of file to copy to the project
 	 * @param destDir -- name of directory inside Eclipse project where to copy
 	 * @param toLowerCase -- convert all file names to lower case (in windows, case is not important and might be inconsistent)
-	 * @param addHExtension -- when an include does not specify an extension (#include <string>) adds a .h to help include resolver
+	 * @param shard -- top-level directory of src extracted, other directories only need their headers (null to copy everything)
 	 */
-	public static void copySourceFilesInProject(IProject project, String destDir, File src, boolean toLowerCase, boolean addHExtension) {
+	public static void copySourceFilesInProject(IProject project, String destDir, File src, boolean toLowerCase, String shard) {
 		if (toLowerCase) {
 			destDir = destDir.toLowerCase();
 		}
 
-		if (src.isDirectory()) {
-			copySourceFilesRecursive(project, project.getFolder(destDir), src, toLowerCase, addHExtension);
-		}
-		else {
-			try {
-				if (Files.isSymbolicLink(src.toPath()) && Files.readSymbolicLink(src.toPath()).toFile().isDirectory()) {
-					copySourceFilesRecursive(project, project.getFolder(destDir), src, toLowerCase, addHExtension);
-				}
-				else {
-					copyFile(project, project.getFolder(destDir), src, toLowerCase, addHExtension);
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		new SourceImporter(toLowerCase, shard).importInto(project.getFolder(destDir), src);
 	}
 
-	private static void copySourceFilesRecursive(IProject project, IFolder destPath, File dir, boolean toLowerCase, boolean addHExtension) {
-		if (checkFileType(dir.getName()) == IGNORE_FILE) {
-			return;
+	/**
+	 * Links the source directory src in project instead of copying the files into it.<br>
+	 * With toLowerCase, the directory is seen through {@link SourceFileSystem} so that the names of the files and of the included files
+	 * are converted to lower case when they are read, as {@link #copySourceFilesInProject(IProject, String, File, boolean, String)} would do.
+	 * Otherwise the directory is linked as it is.
+	 * @param project -- Eclipse project where to link the directory
+	 * @param destDir -- name of the linked directory inside Eclipse project
+	 * @param src -- the source directory
+	 * @param toLowerCase -- convert all file names to lower case (in windows, case is not important and might be inconsistent)
+	 */
+	public static void linkSourceDirInProject(IProject project, String destDir, File src, boolean toLowerCase) {
+		IFolder folder;
+		URI target;
+
+		if (toLowerCase) {
+			folder = project.getFolder(destDir.toLowerCase());
+			target = SourceFileSystem.rootURI(src);
+		}
+		else {
+			folder = project.getFolder(destDir);
+			target = src.getAbsoluteFile().toURI();
 		}
 
-		for (File child : dir.listFiles()) {
-			String childName = null;
-			if (child.isDirectory()) {
-				if (toLowerCase) {
-					childName = child.getName().toLowerCase();
-				}
-				else {
-					childName = child.getName();
-				}
-				copySourceFilesRecursive(project, destPath.getFolder(childName), child, toLowerCase, addHExtension);
+		try {
+			if (folder.exists() && (! (folder.isLinked() && target.equals(folder.getLocationURI()))) ) {
+				// copied files or link to another directory from a previous run. Deleting a link does not delete the linked files
+				folder.delete(/*force*/true, Constants.NULL_PROGRESS_MONITOR);
+			}
+			if (folder.exists()) {
+				folder.refreshLocal(IResource.DEPTH_INFINITE, Constants.NULL_PROGRESS_MONITOR);
 			}
 			else {
-				copyFile(project, destPath, child, toLowerCase, addHExtension);
+				folder.createLink(target, IResource.NONE, Constants.NULL_PROGRESS_MONITOR);
 			}
+		} catch (CoreException e) {
+			Activator.log(IStatus.ERROR, "Error linking " + src.getPath() + " in project: " + e.getMessage());
+			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Copies one source file in an Eclipse project to dest.
-	 * If dest already exist, it is silently overridden
-	 * @param project -- project where to copy the file
-	 * @param orig -- file to copy in the project
-	 * @param toLowerCase -- convert all file names to lower case (in windows, case is not important and might be inconsistent)
-	 * @param dest -- path within the project where to put the file
+	 * Path of a file of the project in the file system.
+	 * Works also for files seen through {@link SourceFileSystem} that have no local location for Eclipse
 	 */
-	@SuppressWarnings("resource")
-	private static void copyFile(IProject project, IFolder destPath, File orig, boolean toLowerCase, boolean addHExtension) {
-		if (checkFileType(orig.getName()) != SOURCE_FILE) {
-			return;
+	public static String location(IFile file) {
+		IPath loc = file.getRawLocation();
+		if (loc != null) {
+			return loc.toString();
 		}
+		return file.getLocationURI().getPath();
+	}
 
-		if (! destPath.exists()) {
-			mkdirs(destPath);
+	/**
+	 * Removes from a project kept from a previous run, the files and directories that do not exist anymore in the source directory.
+	 * @param destPath -- directory of the project where the sources were copied
+	 * @param src -- the source directory
+	 * @param toLowerCase -- whether file names were converted to lower case when copying
+	 * @return number of files and directories removed
+	 */
+	public static int removeStaleFiles(IFolder destPath, File src, boolean toLowerCase) {
+		int removed = 0;
+
+		if ( (! destPath.exists()) || (! src.isDirectory()) ) {
+			return 0;
 		}
 
-		try {
-			String destName;
-			if (toLowerCase) {
-				destName = orig.getName().toLowerCase();
-			}
-			else {
-				destName = orig.getName();
-			}
-			InputStream source = new ByteArrayInputStream( Files.readAllBytes(orig.toPath()) );
-			IFile file = destPath.getFile(destName);
+		Set<String> srcNames = new HashSet<String>();
+		for (File child : src.listFiles()) {
+			srcNames.add(toLowerCase ? child.getName().toLowerCase() : child.getName());
+		}
 
-			if (toLowerCase) {
-				source = new IncludeToLowerInputStream(source);
+		try {
+			for (IResource member : destPath.members()) {
+				if (! srcNames.contains(member.getName())) {
+					member.delete(/*force*/true, Constants.NULL_PROGRESS_MONITOR);
+					removed++;
+				}
+				else if (member instanceof IFolder) {
+					removed += removeStaleFiles((IFolder)member, new File(src, originalName(src, member.getName(), toLowerCase)), toLowerCase);
+				}
 			}
-
-			file.create(source, /*force*/true, Constants.NULL_PROGRESS_MONITOR);
-
-
-			file.refreshLocal(IResource.DEPTH_ZERO, Constants.NULL_PROGRESS_MONITOR);
-
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		} catch (Exception e) {
+		} catch (CoreException e) {
 			e.printStackTrace();
 		}
+
+		return removed;
 	}
 
-	private static void mkdirs(IFolder destPath) {
-		IContainer parent = destPath.getParent(); 
-		if (! parent.exists()) {
-			if (parent instanceof IFolder) {
-				mkdirs((IFolder) parent);
-			}
-			else if (parent instanceof IProject) {
-				mkdirs( ((IProject)parent).getFolder(".") );
+	/**
+	 * Name of the file in <code>dir</code> that was copied as <code>name</code>
+	 */
+	private static String originalName(File dir, String name, boolean toLowerCase) {
+		if (toLowerCase) {
+			for (File child : dir.listFiles()) {
+				if (child.getName().toLowerCase().equals(name)) {
+					return child.getName();
+				}
 			}
 		}
-		try {
-			destPath.create(/*force*/true, /*local*/true, Constants.NULL_PROGRESS_MONITOR);
-		} catch (CoreException e) {
-			e.printStackTrace();
-		}
+		return name;
 	}
 
 	/**
-	 * Gathering paths to all sub-directories of <code>dir</code> that contain some header file
+	 * Gathering paths to all sub-directories of <code>dir</code> that contain some header file (see {@link IncludeDirScanner}, no cache)
 	 * @param main directory to look in
 	 * @return a List of Strings representing the paths
 	 */
 	public static List<String> gatherIncludeDirs(String name) {
-		File dir = new File(name);
-		if (dir.exists() && dir.isDirectory()) {
-			return gatherIncludeDirs(dir);
-		}
-		else {
-			return Constants.EMPTY_STRING_LIST;
-		}
+		return new IncludeDirScanner(/*cacheFile*/null).gatherIncludeDirs(name);
 	}
 
-	private static List<String> gatherIncludeDirs(File dir) {
-		boolean dirAdded = false;
-		List<String> ret = new LinkedList<String>();
-
-		for (File child : dir.listFiles()) {
-			if (child.isDirectory()) {
-				ret.addAll(gatherIncludeDirs(child));
-			}
-			else {  // it's a file
-				if ( (! dirAdded) && isHeader(child) ) {
-					ret.add(dir.getAbsolutePath());
-					dirAdded = true;
-				}
-			}
+	/**
+	 * Whether a file or directory of the user's sources goes into the Eclipse project
+	 */
+	public static boolean isProjectFile(String filename, boolean isDirectory) {
+		if (isDirectory) {
+			return checkFileType(filename) != IGNORE_FILE;
+		}
+		else {
+			return checkFileType(filename) == SOURCE_FILE;
 		}
-
-		return ret;
 	}
 
 	/**
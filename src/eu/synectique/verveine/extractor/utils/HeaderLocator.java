@@ -0,0 +1,267 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Selects, among all the directories found by <code>-autoinclude</code>, the ones that are actually needed to resolve the includes of the project.<br>
+ * With thousands of include paths, the indexer tries each of them in turn for each #include. Instead, the locator:
+ * <ul>
+ * <li>indexes the header files found by the {@link IncludeDirScanner} by name (to the directories containing them)</li>
+ * <li>collects the names of all included files in all the files of the scanned directories</li>
+ * <li>for each included name (e.g. "<code>foo/bar.h</code>"), finds the first directory where the indexer would find it
+ * (a directory containing <code>bar.h</code> and ending with <code>/foo</code>, minus this suffix)</li>
+ * </ul>
+ * Only these directories are kept, in their original order, so that each include is resolved to the same file as with all the directories.
+ * Includes not found in any directory (e.g. system headers) do not need any directory.
+ * <p>
+ * Includes with a macro instead of a file name (<code>#include MY_HEADER</code>) cannot be located.
+ */
+public class HeaderLocator {
+
+	/**
+	 * All the candidate directories, in order
+	 */
+	protected List<String> includeDirs;
+
+	/**
+	 * Position of each directory in {@link #includeDirs}
+	 */
+	protected Map<String,Integer> dirIndex;
+
+	/**
+	 * Positions of the directories containing a header, by name of the header
+	 */
+	protected Map<String,List<Integer>> dirsByHeader;
+
+	/**
+	 * Names of the included files found
+	 */
+	protected Set<String> includedNames;
+
+	/*
+	 * statistics
+	 */
+	private long probesAllDirs;
+	private long probesNeededDirs;
+	private int nbUnresolved;
+	private int nbNeeded;
+
+	public HeaderLocator(List<String> includeDirs, IncludeDirScanner scanner) {
+		this.includeDirs = includeDirs;
+		this.dirIndex = new HashMap<String,Integer>();
+		this.dirsByHeader = new HashMap<String,List<Integer>>();
+		this.includedNames = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+		for (int i = 0; i < includeDirs.size(); i++) {
+			String dir = includeDirs.get(i);
+			dirIndex.put(dir, i);
+			for (String name : scanner.getFiles(dir)) {
+				if (FileUtil.isHeader(name)) {
+					List<Integer> dirs = dirsByHeader.get(name);
+					if (dirs == null) {
+						dirs = new ArrayList<Integer>(1);
+						dirsByHeader.put(name, dirs);
+					}
+					dirs.add(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all the files of the directories scanned, in parallel, to collect the names of the included files
+	 */
+	public void collectIncludes(IncludeDirScanner scanner) {
+		List<CollectTask> tasks = new ArrayList<CollectTask>();
+		for (String dir : scanner.getScannedDirs()) {
+			String[] files = scanner.getFiles(dir);
+			if (files.length > 0) {
+				tasks.add(new CollectTask(dir, files));
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		pool.invoke(new CollectAllTask(tasks));
+		pool.shutdown();
+	}
+
+	protected static class CollectAllTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected List<CollectTask> tasks;
+
+		protected CollectAllTask(List<CollectTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Collects the included files of the files of one directory
+	 */
+	protected class CollectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected String dir;
+		protected String[] files;
+
+		protected CollectTask(String dir, String[] files) {
+			this.dir = dir;
+			this.files = files;
+		}
+
+		@Override
+		protected void compute() {
+			byte[] buffer = new byte[8192];
+			for (String file : files) {
+				try (InputStream in = new IncludeCollector(new FileInputStream(new File(dir, file)), includedNames)) {
+					while (in.read(buffer) > 0) {
+						// just reading, names are collected by the stream
+					}
+				} catch (IOException e) {
+					Activator.log(IStatus.WARNING, "Could not read " + dir + File.separator + file + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * A filter stream that only collects the included file names
+	 */
+	protected static class IncludeCollector extends AbstractIncludeFilterStream {
+		private StringBuilder name;
+		private Set<String> names;
+
+		protected IncludeCollector(InputStream in, Set<String> names) {
+			super(in);
+			this.name = new StringBuilder();
+			this.names = names;
+		}
+
+		@Override
+		protected void nameStart(int delimiter) {
+			name.setLength(0);
+		}
+
+		@Override
+		protected int convertChar(int c) {
+			name.append((char) c);
+			return c;
+		}
+
+		@Override
+		protected byte[] nameSuffix(boolean hasExtension) {
+			names.add(name.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Position of the first directory where the indexer would find <code>includeName</code>, or -1 if there is none
+	 */
+	public int locate(String includeName) {
+		String name = includeName.replace('\\', '/');
+		int i = name.lastIndexOf('/');
+		String base = name.substring(i+1);
+		List<Integer> candidates = dirsByHeader.get(base);
+		int found = -1;
+
+		if (candidates == null) {
+			return -1;
+		}
+		if (i < 0) {
+			return candidates.get(0);     // candidates are in increasing order
+		}
+
+		String suffix = File.separator + name.substring(0, i).replace('/', File.separatorChar);
+		for (int candidate : candidates) {
+			String dir = includeDirs.get(candidate);
+			if (dir.endsWith(suffix)) {
+				Integer parent = dirIndex.get(dir.substring(0, dir.length() - suffix.length()));
+				if ( (parent != null) && ( (found < 0) || (parent < found) ) ) {
+					found = parent;
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * The directories needed to resolve the included files collected, in their original order
+	 */
+	public List<String> neededDirs() {
+		boolean[] needed = new boolean[includeDirs.size()];
+		List<Integer> located = new ArrayList<Integer>(includedNames.size());
+		List<String> ret = new ArrayList<String>();
+
+		for (String name : includedNames) {
+			int i = locate(name);
+			located.add(i);
+			if (i >= 0) {
+				needed[i] = true;
+			}
+		}
+
+		// rank of each needed directory in the result
+		int[] rank = new int[includeDirs.size()];
+		for (int i = 0; i < includeDirs.size(); i++) {
+			if (needed[i]) {
+				rank[i] = ret.size();
+				ret.add(includeDirs.get(i));
+			}
+		}
+		nbNeeded = ret.size();
+
+		// number of directories tried by the indexer for each included file, with all directories and with the needed ones
+		probesAllDirs = 0;
+		probesNeededDirs = 0;
+		nbUnresolved = 0;
+		for (int i : located) {
+			if (i < 0) {
+				probesAllDirs += includeDirs.size();
+				probesNeededDirs += nbNeeded;
+				nbUnresolved++;
+			}
+			else {
+				probesAllDirs += i + 1;
+				probesNeededDirs += rank[i] + 1;
+			}
+		}
+
+		return ret;
+	}
+
+	// STATISTICS
+
+	public long getProbesSaved() {
+		return probesAllDirs - probesNeededDirs;
+	}
+
+	public void report() {
+		Activator.log(IStatus.INFO, "Header locator: " + nbNeeded + " include directories needed out of " + includeDirs.size() + " for " + includedNames.size()
+				+ " included files (" + nbUnresolved + " not found), " + getProbesSaved() + " directory probes saved (" + probesNeededDirs + " instead of "
+				+ probesAllDirs + ", once per included file)");
+	}
+
+}
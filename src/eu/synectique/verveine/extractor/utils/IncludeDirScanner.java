@@ -0,0 +1,336 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Looks for all the directories containing header files, for the <code>-autoinclude</code> option.<br>
+ * Directories are scanned in parallel and the result of the scan (for each directory: its modification time, whether it contains
+ * some header files, its sub-directories and its C/C++ files) may be saved in a cache file and reused by the next runs.
+ * The files are used by the {@link HeaderLocator}.
+ * A directory is listed again only if its modification time changed, that is to say if files were added, removed or renamed in it
+ * (modifying the content of a file does not change anything here).
+ * <p>
+ * Cache file format, a version line then one block per directory:
+ * <pre>
+ * V &lt;version&gt;
+ * D &lt;mtime&gt; &lt;0|1 has headers&gt; &lt;path&gt;
+ * S &lt;name of a sub-directory&gt;
+ * F &lt;name of a C/C++ file&gt;
+ * ...
+ * </pre>
+ * (fields separated by tabs)
+ */
+public class IncludeDirScanner {
+
+	/**
+	 * Version of the cache file format, cache files of other versions are ignored
+	 */
+	public static final String CACHE_VERSION = "2";
+
+	/**
+	 * What we know of a directory
+	 */
+	protected static class DirEntry {
+		protected final long mtime;
+		protected final boolean hasHeaders;
+		protected final String[] subDirs;
+		protected final String[] files;
+
+		protected DirEntry(long mtime, boolean hasHeaders, String[] subDirs, String[] files) {
+			this.mtime = mtime;
+			this.hasHeaders = hasHeaders;
+			this.subDirs = subDirs;
+			this.files = files;
+		}
+	}
+
+	/**
+	 * Where the result of the scans is saved, may be null
+	 */
+	protected File cacheFile;
+
+	/**
+	 * Result of the previous scans (read from the cache file)
+	 */
+	protected ConcurrentMap<String,DirEntry> previous;
+
+	/**
+	 * Result of the current scan
+	 */
+	protected ConcurrentMap<String,DirEntry> current;
+
+	/**
+	 * Root directories scanned now
+	 */
+	protected List<String> roots;
+
+	private AtomicLong nbListed;
+	private AtomicLong nbReused;
+
+	/**
+	 * @param cacheFile -- file where to read and save the result of the scans, or null for no cache
+	 */
+	public IncludeDirScanner(File cacheFile) {
+		this.cacheFile = cacheFile;
+		this.previous = new ConcurrentHashMap<String,DirEntry>();
+		this.current = new ConcurrentHashMap<String,DirEntry>();
+		this.roots = new ArrayList<String>();
+		this.nbListed = new AtomicLong(0);
+		this.nbReused = new AtomicLong(0);
+		if ( (cacheFile != null) && cacheFile.exists() ) {
+			load();
+		}
+	}
+
+	/**
+	 * Gathering paths to all sub-directories of <code>name</code> (included) that contain some header file
+	 * @param name -- main directory to look in
+	 * @return a List of Strings representing the paths
+	 */
+	public List<String> gatherIncludeDirs(String name) {
+		File dir = new File(name).getAbsoluteFile();
+		List<String> ret = new ArrayList<String>();
+
+		if (dir.isDirectory()) {
+			long start = System.currentTimeMillis();
+			roots.add(dir.getPath());
+			ForkJoinPool pool = new ForkJoinPool();
+			pool.invoke(new ScanTask(dir));
+			pool.shutdown();
+
+			collect(dir.getPath(), ret);
+
+			Activator.log(IStatus.INFO, "Include directories: " + ret.size() + " found in " + current.size() + " directories (" + getNbListed() + " listed, "
+					+ getNbReused() + " unchanged since last run) in " + String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Scans one directory (or reuses the previous scan) and its sub-directories in parallel
+	 */
+	protected class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected File dir;
+
+		protected ScanTask(File dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			String path = dir.getPath();
+			long mtime = dir.lastModified();
+			DirEntry entry = previous.get(path);
+
+			if ( (entry != null) && (entry.mtime == mtime) ) {
+				nbReused.incrementAndGet();
+			}
+			else {
+				entry = list(dir, mtime);
+				nbListed.incrementAndGet();
+			}
+			current.put(path, entry);
+
+			List<ScanTask> subTasks = new ArrayList<ScanTask>(entry.subDirs.length);
+			for (String sub : entry.subDirs) {
+				subTasks.add(new ScanTask(new File(dir, sub)));
+			}
+			invokeAll(subTasks);
+		}
+	}
+
+	protected DirEntry list(File dir, long mtime) {
+		List<String> subDirs = new ArrayList<String>();
+		List<String> files = new ArrayList<String>();
+		boolean hasHeaders = false;
+		File[] children = dir.listFiles();
+
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					subDirs.add(child.getName());
+				}
+				else {
+					boolean isHeader = FileUtil.isHeader(child);
+					hasHeaders = hasHeaders || isHeader;
+					if ( isHeader || FileUtil.isProjectFile(child.getName(), /*isDirectory*/false) ) {
+						files.add(child.getName());
+					}
+				}
+			}
+		}
+
+		return new DirEntry(mtime, hasHeaders, sorted(subDirs), sorted(files));
+	}
+
+	private String[] sorted(List<String> names) {
+		String[] sorted = names.toArray(new String[names.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Depth first collection of the directories with headers, from the result of the scan
+	 */
+	protected void collect(String path, List<String> ret) {
+		DirEntry entry = current.get(path);
+		if (entry == null) {
+			return;
+		}
+		if (entry.hasHeaders) {
+			ret.add(path);
+		}
+		for (String sub : entry.subDirs) {
+			collect(path + File.separator + sub, ret);
+		}
+	}
+
+	// PERSISTENCE
+
+	protected void load() {
+		try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+			String line;
+			String path = null;
+			long mtime = 0;
+			boolean hasHeaders = false;
+			List<String> subDirs = new ArrayList<String>();
+			List<String> files = new ArrayList<String>();
+
+			line = reader.readLine();
+			if ( (line == null) || (! line.equals("V\t" + CACHE_VERSION)) ) {
+				return;
+			}
+			while ( (line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 4);
+				if ( fields[0].equals("D") && (fields.length == 4) ) {
+					if (path != null) {
+						previous.put(path, new DirEntry(mtime, hasHeaders, subDirs.toArray(new String[subDirs.size()]), files.toArray(new String[files.size()])));
+					}
+					mtime = Long.parseLong(fields[1]);
+					hasHeaders = fields[2].equals("1");
+					path = fields[3];
+					subDirs.clear();
+					files.clear();
+				}
+				else if ( fields[0].equals("S") && (fields.length == 2) ) {
+					subDirs.add(fields[1]);
+				}
+				else if ( fields[0].equals("F") && (fields.length == 2) ) {
+					files.add(fields[1]);
+				}
+			}
+			if (path != null) {
+				previous.put(path, new DirEntry(mtime, hasHeaders, subDirs.toArray(new String[subDirs.size()]), files.toArray(new String[files.size()])));
+			}
+		} catch (IOException | NumberFormatException e) {
+			Activator.log(IStatus.WARNING, "Could not read include directories cache " + cacheFile.getPath() + ", scanning everything");
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Saves the result of the scans in the cache file (written in a temporary file first, then renamed).
+	 * Directories of the previous scans that are not under the roots scanned now are kept (other roots)
+	 */
+	public void save() {
+		if (cacheFile == null) {
+			return;
+		}
+
+		File tmp = new File(cacheFile.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+			writer.write("V\t" + CACHE_VERSION);
+			writer.newLine();
+			for (String path : previous.keySet()) {
+				if (! isScanned(path)) {
+					write(writer, path, previous.get(path));
+				}
+			}
+			for (String path : current.keySet()) {
+				write(writer, path, current.get(path));
+			}
+		} catch (IOException e) {
+			Activator.log(IStatus.WARNING, "Could not save include directories cache " + cacheFile.getPath() + ": " + e.getMessage());
+			return;
+		}
+
+		cacheFile.delete();
+		if (! tmp.renameTo(cacheFile)) {
+			Activator.log(IStatus.WARNING, "Could not save include directories cache " + cacheFile.getPath());
+		}
+	}
+
+	/**
+	 * Whether path is one of the roots scanned now, or under one of them
+	 */
+	protected boolean isScanned(String path) {
+		for (String root : roots) {
+			if ( path.equals(root) || path.startsWith(root + File.separator) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void write(BufferedWriter writer, String path, DirEntry entry) throws IOException {
+		writer.write("D\t" + entry.mtime + "\t" + (entry.hasHeaders ? "1" : "0") + "\t" + path);
+		writer.newLine();
+		for (String sub : entry.subDirs) {
+			writer.write("S\t" + sub);
+			writer.newLine();
+		}
+		for (String file : entry.files) {
+			writer.write("F\t" + file);
+			writer.newLine();
+		}
+	}
+
+	// RESULTS
+
+	/**
+	 * All the directories scanned, in no particular order
+	 */
+	public Collection<String> getScannedDirs() {
+		return current.keySet();
+	}
+
+	/**
+	 * Names of the C/C++ files (sources and headers) in a scanned directory
+	 */
+	public String[] getFiles(String dir) {
+		DirEntry entry = current.get(dir);
+		return (entry == null) ? new String[0] : entry.files;
+	}
+
+	// STATISTICS
+
+	public long getNbListed() {
+		return nbListed.get();
+	}
+
+	public long getNbReused() {
+		return nbReused.get();
+	}
+
+}
@@ -4,13 +4,15 @@ import java.io.InputStream;
 
 public class IncludeWithHExtensionFilterStream extends AbstractIncludeFilterStream {
 
+	private static final byte[] H_EXTENSION = { '.', 'h' };
+
 	public IncludeWithHExtensionFilterStream(InputStream in) {
 		super(in);
 	}
 
 	@Override
-	protected int convertChar(int c) {
-		return 0;
+	protected byte[] nameSuffix(boolean hasExtension) {
+		return hasExtension ? null : H_EXTENSION;
 	}
 
 }
@@ -0,0 +1,235 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+
+import ch.akuhn.fame.MetaRepository;
+import ch.akuhn.fame.fm3.MetaDescription;
+import ch.akuhn.fame.fm3.PropertyDescription;
+import ch.akuhn.fame.internal.MSEPrinter;
+import ch.akuhn.fame.parser.ParseClient;
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Writes a model in MSE format while it is being created, instead of exporting the complete repository at the end.<br>
+ * Elements that will not change anymore (see {@link eu.synectique.verveine.extractor.plugin.CDictionary#translationUnitDone()})
+ * are written with {@link #stream(Collection)} and then {@link #release(Collection)} removes them from the entities they reference,
+ * so that nothing keeps them in memory. The entities, which may still be referenced by elements created later, are written at the end
+ * with {@link #close(Collection)}.
+ * <p>
+ * Each element gets its serial number the first time it is written or referenced, so elements written first may reference elements
+ * written later (a forward reference, allowed by MSE). When closing, the elements referenced but never written
+ * (e.g. entities that were not added to the repository) are written in a last fix-up section, so that all references resolve.
+ * <p>
+ * The format is the same as {@link ch.akuhn.fame.Repository#exportMSE(Appendable)}, or the binary format of {@link BinaryModelWriter}
+ * if it is given as printer.
+ */
+public class MSEStreamWriter {
+
+	protected MetaRepository metamodel;
+
+	protected Closeable out;
+
+	protected ParseClient printer;
+
+	/**
+	 * Serial number of the elements written or referenced (only while they may still be referenced)
+	 */
+	protected Map<Object,Integer> serials;
+
+	/**
+	 * Elements referenced but not yet written
+	 */
+	protected Map<Object,Boolean> referenced;
+
+	/**
+	 * Properties written for each class of element, sorted by name
+	 */
+	protected Map<Class<?>,List<PropertyDescription>> written;
+
+	/**
+	 * Properties with an opposite, for each class of element (see {@link #release(Collection)})
+	 */
+	protected Map<Class<?>,List<PropertyDescription>> withOpposite;
+
+	private int nextSerial;
+
+	/*
+	 * statistics
+	 */
+	private long nbStreamed;
+	private long nbFinal;
+	private long nbFixups;
+
+	public MSEStreamWriter(MetaRepository metamodel, Writer out) {
+		this(metamodel, new MSEPrinter(out), out);
+	}
+
+	/**
+	 * @param printer receives the elements as FAME parse events
+	 * @param out closed after the end of the document
+	 */
+	public MSEStreamWriter(MetaRepository metamodel, ParseClient printer, Closeable out) {
+		this.metamodel = metamodel;
+		this.out = out;
+		this.printer = printer;
+		this.serials = new IdentityHashMap<Object,Integer>();
+		this.referenced = new IdentityHashMap<Object,Boolean>();
+		this.written = new HashMap<Class<?>,List<PropertyDescription>>();
+		this.withOpposite = new HashMap<Class<?>,List<PropertyDescription>>();
+		this.nextSerial = 1;
+		this.nbStreamed = 0;
+		this.nbFinal = 0;
+		this.nbFixups = 0;
+
+		printer.beginDocument();
+	}
+
+	/**
+	 * Writes elements that will not be referenced by elements created later
+	 */
+	public synchronized void stream(Collection<?> elements) {
+		for (Object elt : elements) {
+			write(elt);
+		}
+		for (Object elt : elements) {
+			serials.remove(elt);
+		}
+		nbStreamed += elements.size();
+	}
+
+	/**
+	 * Removes streamed elements from the elements they reference (e.g. an invocation from the outgoing invocations of its sender).
+	 * The caller must hold the lock protecting the relationships between entities
+	 */
+	public void release(Collection<?> elements) {
+		for (Object elt : elements) {
+			for (PropertyDescription prop : propertiesWithOpposite(elt)) {
+				FameUtil.detach(prop, elt);
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining elements, then the elements referenced but not written, and ends the document
+	 */
+	public synchronized void close(Collection<?> remaining) throws IOException {
+		for (Object elt : remaining) {
+			write(elt);
+		}
+		nbFinal = remaining.size();
+
+		// fix-up section
+		while (! referenced.isEmpty()) {
+			for (Object elt : new ArrayList<Object>(referenced.keySet())) {
+				write(elt);
+				nbFixups++;
+			}
+		}
+
+		printer.endDocument();
+		out.close();
+		serials.clear();
+	}
+
+	protected void write(Object elt) {
+		MetaDescription desc = metamodel.getDescription(elt.getClass());
+
+		printer.beginElement(desc.getFullname());
+		printer.serial(serial(elt));
+		referenced.remove(elt);
+		for (PropertyDescription prop : writtenProperties(elt, desc)) {
+			Collection<Object> values = prop.readAll(elt);
+			if (values.isEmpty()) {
+				continue;
+			}
+			if ( (prop.getType() == MetaDescription.BOOLEAN) && (! prop.isMultivalued()) && Boolean.FALSE.equals(values.iterator().next()) ) {
+				continue;
+			}
+
+			printer.beginAttribute(prop.getName());
+			for (Object value : values) {
+				if (value instanceof MetaDescription) {
+					printer.reference(((MetaDescription) value).getName());
+				}
+				else if ( (value instanceof String) || (value instanceof Boolean) || (value instanceof Number) ) {
+					printer.primitive(value);
+				}
+				else {
+					printer.reference(serial(value));
+				}
+			}
+			printer.endAttribute(prop.getName());
+		}
+		printer.endElement(desc.getFullname());
+	}
+
+	/**
+	 * Serial number of an element, a new one if it was never written nor referenced
+	 */
+	protected int serial(Object elt) {
+		Integer serial = serials.get(elt);
+		if (serial == null) {
+			serial = nextSerial++;
+			serials.put(elt, serial);
+			referenced.put(elt, Boolean.TRUE);
+		}
+		return serial;
+	}
+
+	/**
+	 * Not derived, not container properties, in the order of FAME export
+	 */
+	protected List<PropertyDescription> writtenProperties(Object elt, MetaDescription desc) {
+		List<PropertyDescription> props = written.get(elt.getClass());
+		if (props == null) {
+			props = new ArrayList<PropertyDescription>();
+			for (PropertyDescription prop : desc.allAttributes()) {
+				if ( (! prop.isDerived()) && (! prop.isContainer()) ) {
+					props.add(prop);
+				}
+			}
+			Collections.sort(props, new Comparator<PropertyDescription>() {
+				@Override
+				public int compare(PropertyDescription p1, PropertyDescription p2) {
+					return p1.getName().compareTo(p2.getName());
+				}
+			});
+			written.put(elt.getClass(), props);
+		}
+		return props;
+	}
+
+	protected synchronized List<PropertyDescription> propertiesWithOpposite(Object elt) {
+		List<PropertyDescription> props = withOpposite.get(elt.getClass());
+		if (props == null) {
+			props = new ArrayList<PropertyDescription>();
+			for (PropertyDescription prop : metamodel.getDescription(elt.getClass()).allAttributes()) {
+				if ( (! prop.isDerived()) && (! prop.isPrimitive()) && prop.hasOpposite() ) {
+					props.add(prop);
+				}
+			}
+			withOpposite.put(elt.getClass(), props);
+		}
+		return props;
+	}
+
+	// STATISTICS
+
+	public void report() {
+		Activator.log(IStatus.INFO, "Streamed MSE: " + nbStreamed + " elements written while extracting, " + nbFinal + " at the end, " + nbFixups
+				+ " in the fix-up section");
+	}
+
+}
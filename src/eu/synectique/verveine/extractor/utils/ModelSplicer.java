@@ -0,0 +1,584 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IStatus;
+
+import ch.akuhn.fame.Repository;
+import ch.akuhn.fame.fm3.PropertyDescription;
+import eu.synectique.verveine.core.gen.famix.AbstractFileAnchor;
+import eu.synectique.verveine.core.gen.famix.Association;
+import eu.synectique.verveine.core.gen.famix.BehaviouralEntity;
+import eu.synectique.verveine.core.gen.famix.CFile;
+import eu.synectique.verveine.core.gen.famix.Comment;
+import eu.synectique.verveine.core.gen.famix.Include;
+import eu.synectique.verveine.core.gen.famix.MultipleFileAnchor;
+import eu.synectique.verveine.core.gen.famix.NamedEntity;
+import eu.synectique.verveine.core.gen.famix.SourceAnchor;
+import eu.synectique.verveine.core.gen.famix.SourceLanguage;
+import eu.synectique.verveine.core.gen.famix.SourcedEntity;
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Splices a partial model, extracted from some files only (the "dirty" files), into the complete model of a previous run.<br>
+ * What each file contributed to the previous model is known from the source anchors: an element belongs to the files of its anchor, or,
+ * when it has none, to the files of its owner (the source of an include, the container of a comment, the <code>from</code> of an association,
+ * the <code>belongsTo</code> of a named entity). CFiles belong to themselves.
+ * <ul>
+ * <li>elements of the previous model in clean files are kept;</li>
+ * <li>elements of the previous model in dirty files are removed, except named entities found again in the partial model, which are replaced by their new version,
+ * and named entities still referenced by kept elements, which are kept as stubs;</li>
+ * <li>named entities of the partial model that already are in the previous model (in clean files) are merged into them,
+ * other elements of the partial model are added (except the ones in clean files, already in the previous model).</li>
+ * </ul>
+ * Named entities are matched by kind and fully qualified name (and signature for behavioural entities).
+ * All the references to replaced entities are redirected to their replacement, through the FAME meta-descriptions of the elements.
+ * Entities anchored in several files (see {@link MultipleFileAnchor}) keep the parts of their anchor in clean files.
+ * <p>
+ * {@link #merge()} is the same for models extracted from disjoint sets of files (see option -shard): nothing is dirty,
+ * all the elements of both models are kept, except that named entities found in both are unified (a stub being replaced by a definition).
+ * <p>
+ * The two models given are modified, the result is a new repository.
+ */
+public class ModelSplicer {
+
+	/**
+	 * Complete model of the previous run
+	 */
+	protected Repository previous;
+
+	/**
+	 * Model extracted from the dirty files only
+	 */
+	protected Repository partial;
+
+	/**
+	 * Names of the dirty files (as in the model)
+	 */
+	protected Set<String> dirtyFiles;
+
+	/**
+	 * Replacement of the elements that are merged into another one
+	 */
+	protected Map<Object,Object> replacement;
+
+	/**
+	 * Elements of the resulting model, in order (and as a set for lookups)
+	 */
+	protected List<Object> kept;
+	protected Map<Object,Boolean> isKept;
+
+	/**
+	 * Entities of the previous model in dirty files, not found in the partial model: will be kept as stubs if something still references them
+	 */
+	protected Map<Object,Boolean> stubCandidates;
+
+	/**
+	 * Reference properties (not primitive, not derived) of each class of element
+	 */
+	protected Map<Class<?>,List<PropertyDescription>> referenceProperties;
+
+	private Map<NamedEntity,String> keys;
+
+	/**
+	 * Whether this is a {@link #merge()}
+	 */
+	private boolean merging;
+
+	/*
+	 * statistics
+	 */
+	private int nbReplaced;
+	private int nbMerged;
+	private int nbAdded;
+	private int nbRemoved;
+	private int nbStubs;
+
+	public ModelSplicer(Repository previous, Repository partial, Set<String> dirtyFiles) {
+		this.previous = previous;
+		this.partial = partial;
+		this.dirtyFiles = dirtyFiles;
+		this.replacement = new IdentityHashMap<Object,Object>();
+		this.kept = new ArrayList<Object>();
+		this.isKept = new IdentityHashMap<Object,Boolean>();
+		this.stubCandidates = new IdentityHashMap<Object,Boolean>();
+		this.referenceProperties = new HashMap<Class<?>,List<PropertyDescription>>();
+		this.keys = new IdentityHashMap<NamedEntity,String>();
+		this.merging = false;
+	}
+
+	/**
+	 * To {@link #merge()} two models extracted from different files
+	 */
+	public ModelSplicer(Repository previous, Repository partial) {
+		this(previous, partial, Collections.<String>emptySet());
+	}
+
+	/**
+	 * Computes the resulting model
+	 */
+	public Repository splice() {
+		List<Object> previousElements = elements(previous);
+		List<Object> partialElements = elements(partial);
+		Map<String,LinkedList<NamedEntity>> partialByKey = byKey(partialElements);
+
+		for (Object elt : previousElements) {
+			if (elt instanceof SourceAnchor) {
+				continue;    // kept with their element, see below
+			}
+			if (elt instanceof NamedEntity) {
+				LinkedList<NamedEntity> homonyms = partialByKey.get(key((NamedEntity) elt));
+				NamedEntity found = ( (homonyms == null) || homonyms.isEmpty() ) ? null : homonyms.removeFirst();
+				splicePrevious((NamedEntity) elt, found);
+			}
+			else if (! isDirty(elt)) {
+				keep(elt);
+			}
+		}
+
+		for (Object elt : partialElements) {
+			if ( (elt instanceof SourceAnchor) || replacement.containsKey(elt) ) {
+				continue;
+			}
+			if ( (elt instanceof NamedEntity) && (! isKept.containsKey(elt)) ) {
+				keep(elt);
+				nbAdded++;
+			}
+			else if (isDirty(elt)) {
+				keep(elt);
+			}
+		}
+
+		keepReferencedStubs();
+
+		return result(previousElements, partialElements);
+	}
+
+	/**
+	 * Computes the union of the two models, see class comment
+	 */
+	public Repository merge() {
+		List<Object> previousElements = elements(previous);
+		List<Object> partialElements = elements(partial);
+		Map<String,LinkedList<NamedEntity>> partialByKey = byKey(partialElements);
+		Map<Class<?>,Object> languages = new HashMap<Class<?>,Object>();
+
+		merging = true;
+		for (Object elt : previousElements) {
+			if (elt instanceof SourceAnchor) {
+				continue;
+			}
+			if (elt instanceof SourceLanguage) {
+				languages.put(elt.getClass(), elt);
+			}
+			if (elt instanceof NamedEntity) {
+				LinkedList<NamedEntity> homonyms = partialByKey.get(key((NamedEntity) elt));
+				NamedEntity found = ( (homonyms == null) || homonyms.isEmpty() ) ? null : homonyms.removeFirst();
+				mergePrevious((NamedEntity) elt, found);
+			}
+			else {
+				keep(elt);
+			}
+		}
+
+		for (Object elt : partialElements) {
+			if ( (elt instanceof SourceAnchor) || replacement.containsKey(elt) ) {
+				continue;
+			}
+			if (languages.containsKey(elt.getClass())) {
+				// one source language per model
+				replace(elt, languages.get(elt.getClass()));
+			}
+			else {
+				if ( (elt instanceof NamedEntity) && (! isKept.containsKey(elt)) ) {
+					nbAdded++;
+				}
+				keep(elt);
+			}
+		}
+
+		return result(previousElements, partialElements);
+	}
+
+	/**
+	 * Decides what to do of a named entity of the previous model when merging
+	 * @param found -- entity with the same key in the partial model, may be null
+	 */
+	protected void mergePrevious(NamedEntity prev, NamedEntity found) {
+		if (found == null) {
+			keep(prev);
+		}
+		else if ( isStub(prev) && (! isStub(found)) ) {
+			// defined in the other model
+			replace(prev, found);
+			nbReplaced++;
+		}
+		else {
+			replace(found, prev);
+			moveAnchorParts(found, prev, /*dirty*/false);
+			nbMerged++;
+		}
+	}
+
+	/**
+	 * Copy of the elements of a model (<code>Repository.getElements()</code> is not generic)
+	 */
+	protected List<Object> elements(Repository model) {
+		List<Object> elements = new ArrayList<Object>();
+		for (Object elt : model.getElements()) {
+			elements.add(elt);
+		}
+		return elements;
+	}
+
+	/**
+	 * Named entities of a model, by key
+	 */
+	protected Map<String,LinkedList<NamedEntity>> byKey(List<Object> elements) {
+		Map<String,LinkedList<NamedEntity>> byKey = new HashMap<String,LinkedList<NamedEntity>>();
+		for (Object elt : elements) {
+			if (elt instanceof NamedEntity) {
+				String key = key((NamedEntity) elt);
+				LinkedList<NamedEntity> homonyms = byKey.get(key);
+				if (homonyms == null) {
+					homonyms = new LinkedList<NamedEntity>();
+					byKey.put(key, homonyms);
+				}
+				homonyms.add((NamedEntity) elt);
+			}
+		}
+		return byKey;
+	}
+
+	/**
+	 * The repository of the elements kept (with their anchors), after redirecting all references
+	 */
+	protected Repository result(List<Object> previousElements, List<Object> partialElements) {
+		// anchors of the elements kept
+		for (Object elt : new ArrayList<Object>(kept)) {
+			if (elt instanceof SourcedEntity) {
+				SourceAnchor anchor = ((SourcedEntity) elt).getSourceAnchor();
+				if (anchor != null) {
+					keep(anchor);
+					if (anchor instanceof MultipleFileAnchor) {
+						for (AbstractFileAnchor part : ((MultipleFileAnchor) anchor).getAllFiles()) {
+							keep(part);
+						}
+					}
+				}
+			}
+		}
+
+		detachRemoved(previousElements);
+		detachRemoved(partialElements);
+		for (Object elt : kept) {
+			redirectReferences(elt);
+		}
+
+		Repository result = new Repository(previous.getMetamodel());
+		for (Object elt : kept) {
+			result.add(elt);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Decides what to do of a named entity of the previous model
+	 * @param found -- entity with the same key in the partial model, may be null
+	 */
+	protected void splicePrevious(NamedEntity prev, NamedEntity found) {
+		if (! isDirty(prev)) {
+			if (found == null) {
+				keep(prev);
+			}
+			else if ( isStub(prev) && (! isStub(found)) ) {
+				// now defined in a dirty file
+				replace(prev, found);
+				nbReplaced++;
+			}
+			else {
+				replace(found, prev);
+				moveAnchorParts(found, prev, /*dirty*/true);
+				nbMerged++;
+			}
+			return;
+		}
+
+		List<AbstractFileAnchor> cleanParts = anchorParts(prev, /*dirty*/false);
+		if ( (found != null) && ( (! isStub(found)) || cleanParts.isEmpty() ) ) {
+			replace(prev, found);
+			moveAnchorParts(prev, found, /*dirty*/false);
+			nbReplaced++;
+		}
+		else if (! cleanParts.isEmpty()) {
+			// still declared in some clean file
+			((MultipleFileAnchor) prev.getSourceAnchor()).setAllFiles(cleanParts);
+			keep(prev);
+			if (found != null) {
+				replace(found, prev);
+			}
+		}
+		else {
+			stubCandidates.put(prev, Boolean.TRUE);
+			nbRemoved++;
+		}
+	}
+
+	/**
+	 * Stub candidates referenced by some element kept are kept too, without source anchor.
+	 * This is transitive: a stub kept may reference another candidate (e.g. its parent type)
+	 */
+	protected void keepReferencedStubs() {
+		List<Object> todo = new ArrayList<Object>(kept);
+
+		while (! todo.isEmpty()) {
+			Object elt = todo.remove(todo.size() - 1);
+			for (PropertyDescription prop : referenceProperties(elt)) {
+				if ( prop.isMultivalued() && prop.hasOpposite() && (! prop.getOpposite().isMultivalued()) ) {
+					continue;    // e.g. the methods of a class: the method references the class, not the opposite
+				}
+				for (Object value : values(prop, elt)) {
+					if ( stubCandidates.containsKey(value) && (! isKept.containsKey(value)) ) {
+						NamedEntity stub = (NamedEntity) value;
+						stub.setSourceAnchor(null);
+						stub.setIsStub(true);
+						keep(stub);
+						todo.add(stub);
+						nbStubs++;
+						nbRemoved--;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removed elements referencing kept ones are removed from the opposite side of these references
+	 * (e.g. an invocation removed must not stay in the outgoing invocations of its sender)
+	 */
+	protected void detachRemoved(List<Object> elements) {
+		for (Object elt : elements) {
+			if (isKept.containsKey(elt)) {
+				continue;
+			}
+			for (PropertyDescription prop : referenceProperties(elt)) {
+				if ( (! prop.isMultivalued()) && prop.hasOpposite() ) {
+					Object value = prop.read(elt);
+					if ( (value != null) && isKept.containsKey(value) ) {
+						FameUtil.write(prop, elt, null);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * References of a kept element to replaced elements are redirected to their replacement, references to removed elements are cleared.
+	 * Multivalued properties with a single valued opposite are updated from the other side (by the FAMIX setters)
+	 */
+	protected void redirectReferences(Object elt) {
+		for (PropertyDescription prop : referenceProperties(elt)) {
+			if (! prop.isMultivalued()) {
+				Object value = prop.read(elt);
+				if (value != null) {
+					Object target = target(value);
+					if (target != value) {
+						FameUtil.write(prop, elt, target);
+					}
+				}
+			}
+			else if ( (! prop.hasOpposite()) || prop.getOpposite().isMultivalued() ) {
+				Collection<Object> values = prop.readAll(elt);
+				List<Object> targets = new ArrayList<Object>(values.size());
+				boolean changed = false;
+				for (Object value : values) {
+					Object target = target(value);
+					changed = changed || (target != value);
+					if (target != null) {
+						targets.add(target);
+					}
+				}
+				if (changed) {
+					prop.writeAll(elt, targets);
+				}
+			}
+		}
+	}
+
+	/**
+	 * What a reference to <code>value</code> must become in the result: value itself if it is kept, its replacement, or null if it is removed
+	 */
+	protected Object target(Object value) {
+		Object target = value;
+		while (replacement.containsKey(target)) {
+			target = replacement.get(target);
+		}
+		return isKept.containsKey(target) ? target : null;
+	}
+
+	protected void replace(Object replaced, Object by) {
+		replacement.put(replaced, by);
+		keep(by);
+	}
+
+	protected void keep(Object elt) {
+		if (isKept.put(elt, Boolean.TRUE) == null) {
+			kept.add(elt);
+		}
+	}
+
+	// ANCHORS AND FILES
+
+	/**
+	 * Moves the parts of the anchor of <code>from</code> that are in dirty (or clean) files to the anchor of <code>to</code>,
+	 * when they are anchored in several files
+	 */
+	protected void moveAnchorParts(NamedEntity from, NamedEntity to, boolean dirty) {
+		List<AbstractFileAnchor> parts = anchorParts(from, dirty);
+		if (parts.isEmpty()) {
+			return;
+		}
+		if (to.getSourceAnchor() == null) {
+			to.setSourceAnchor(new MultipleFileAnchor());
+		}
+		if (to.getSourceAnchor() instanceof MultipleFileAnchor) {
+			((MultipleFileAnchor) to.getSourceAnchor()).addAllFiles(parts);
+		}
+	}
+
+	/**
+	 * The parts of the anchor of an entity anchored in several files that are in dirty (or clean) files
+	 */
+	protected List<AbstractFileAnchor> anchorParts(SourcedEntity entity, boolean dirty) {
+		List<AbstractFileAnchor> parts = new ArrayList<AbstractFileAnchor>();
+		if (entity.getSourceAnchor() instanceof MultipleFileAnchor) {
+			for (AbstractFileAnchor part : ((MultipleFileAnchor) entity.getSourceAnchor()).getAllFiles()) {
+				if (dirtyFiles.contains(part.getFileName()) == dirty) {
+					parts.add(part);
+				}
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Whether an element belongs to a dirty file
+	 */
+	protected boolean isDirty(Object elt) {
+		for (String file : files(elt)) {
+			if (dirtyFiles.contains(file)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Files an element belongs to, see class comment
+	 */
+	protected Collection<String> files(Object elt) {
+		if ( (elt instanceof SourcedEntity) && (((SourcedEntity) elt).getSourceAnchor() != null) ) {
+			SourceAnchor anchor = ((SourcedEntity) elt).getSourceAnchor();
+			if (anchor instanceof AbstractFileAnchor) {
+				return Collections.singletonList(((AbstractFileAnchor) anchor).getFileName());
+			}
+			if (anchor instanceof MultipleFileAnchor) {
+				List<String> files = new ArrayList<String>();
+				for (AbstractFileAnchor part : ((MultipleFileAnchor) anchor).getAllFiles()) {
+					files.add(part.getFileName());
+				}
+				return files;
+			}
+		}
+		if (elt instanceof CFile) {
+			return Collections.singletonList(((CFile) elt).getName());
+		}
+		if ( (elt instanceof Include) && (((Include) elt).getSource() != null) ) {
+			return files(((Include) elt).getSource());
+		}
+		if ( (elt instanceof Comment) && (((Comment) elt).getContainer() != null) ) {
+			return files(((Comment) elt).getContainer());
+		}
+		if ( (elt instanceof Association) && (((Association) elt).getFrom() != null) ) {
+			return files(((Association) elt).getFrom());
+		}
+		if ( (elt instanceof NamedEntity) && (((NamedEntity) elt).getBelongsTo() != null) ) {
+			return files(((NamedEntity) elt).getBelongsTo());
+		}
+		return Collections.emptyList();
+	}
+
+	// NAMED ENTITIES
+
+	/**
+	 * Kind and fully qualified name of an entity
+	 */
+	protected String key(NamedEntity entity) {
+		return entity.getClass().getSimpleName() + ":" + qualifiedName(entity);
+	}
+
+	protected String qualifiedName(NamedEntity entity) {
+		String name = keys.get(entity);
+		if (name == null) {
+			name = entity.getName();
+			if ( (entity instanceof BehaviouralEntity) && (((BehaviouralEntity) entity).getSignature() != null) ) {
+				name = ((BehaviouralEntity) entity).getSignature();
+			}
+			if ( (entity.getBelongsTo() != null) && (entity.getBelongsTo() != entity) ) {
+				name = qualifiedName(entity.getBelongsTo()) + "::" + name;
+			}
+			keys.put(entity, name);
+		}
+		return name;
+	}
+
+	protected boolean isStub(NamedEntity entity) {
+		return (entity.getIsStub() != null) && entity.getIsStub();
+	}
+
+	// FAME META-DESCRIPTIONS
+
+	protected List<PropertyDescription> referenceProperties(Object elt) {
+		List<PropertyDescription> props = referenceProperties.get(elt.getClass());
+		if (props == null) {
+			props = new ArrayList<PropertyDescription>();
+			for (PropertyDescription prop : previous.getMetamodel().getDescription(elt.getClass()).allAttributes()) {
+				if ( (! prop.isPrimitive()) && (! prop.isDerived()) ) {
+					props.add(prop);
+				}
+			}
+			referenceProperties.put(elt.getClass(), props);
+		}
+		return props;
+	}
+
+	protected Collection<Object> values(PropertyDescription prop, Object elt) {
+		if (prop.isMultivalued()) {
+			return prop.readAll(elt);
+		}
+		Object value = prop.read(elt);
+		return (value == null) ? Collections.emptyList() : Collections.singletonList(value);
+	}
+
+	// STATISTICS
+
+	public void report() {
+		if (merging) {
+			Activator.log(IStatus.INFO, "Model merging: " + nbReplaced + " stubs replaced by their definition, " + nbMerged + " entities merged, "
+					+ nbAdded + " added");
+			return;
+		}
+		Activator.log(IStatus.INFO, "Model splicing: " + dirtyFiles.size() + " files extracted again, " + nbReplaced + " entities replaced, " + nbMerged
+				+ " merged with the previous model, " + nbAdded + " added, " + nbRemoved + " removed, " + nbStubs + " kept as stubs");
+	}
+
+}
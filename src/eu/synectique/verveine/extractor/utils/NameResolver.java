@@ -1,5 +1,6 @@
 package eu.synectique.verveine.extractor.utils;
 
+import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
 import org.eclipse.cdt.core.dom.ast.IASTFunctionDeclarator;
 import org.eclipse.cdt.core.dom.ast.IASTName;
 import org.eclipse.cdt.core.dom.ast.IBinding;
@@ -16,7 +17,6 @@ import eu.synectique.verveine.core.gen.famix.Method;
 import eu.synectique.verveine.core.gen.famix.NamedEntity;
 import eu.synectique.verveine.core.gen.famix.Namespace;
 import eu.synectique.verveine.core.gen.famix.ScopingEntity;
-import eu.synectique.verveine.core.gen.famix.StructuralEntity;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.visitors.SignatureBuilderVisitor;
@@ -77,7 +77,7 @@ public class NameResolver {
 
 	public <T extends NamedEntity> IBinding mkStubKey(String name, ContainerEntity parent, java.lang.Class<T> entityType) {
 		String simpleName = null;
-		QualifiedName qualName = new QualifiedName(name);
+		QualifiedName qualName = QualifiedName.valueOf(name);
 
 		if (qualName.isFullyQualified()) {
 			if ( (entityType == Attribute.class) || (entityType == Method.class) ) {
@@ -91,7 +91,7 @@ public class NameResolver {
 		else {
 			simpleName = name;
 		}
-		return StubBinding.getInstance(entityType, CDictionary.mooseName(parent, simpleName));
+		return dico.getStubBinding(entityType, dico.mooseName(parent, simpleName));
 	}
 
 	/**
@@ -120,7 +120,7 @@ public class NameResolver {
 		if (bnd instanceof ICPPMethod) {
 			return true;
 		}
-		if ( isStubBinding(bnd) && ( ((StubBinding)bnd).getEntityClass().equals(Method.class.getName()) ) ) {
+		if ( isStubBinding(bnd) && ( (((StubBinding)bnd).getEntityClass() == Method.class) ) ) {
 			return true;
 		}
 		return false;
@@ -152,20 +152,25 @@ public class NameResolver {
 		}
 		if (isStubBinding(bnd)) {
 			String fullName = ((StubBinding)bnd).getEntityName();
-			int i;
-			// remove parameters from the name
-			i = fullName.indexOf('(');
-			if (i > 0) {
-				fullName = fullName.substring(0, i);
+			int end;
+			int sep;
+			int prevSep;
+			// ignore parameters in the name
+			end = fullName.indexOf('(');
+			if (end <= 0) {
+				end = fullName.length();
 			}
 
-			String[] parts = fullName.split(QualifiedName.CPP_NAME_SEPARATOR);
-			
-			i = parts.length;
-			if (i < 2) {
+			sep = fullName.lastIndexOf(QualifiedName.CPP_NAME_SEPARATOR, end - 1);
+			if (sep < 0) {
 				return false; // not a qualified name, can be a simple, top level, function
 			}
-			return parts[i-2].equals(parts[i-1]);  // className (second to last part) = methName (last part) ?
+			prevSep = fullName.lastIndexOf(QualifiedName.CPP_NAME_SEPARATOR, sep - 1);
+			prevSep = (prevSep < 0) ? 0 : prevSep + QualifiedName.CPP_NAME_SEPARATOR.length();
+
+			// className (second to last part) = methName (last part) ?
+			int methStart = sep + QualifiedName.CPP_NAME_SEPARATOR.length();
+			return ( (sep - prevSep) == (end - methStart) ) && fullName.regionMatches(prevSep, fullName, methStart, end - methStart);
 		}
 		return false;
 	}
@@ -176,7 +181,7 @@ public class NameResolver {
 		}
 		if (isStubBinding(bnd)) {
 			// simplified test. Could look at the name of the class as in isConstructorBinding(bnd)
-			return new QualifiedName(((StubBinding)bnd).getEntityName()).unqualifiedName().charAt(0) == '~';
+			return QualifiedName.valueOf(((StubBinding)bnd).getEntityName()).unqualifiedName().charAt(0) == '~';
 		}
 		return false;
 	}
@@ -184,18 +189,36 @@ public class NameResolver {
 	/**
 	 * Try to get some binding from a IASTName.
 	 * There are two possible way to get bindings: through the Index and by resolveBinding.
-	 * but the second may return different bindings for the same entity in different locations
+	 * but the second may return different bindings for the same entity in different locations.
+	 * Bindings found are cached (see {@link BindingCache})
 	 * @return a binding or null if none found
 	 */
 	public IBinding getBinding(IASTName name) {
+		BindingCache cache = dico.getBindingCache();
+		IASTFileLocation loc;
 		IBinding bnd = null;
 		if (name == null) {
 			return null;
 		}
+
+		// all passes ask for the same names, look in the index only once
+		loc = cache.cacheableLocation(name);
+		if (loc != null) {
+			BindingCache.CachedBinding cached = cache.lookup(loc, name);
+			if (cached != null) {
+				return cached.binding;
+			}
+		}
+
 		try {
 			bnd = index.findBinding(name);
 		} catch (CoreException e) {
 			e.printStackTrace();
+			return null;
+		}
+
+		if (loc != null) {
+			cache.put(loc, name, bnd);
 		}
 
 		return bnd;
@@ -212,7 +235,7 @@ public class NameResolver {
 
 			// need to find the parent here (although mkStubKey can do it for us)
 			// because need to know whether it is a method or a function
-			QualifiedName qualName = new QualifiedName(name);
+			QualifiedName qualName = QualifiedName.valueOf(name);
 			if (qualName.isFullyQualified()) {
 				parent = (ContainerEntity) resolveOrCreate(qualName.nameQualifiers(), /*mayBeNull*/false, /*mustBeClass*/false);
 			}
@@ -271,10 +294,10 @@ public class NameResolver {
 		// ... create it if failed
 		if (fmx == null) {
 			if (isMethodBinding(bnd)) {
-				fmx = dico.ensureFamixMethod(bnd, new QualifiedName(name).unqualifiedName(), sig, /*owner*/(Type)parent);
+				fmx = dico.ensureFamixMethod(bnd, QualifiedName.valueOf(name).unqualifiedName(), sig, /*owner*/(Type)parent);
 			}
 			else {                    //   C function or may be a stub ?
-				fmx = dico.ensureFamixFunction(bnd, new QualifiedName(name).unqualifiedName(), SignatureBuilderVisitor.signatureFromAST(node), (ContainerEntity)context.top());
+				fmx = dico.ensureFamixFunction(bnd, QualifiedName.valueOf(name).unqualifiedName(), SignatureBuilderVisitor.signatureFromAST(node), (ContainerEntity)context.top());
 			}
 		}
 
@@ -286,54 +309,43 @@ public class NameResolver {
 	 * @return NamedEntity found or null if none match
 	 */
 	private ContainerEntity findAtTopLevel(String name) {
-		for (Type cl : dico.getEntityByName(Type.class, name)) {
-			return cl;   // return the 1st type found (if any)
-		}
-		for (Namespace ns : dico.getEntityByName(Namespace.class, name)) {
-			return ns;   // return the 1st namespace found (if any)
-		}
-		for (Function fct : dico.getEntityByName(Function.class, name)) {
-			return fct;   // return the 1st function found (if any)
-		}
-		return null;
+		return dico.findTopLevelEntity(name);
 	}
 
 	/**
 	 * Search for a unqualified name within the scope of a ContainerEntity.
 	 * In the case of looking for a function, name is actually a signature.
+	 * Children are looked for in the {@link ChildIndex} of the dictionary, this must be called while holding the model lock
 	 * @return NamedEntity found or null if none match
 	 */
 	public NamedEntity findInLocals(String name, ContainerEntity context) {
-		for (eu.synectique.verveine.core.gen.famix.Type child : context.getTypes()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
-		}
+		ChildIndex children = dico.getChildIndex();
+		NamedEntity found;
 
-		for (Function child : context.getFunctions()) {
-			if ( child.getName().equals(name) || child.getSignature().equals(name)) {
-				return child;
-			}
+		found = children.lookup(context, ChildIndex.TYPES, context.getTypes(), name);
+		if (found != null) {
+			return found;
 		}
 
-		return null;
+		return children.lookup(context, ChildIndex.FUNCTIONS, context.getFunctions(), name);
 	}
 
 	/**
 	 * Search for a unqualified name within the scope of a BehaviouralEntity.
 	 * @return NamedEntity found or null if none match
 	 */
-	public NamedEntity findInLocals(String name, BehaviouralEntity context) {		
-		for (StructuralEntity child : context.getLocalVariables()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
+	public NamedEntity findInLocals(String name, BehaviouralEntity context) {
+		ChildIndex children = dico.getChildIndex();
+		NamedEntity found;
+
+		found = children.lookup(context, ChildIndex.LOCAL_VARIABLES, context.getLocalVariables(), name);
+		if (found != null) {
+			return found;
 		}
 
-		for (StructuralEntity child : context.getParameters()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
+		found = children.lookup(context, ChildIndex.PARAMETERS, context.getParameters(), name);
+		if (found != null) {
+			return found;
 		}
 
 		// if not found call the "super" (by casting the variable)
@@ -345,18 +357,18 @@ public class NameResolver {
 	 * In the case of looking for a method, name is actually a signature.
 	 * @return NamedEntity found or null if none match
 	 */
-	public NamedEntity findInLocals(String name, Type context) {		
+	public NamedEntity findInLocals(String name, Type context) {
+		ChildIndex children = dico.getChildIndex();
+		NamedEntity found;
 
-		for (Attribute child : context.getAttributes()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
+		found = children.lookup(context, ChildIndex.ATTRIBUTES, context.getAttributes(), name);
+		if (found != null) {
+			return found;
 		}
 
-		for (Method child : context.getMethods()) {
-			if (child.getSignature().equals(name)) {
-				return child;
-			}
+		found = children.lookup(context, ChildIndex.METHODS, context.getMethods(), name);
+		if (found != null) {
+			return found;
 		}
 
 		// if not found call the "super" (by casting the variable)
@@ -367,17 +379,18 @@ public class NameResolver {
 	 * Search for a unqualified name within the scope of a context.
 	 * @return NamedEntity found or null if none match
 	 */
-	public NamedEntity findInLocals(String name, ScopingEntity context) {		
-		for (StructuralEntity child : context.getGlobalVariables()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
+	public NamedEntity findInLocals(String name, ScopingEntity context) {
+		ChildIndex children = dico.getChildIndex();
+		NamedEntity found;
+
+		found = children.lookup(context, ChildIndex.GLOBAL_VARIABLES, context.getGlobalVariables(), name);
+		if (found != null) {
+			return found;
 		}
 
-		for (ScopingEntity child : context.getChildScopes()) {
-			if (child.getName().equals(name)) {
-				return child;
-			}
+		found = children.lookup(context, ChildIndex.CHILD_SCOPES, context.getChildScopes(), name);
+		if (found != null) {
+			return found;
 		}
 
 		// if not found call the "super" (by casting the variable)
@@ -397,18 +410,22 @@ public class NameResolver {
 		if (context == null) {
 			return findAtTopLevel(name);
 		}
-		else if (context instanceof BehaviouralEntity) {
-			found = findInLocals(name, (BehaviouralEntity)context);
-		}
-		else if (context instanceof ScopingEntity) {
-			found = findInLocals(name, (ScopingEntity)context);
-		}
-		else if (context instanceof Type) {
-			found = findInLocals(name, (Type)context);
-		}
-		else {
-			// non ContainerEntity, should never happen
-			return null;
+
+		// entities may be modified by other threads while we are looking into them
+		synchronized (dico.getModelLock()) {
+			if (context instanceof BehaviouralEntity) {
+				found = findInLocals(name, (BehaviouralEntity)context);
+			}
+			else if (context instanceof ScopingEntity) {
+				found = findInLocals(name, (ScopingEntity)context);
+			}
+			else if (context instanceof Type) {
+				found = findInLocals(name, (Type)context);
+			}
+			else {
+				// non ContainerEntity, should never happen
+				return null;
+			}
 		}
 
 		if (found != null) {
@@ -430,7 +447,7 @@ public class NameResolver {
 	 * @param mustBeClass -- (ignored if <code>mayBeNull</code> = <code>true</code>) if creating a ContainerEntity, create it as a Class
 	 */
 	public NamedEntity resolveOrCreate( String name, boolean mayBeNull, boolean mustBeClass) {
-		return resolveOrCreate(new QualifiedName(name), mayBeNull, mustBeClass);
+		return resolveOrCreate(QualifiedName.valueOf(name), mayBeNull, mustBeClass);
 	}
 
 	/**
@@ -440,6 +457,33 @@ public class NameResolver {
 	 * @param mustBeClass -- (ignored if <code>mayBeNull</code> = <code>true</code>) if creating a ContainerEntity, create it as a Class
 	 */
 	public NamedEntity resolveOrCreate( QualifiedName name, boolean mayBeNull, boolean mustBeClass) {
+		ResolutionCache cache = dico.getResolutionCache();
+		ResolutionCache.Key key;
+		ResolutionCache.Result cached;
+		NamedEntity found;
+		long generation;
+
+		if (name.isEmpty()) {
+			return null;
+		}
+
+		key = cache.key( (context == null) ? null : context.top(), name, ResolutionCache.flags(mayBeNull, mustBeClass));
+		cached = cache.lookup(key);
+		if (cached != null) {
+			return cached.entity;
+		}
+
+		generation = cache.generation(name);
+		found = resolveOrCreateUncached(name, mayBeNull, mustBeClass);
+		cache.put(key, found, generation);
+
+		return found;
+	}
+
+	/**
+	 * Actually resolves the name for {@link #resolveOrCreate(QualifiedName, boolean, boolean)}
+	 */
+	protected NamedEntity resolveOrCreateUncached( QualifiedName name, boolean mayBeNull, boolean mustBeClass) {
 		NamedEntity tmp;
 		String simpleName;
 		ContainerEntity parent = null;
@@ -531,7 +575,7 @@ public class NameResolver {
 
 	protected ContainerEntity behaviouralParentFromNameOrContext(String name) {
 		ContainerEntity parent;
-		QualifiedName qualName = new QualifiedName(name);
+		QualifiedName qualName = QualifiedName.valueOf(name);
 		if (qualName.isFullyQualified()) {
 			parent = (ContainerEntity) resolveOrCreate( qualName.nameQualifiers(), /*mayBeNull*/false, /*mustBeClass*/true);
 		}
@@ -1,13 +1,21 @@
 package eu.synectique.verveine.extractor.utils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.cdt.core.dom.ast.IASTName;
 
 import eu.synectique.verveine.extractor.visitors.SignatureBuilderVisitor;
 
+/**
+ * An immutable C++ qualified name (e.g. "<code>::std::vector&lt;int&gt;::size()</code>").<br>
+ * The name is parsed once, its parts are kept as offsets in the original string, and derived values
+ * ({@link #toString()}, {@link #unqualifiedName()}, {@link #nameQualifiers()}) are computed once and cached.
+ * The same names are parsed again and again during an extraction, so {@link #valueOf(String)} returns shared instances from a bounded cache.
+ */
 public class QualifiedName implements Iterable<String> {
 
 	/**
@@ -15,85 +23,169 @@ public class QualifiedName implements Iterable<String> {
 	 */
 	public static final String CPP_NAME_SEPARATOR = "::";
 
-	protected List<String> nameParts;
-	
-	protected boolean isAbsolute;
+	/**
+	 * Maximum number of names kept in the parse cache
+	 */
+	public static final int PARSE_CACHE_SIZE = 10000;
+
+	/**
+	 * Parsed names, emptied when it gets too big (like {@link ResolutionCache}) so that lookups need no lock
+	 */
+	private static final ConcurrentMap<String,QualifiedName> parseCache = new ConcurrentHashMap<String,QualifiedName>(/*initialCapacity*/1024);
+
+	/**
+	 * The string that was parsed
+	 */
+	protected final String source;
+
+	/**
+	 * Start and end offsets of the parts of the name in {@link #source}.
+	 * May be longer than {@link #nbParts} when this is the {@link #nameQualifiers()} of another name
+	 */
+	protected final int[] partStarts;
+	protected final int[] partEnds;
+
+	protected final int nbParts;
+
+	protected final boolean isAbsolute;
+
+	/*
+	 * cached values, computed on first use
+	 */
+	private String fullname;
+	private String lastPart;
+	private QualifiedName qualifiers;
 
 	// CONSTRUCTION
 
+	/**
+	 * Returns the QualifiedName for <code>name</code>, from the parse cache if possible
+	 */
+	static public QualifiedName valueOf(String name) {
+		QualifiedName qual = parseCache.get(name);
+		if (qual == null) {
+			qual = new QualifiedName(name);
+			if (parseCache.size() >= PARSE_CACHE_SIZE) {
+				parseCache.clear();
+			}
+			parseCache.put(name, qual);
+		}
+		return qual;
+	}
+
+	static public QualifiedName valueOf(IASTName name) {
+		return valueOf(name.toString());
+	}
+
 	public QualifiedName(String name) {
-		nameParts = new ArrayList<String>();
-		isAbsolute = false;
-		parse( name);
+		Parser parser = new Parser(name);
+		parser.parse();
+
+		this.source = name;
+		this.partStarts = Arrays.copyOf(parser.starts, parser.nbParts);
+		this.partEnds = Arrays.copyOf(parser.ends, parser.nbParts);
+		this.nbParts = parser.nbParts;
+		this.isAbsolute = parser.isAbsolute;
 	}
 
 	public QualifiedName(IASTName name) {
 		this(name.toString());
 	}
 
-	protected QualifiedName(List<String> nameParts) {
-		this.nameParts = nameParts;
-	}
-	
-	protected void parse(String fullname) {
-		int i=0;
-		int iNameSeparator = 0;
-		int iFctReturnSeparator = 0;
-		int partStart = 0;
-		
-		while ( (i < fullname.length()) && (iFctReturnSeparator < SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.length()) ){
-			char c = fullname.charAt(i);
-			i++;
-
-			if (c == CPP_NAME_SEPARATOR.charAt(iNameSeparator)) {
-				iNameSeparator++;
-				iFctReturnSeparator = 0;
-				if (iNameSeparator >= CPP_NAME_SEPARATOR.length()) {
-					if (iNameSeparator == i) {
-						isAbsolute = true;
-					}
-					else {
-						nameParts.add(fullname.substring(partStart, i-CPP_NAME_SEPARATOR.length()));
+	/**
+	 * A name made of the <code>nbParts</code> first parts of another name
+	 */
+	protected QualifiedName(QualifiedName other, int nbParts) {
+		this.source = other.source;
+		this.partStarts = other.partStarts;
+		this.partEnds = other.partEnds;
+		this.nbParts = nbParts;
+		this.isAbsolute = other.isAbsolute;
+	}
+
+	/**
+	 * Computes the offsets of the parts of a name
+	 */
+	protected static class Parser {
+		protected String fullname;
+		protected int[] starts = new int[4];
+		protected int[] ends = new int[4];
+		protected int nbParts = 0;
+		protected boolean isAbsolute = false;
+
+		protected Parser(String fullname) {
+			this.fullname = fullname;
+		}
+
+		protected void addPart(int start, int end) {
+			if (nbParts == starts.length) {
+				starts = Arrays.copyOf(starts, nbParts*2);
+				ends = Arrays.copyOf(ends, nbParts*2);
+			}
+			starts[nbParts] = start;
+			ends[nbParts] = end;
+			nbParts++;
+		}
+
+		protected void parse() {
+			int i=0;
+			int iNameSeparator = 0;
+			int iFctReturnSeparator = 0;
+			int partStart = 0;
+
+			while ( (i < fullname.length()) && (iFctReturnSeparator < SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.length()) ){
+				char c = fullname.charAt(i);
+				i++;
+
+				if (c == CPP_NAME_SEPARATOR.charAt(iNameSeparator)) {
+					iNameSeparator++;
+					iFctReturnSeparator = 0;
+					if (iNameSeparator >= CPP_NAME_SEPARATOR.length()) {
+						if (iNameSeparator == i) {
+							isAbsolute = true;
+						}
+						else {
+							addPart(partStart, i-CPP_NAME_SEPARATOR.length());
+						}
+						partStart = i;
+						iNameSeparator = 0;
+						iFctReturnSeparator = 0;
 					}
-					partStart = i;
+				}
+				else if (c == SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.charAt(iFctReturnSeparator)) {
+					iFctReturnSeparator++;
+					iNameSeparator = 0;
+				}
+				else {
 					iNameSeparator = 0;
 					iFctReturnSeparator = 0;
+					switch (c) {
+					case '<': i = parseSkip(i, '>');  break;
+					case '(': i = parseSkip(i, ')');  break;
+					case '[': i = parseSkip(i, ']');  break;
+					}
 				}
 			}
-			else if (c == SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.charAt(iFctReturnSeparator)) {
-				iFctReturnSeparator++;
-				iNameSeparator = 0;
-			}
-			else {
-				iNameSeparator = 0;
-				iFctReturnSeparator = 0;
-				switch (c) {
-				case '<': i = parseSkip(fullname, i, '>');  break;
-				case '(': i = parseSkip(fullname, i, ')');  break;
-				case '[': i = parseSkip(fullname, i, ']');  break;
+			if (i > 0) { // i.e. fullname was not empty
+				if (iFctReturnSeparator >= SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.length()) {
+					i -= iFctReturnSeparator;
 				}
+				addPart(partStart, i);
 			}
 		}
-		if (i > 0) { // i.e. fullname was not empty
-			if (iFctReturnSeparator >= SignatureBuilderVisitor.CPP_FCT_RETURN_SEPARATOR.length()) {
-				i -= iFctReturnSeparator;
-			}
-			nameParts.add(fullname.substring(partStart, i));
-		}
 
-	}
-
-	protected int parseSkip(String fullname, int i, char end) {
-		while ( (i < fullname.length()) && (fullname.charAt(i) != end) ) {
-			char c = fullname.charAt(i);
-			i++;
-			switch (c) {
-			case '<': i = parseSkip(fullname, i, '>');  break;
-			case '(': i = parseSkip(fullname, i, ')');  break;
-			case '[': i = parseSkip(fullname, i, ']');  break;
+		protected int parseSkip(int i, char end) {
+			while ( (i < fullname.length()) && (fullname.charAt(i) != end) ) {
+				char c = fullname.charAt(i);
+				i++;
+				switch (c) {
+				case '<': i = parseSkip(i, '>');  break;
+				case '(': i = parseSkip(i, ')');  break;
+				case '[': i = parseSkip(i, ']');  break;
+				}
 			}
+			return i;
 		}
-		return i;
 	}
 
 	// STATIC UTILITIES
@@ -130,74 +222,107 @@ public class QualifiedName implements Iterable<String> {
 	}
 
 	// OTHER METHODS
-	
+
 	public int nbParts() {
-		return nameParts.size();
+		return nbParts;
 	}
 
 	public boolean isFullyQualified() {
 		return nbParts() > 1;
 	}
 
-	protected void setAbsoluteQualified(boolean abs) {
-		isAbsolute = abs;
-	}
-
 	public boolean isAbsoluteQualified() {
 		return isAbsolute;
 	}
 
 	public boolean isEmpty() {
-		return nameParts.isEmpty();
+		return nbParts == 0;
+	}
+
+	/**
+	 * Returns the i-th part of the name
+	 */
+	public String part(int i) {
+		if ( (i == nbParts-1) && (lastPart != null) ) {
+			return lastPart;
+		}
+		return source.substring(partStarts[i], partEnds[i]);
 	}
 
 	/**
 	 * Returns the last part of a fully qualified name
 	 */
 	public String unqualifiedName() {
-		if (nameParts.isEmpty()) {
+		if (nbParts == 0) {
 			return "";
 		}
-		else {
-			return nameParts.get(nbParts()-1);
+		if (lastPart == null) {
+			lastPart = part(nbParts-1);
 		}
+		return lastPart;
 	}
 
 	/**
 	 * "Opposite" of unqualifiedName, returns the qualifying part of a fully qualified name
 	 */
 	public QualifiedName nameQualifiers() {
-		QualifiedName ret;
-		if (! isFullyQualified()) {
-			ret= new QualifiedName("");
-		}
-		else {
-			ret = new QualifiedName(nameParts.subList(0, nbParts()-1));
+		if (qualifiers == null) {
+			if (! isFullyQualified()) {
+				qualifiers = new QualifiedName(this, 0);
+			}
+			else {
+				qualifiers = new QualifiedName(this, nbParts-1);
+			}
 		}
-		ret.setAbsoluteQualified(isAbsolute);
-		return ret;
+		return qualifiers;
 	}
 
 	@Override
 	public Iterator<String> iterator() {
-		return nameParts.iterator();
+		return new Iterator<String>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < nbParts;
+			}
+
+			@Override
+			public String next() {
+				if (next >= nbParts) {
+					throw new NoSuchElementException();
+				}
+				return part(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
+	/**
+	 * Parts are separated by exactly {@link #CPP_NAME_SEPARATOR} in the source (and an absolute name starts with it)
+	 * so the string is a substring of the source, or the source itself
+	 */
 	@Override
 	public String toString() {
-		String full= "";
-		boolean isFirst;
-		
-		isFirst = ! isAbsolute; // if isAbsolute, we want to add "::" before the first part, so consider it is not the first
-		for (String part : nameParts) {
-			if (isFirst) {
-				isFirst = false;
-				full = part;
+		if (fullname == null) {
+			if (nbParts == 0) {
+				fullname = "";
 			}
 			else {
-				full += CPP_NAME_SEPARATOR + part;
+				int start = isAbsolute ? partStarts[0]-CPP_NAME_SEPARATOR.length() : partStarts[0];
+				int end = partEnds[nbParts-1];
+				if ( (start == 0) && (end == source.length()) ) {
+					fullname = source;
+				}
+				else {
+					fullname = source.substring(start, end);
+				}
 			}
 		}
-		return full;
+		return fullname;
 	}
 }
@@ -0,0 +1,189 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import eu.synectique.verveine.core.gen.famix.NamedEntity;
+
+/**
+ * Remembers the results of {@link NameResolver#resolveOrCreate(QualifiedName, boolean, boolean)}, including "not found" results.
+ * Results are keyed by the context of the resolution (top of the context stack), the qualified name and the flags of the call.
+ * <p>
+ * Creating new entities may change the result of a resolution (e.g. a Type created after a Namespace of the same name hides it),
+ * but only of the resolutions of names having a part with the same name as the new entity.
+ * So the cache keeps generation numbers per simple name (hashed into {@link #NB_GENERATIONS} stripes), incremented on each entity creation
+ * (see {@link #entityCreated(String)}). A result remembers the sum of the generations of the parts of its name when it was computed
+ * (see {@link #generation(QualifiedName)}) and is valid as long as this sum does not change, i.e. no entity was created with one of these names.
+ * <p>
+ * The cache is shared by all the visitors of an extraction and is thread safe. It is bounded: it is emptied when it gets too big.
+ */
+public class ResolutionCache {
+
+	/**
+	 * Default maximum number of results kept
+	 */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	/**
+	 * Number of generation numbers, names with the same hash modulo this number share theirs (a power of 2)
+	 */
+	public static final int NB_GENERATIONS = 4096;
+
+	/*
+	 * Flags of a resolution
+	 */
+	public static final int MAY_BE_NULL = 1;
+	public static final int MUST_BE_CLASS = 2;
+
+	/**
+	 * The key of a resolution
+	 */
+	protected static class Key {
+		protected final NamedEntity context;
+		protected final String name;
+		protected final int flags;
+		protected final QualifiedName qualName;
+		private final int hash;
+
+		protected Key(NamedEntity context, QualifiedName qualName, int flags) {
+			this.context = context;
+			this.name = qualName.toString();
+			this.flags = flags;
+			this.qualName = qualName;
+			this.hash = 31 * (31 * System.identityHashCode(context) + name.hashCode()) + flags;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (! (other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return (context == key.context) && (flags == key.flags) && name.equals(key.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * The result of a resolution, entity is null if the name was not found
+	 */
+	protected static class Result {
+		protected final NamedEntity entity;
+		protected final long generation;
+
+		protected Result(NamedEntity entity, long generation) {
+			this.entity = entity;
+			this.generation = generation;
+		}
+	}
+
+	protected ConcurrentMap<Key,Result> results;
+
+	protected int maxSize;
+
+	private AtomicLongArray generations;
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	public ResolutionCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.results = new ConcurrentHashMap<Key,Result>();
+		this.generations = new AtomicLongArray(NB_GENERATIONS);
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+	}
+
+	public ResolutionCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public static int flags(boolean mayBeNull, boolean mustBeClass) {
+		return (mayBeNull ? MAY_BE_NULL : 0) | (mustBeClass ? MUST_BE_CLASS : 0);
+	}
+
+	public Key key(NamedEntity context, QualifiedName name, int flags) {
+		return new Key(context, name, flags);
+	}
+
+	/**
+	 * Current generation of a name (sum of the generations of its parts), to get before resolving it and give to {@link #put(Key, NamedEntity, long)}
+	 */
+	public long generation(QualifiedName name) {
+		long sum = 0;
+		for (String part : name) {
+			sum += generations.get(stripe(part));
+		}
+		return sum;
+	}
+
+	/**
+	 * Must be called each time a new entity is created, with its name
+	 */
+	public void entityCreated(String name) {
+		generations.incrementAndGet(stripe(name));
+	}
+
+	private int stripe(String name) {
+		return (name == null) ? 0 : (name.hashCode() & (NB_GENERATIONS - 1));
+	}
+
+	/**
+	 * Returns the valid result for this key or null if there is none.
+	 * Note that a result may have a null entity (name was not found)
+	 */
+	public Result lookup(Key key) {
+		Result res = results.get(key);
+		if ( (res != null) && (res.generation == generation(key.qualName)) ) {
+			hits.incrementAndGet();
+			return res;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Records the result of a resolution
+	 * @param generation -- the generation of the name when the resolution started (see {@link #generation(QualifiedName)})
+	 */
+	public void put(Key key, NamedEntity entity, long generation) {
+		if (results.size() >= maxSize) {
+			results.clear();
+		}
+		results.put(key, new Result(entity, generation));
+	}
+
+	public void clear() {
+		results.clear();
+	}
+
+	// STATISTICS
+
+	public int size() {
+		return results.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double hitRatio() {
+		return CacheStatistics.hitRatio(getHits(), getMisses());
+	}
+
+	public void report() {
+		long h = getHits();
+		long m = getMisses();
+		CacheStatistics.report("Name resolution cache", h + " hits, " + m + " misses", h, m);
+	}
+
+}
@@ -0,0 +1,136 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.filesystem.IFileInfo;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.filesystem.provider.FileInfo;
+import org.eclipse.core.filesystem.provider.FileStore;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A file or directory of the user's sources seen through {@link SourceFileSystem}: lower case name, lower case includes.
+ * Everything else is delegated to the real file in the local file system.
+ */
+public class SourceFileStore extends FileStore {
+
+	protected SourceFileSystem fileSystem;
+
+	/**
+	 * null for the root of the sources
+	 */
+	protected SourceFileStore parent;
+
+	/**
+	 * The real file
+	 */
+	protected IFileStore local;
+
+	/**
+	 * Path of the root of the sources, see {@link SourceFileSystem}
+	 */
+	protected String rootPath;
+
+	protected String name;
+
+	protected SourceFileStore(SourceFileSystem fileSystem, SourceFileStore parent, IFileStore local, String rootPath) {
+		this.fileSystem = fileSystem;
+		this.parent = parent;
+		this.local = local;
+		this.rootPath = rootPath;
+		this.name = (parent == null) ? local.getName() : local.getName().toLowerCase();
+	}
+
+	@Override
+	public String[] childNames(int options, IProgressMonitor monitor) throws CoreException {
+		List<String> names = new ArrayList<String>();
+
+		for (IFileInfo info : local.childInfos(options, monitor)) {
+			if (SourceFileSystem.isSourceChild(info)) {
+				names.add(info.getName().toLowerCase());
+			}
+		}
+
+		return names.toArray(new String[names.size()]);
+	}
+
+	@Override
+	public IFileInfo fetchInfo(int options, IProgressMonitor monitor) throws CoreException {
+		IFileInfo info = local.fetchInfo(options, monitor);
+
+		if ( (info instanceof FileInfo) && (! name.equals(info.getName())) ) {
+			FileInfo renamed = (FileInfo) ((FileInfo)info).clone();
+			renamed.setName(name);
+			return renamed;
+		}
+		return info;
+	}
+
+	@Override
+	public IFileStore getChild(String childName) {
+		String lowerName = childName.toLowerCase();
+		return new SourceFileStore(fileSystem, this, local.getChild(fileSystem.realName(local, lowerName)), rootPath);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public IFileStore getParent() {
+		if (parent != null) {
+			return parent;
+		}
+		// outside of the sources, nothing to convert
+		return local.getParent();
+	}
+
+	/**
+	 * Content of the file with included file names in lower case
+	 */
+	@Override
+	public InputStream openInputStream(int options, IProgressMonitor monitor) throws CoreException {
+		return new IncludeToLowerInputStream(local.openInputStream(options, monitor));
+	}
+
+	@Override
+	public URI toURI() {
+		return SourceFileSystem.mkURI(rootPath + relativePath(), rootPath);
+	}
+
+	/**
+	 * Path from the root of the sources, in lower case
+	 */
+	protected String relativePath() {
+		if (parent == null) {
+			return "";
+		}
+		return parent.relativePath() + "/" + name;
+	}
+
+	/**
+	 * The real file
+	 */
+	public IFileStore getLocalStore() {
+		return local;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (! (other instanceof SourceFileStore)) {
+			return false;
+		}
+		return toURI().equals(((SourceFileStore)other).toURI());
+	}
+
+	@Override
+	public int hashCode() {
+		return toURI().hashCode();
+	}
+
+}
@@ -0,0 +1,131 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileInfo;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.filesystem.provider.FileSystem;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * An Eclipse file system giving a "windows" view of the user's source directory without copying it:
+ * all file names are in lower case, and so are the names of the included files in the #include directives
+ * (see {@link IncludeToLowerInputStream}). This is what {@link FileUtil#copySourceFilesInProject(org.eclipse.core.resources.IProject, String, File, boolean, String)}
+ * does when copying the files, but here, the conversion is done when the files are read.<br>
+ * The source directory is linked in the Eclipse project with a URI of this file system (see {@link #rootURI(File)}).
+ * <p>
+ * URIs are "<code>verveinesrc:/path/of/root/lower/case/relative/path?/path/of/root</code>":
+ * the path of the root directory is kept as it is (in the query) and the rest is in lower case.
+ * The real (mixed case) names of the files are found in their directory, the mapping is cached for each directory.
+ */
+public class SourceFileSystem extends FileSystem {
+
+	/**
+	 * Scheme of the file system, as declared in plugin.xml
+	 */
+	public static final String SCHEME = "verveinesrc";
+
+	/**
+	 * Real names of the files in each directory (key is the path of the directory), by lower case name
+	 */
+	private ConcurrentMap<String,Map<String,String>> realNames;
+
+	public SourceFileSystem() {
+		realNames = new ConcurrentHashMap<String,Map<String,String>>();
+	}
+
+	/**
+	 * URI of the source directory <code>root</code> in this file system
+	 */
+	public static URI rootURI(File root) {
+		String rootPath = withoutTrailingSeparator(root.getAbsoluteFile().toURI().getPath());
+		return mkURI(rootPath, rootPath);
+	}
+
+	@Override
+	public IFileStore getStore(URI uri) {
+		String rootPath = uri.getQuery();
+		IFileStore store = new SourceFileStore(this, null, localStore(rootPath), rootPath);
+
+		for (String segment : uri.getPath().substring(rootPath.length()).split("/")) {
+			if (! segment.isEmpty()) {
+				store = store.getChild(segment);
+			}
+		}
+
+		return store;
+	}
+
+	/**
+	 * Returns the real name of the file which lower case name is <code>lowerName</code> in directory <code>dir</code>,
+	 * or <code>lowerName</code> if there is no such file.
+	 */
+	protected String realName(IFileStore dir, String lowerName) {
+		String dirPath = dir.toURI().getPath();
+		Map<String,String> inDir = realNames.get(dirPath);
+
+		if (inDir == null) {
+			inDir = new HashMap<String,String>();
+			try {
+				for (String name : dir.childNames(EFS.NONE, Constants.NULL_PROGRESS_MONITOR)) {
+					String lower = name.toLowerCase();
+					if (! inDir.containsKey(lower)) {
+						inDir.put(lower, name);
+					}
+				}
+			} catch (CoreException e) {
+				// not a directory or does not exist: there is no real name
+			}
+			Map<String,String> other = realNames.putIfAbsent(dirPath, inDir);
+			if (other != null) {
+				inDir = other;
+			}
+		}
+
+		String real = inDir.get(lowerName);
+		return (real == null) ? lowerName : real;
+	}
+
+	protected static URI mkURI(String path, String rootPath) {
+		try {
+			return new URI(SCHEME, /*authority*/null, path, /*query*/rootPath, /*fragment*/null);
+		} catch (URISyntaxException e) {
+			Activator.log(IStatus.ERROR, "Invalid source path: " + path);
+			return null;
+		}
+	}
+
+	protected static IFileStore localStore(String path) {
+		try {
+			return EFS.getLocalFileSystem().getStore(new URI("file", /*authority*/null, path, /*query*/null, /*fragment*/null));
+		} catch (URISyntaxException e) {
+			Activator.log(IStatus.ERROR, "Invalid source path: " + path);
+			return null;
+		}
+	}
+
+	private static String withoutTrailingSeparator(String path) {
+		if ( (path.length() > 1) && path.endsWith("/") ) {
+			return path.substring(0, path.length()-1);
+		}
+		return path;
+	}
+
+	/**
+	 * Whether a child of a directory is part of the sources seen through this file system
+	 */
+	protected static boolean isSourceChild(IFileInfo info) {
+		return FileUtil.isProjectFile(info.getName(), info.isDirectory());
+	}
+
+}
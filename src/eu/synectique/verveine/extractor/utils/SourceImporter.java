@@ -0,0 +1,273 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+
+/**
+ * Copies the user's source files into the Eclipse project.<br>
+ * Files are copied directly in the file system, in parallel (one task per directory and per batch of {@link #BATCH_SIZE} files),
+ * and Eclipse is told about them at the end with one single refresh of the destination folder.
+ * This is much faster than creating the files one by one through the Eclipse resources API.
+ * <p>
+ * A file already in the project (project kept from a previous run) is copied again only if its size or modification time differ
+ * from the source file: copies are given the modification time of their source.
+ * <p>
+ * For a shard extraction (see {@link #shard}), only the headers are copied outside the directory of the shard:
+ * they are needed to resolve the includes but the other source files would only make the index bigger.
+ */
+public class SourceImporter {
+
+	/**
+	 * Number of files of one directory copied by one task
+	 */
+	public static final int BATCH_SIZE = 64;
+
+	/**
+	 * Name of the shard made of the files directly in the source directory
+	 */
+	public static final String ROOT_SHARD = ".";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * convert all file names (and included file names) to lower case
+	 */
+	protected boolean toLowerCase;
+
+	/**
+	 * Top-level directory of the shard extracted, {@link #ROOT_SHARD}, or <code>null</code> to extract everything
+	 */
+	protected String shard;
+
+	private AtomicLong nbFiles;
+	private AtomicLong nbBytes;
+	private AtomicLong nbUnchanged;
+
+	public SourceImporter(boolean toLowerCase, String shard) {
+		this.toLowerCase = toLowerCase;
+		this.shard = shard;
+		this.nbFiles = new AtomicLong(0);
+		this.nbBytes = new AtomicLong(0);
+		this.nbUnchanged = new AtomicLong(0);
+	}
+
+	/**
+	 * Copies the source file(s) in <code>src</code> into <code>destFolder</code> and refreshes it
+	 * @param src -- a directory or a single file
+	 */
+	public void importInto(final IFolder destFolder, File src) {
+		long start = System.currentTimeMillis();
+		File dest = destFolder.getLocation().toFile();
+
+		if (src.isDirectory()) {
+			ForkJoinPool pool = new ForkJoinPool();
+			pool.invoke(new DirectoryTask(src, dest, /*headersOnly*/(shard != null) && (! shard.equals(ROOT_SHARD)), /*topLevel*/true));
+			pool.shutdown();
+		}
+		else if (FileUtil.isProjectFile(src.getName(), /*isDirectory*/false)) {
+			copyFile(src, new File(dest, destName(src)));
+		}
+
+		try {
+			ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					destFolder.refreshLocal(IResource.DEPTH_INFINITE, monitor);
+				}
+			}, Constants.NULL_PROGRESS_MONITOR);
+		} catch (CoreException e) {
+			Activator.log(IStatus.ERROR, "Error refreshing " + destFolder.getFullPath() + ": " + e.getMessage());
+			e.printStackTrace();
+		}
+
+		report(System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Copies the files of a directory by batches, and its sub-directories, all in parallel
+	 */
+	protected class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected File dir;
+		protected File dest;
+
+		/**
+		 * Whether the directory is outside the shard extracted
+		 */
+		protected boolean headersOnly;
+
+		/**
+		 * Whether this is the source directory itself (its sub-directories are the shards)
+		 */
+		protected boolean topLevel;
+
+		protected DirectoryTask(File dir, File dest, boolean headersOnly, boolean topLevel) {
+			this.dir = dir;
+			this.dest = dest;
+			this.headersOnly = headersOnly;
+			this.topLevel = topLevel;
+		}
+
+		@Override
+		protected void compute() {
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			List<File> batch = new ArrayList<File>();
+			File[] children = dir.listFiles();
+
+			if (children == null) {
+				Activator.log(IStatus.WARNING, "Could not read directory " + dir.getPath());
+				return;
+			}
+
+			for (File child : children) {
+				boolean isDir = child.isDirectory();
+				if (! FileUtil.isProjectFile(child.getName(), isDir)) {
+					continue;
+				}
+				if (isDir) {
+					boolean childHeadersOnly = (topLevel && (shard != null)) ? (! child.getName().equals(shard)) : headersOnly;
+					tasks.add(new DirectoryTask(child, new File(dest, destName(child)), childHeadersOnly, /*topLevel*/false));
+				}
+				else if ( (! headersOnly) || FileUtil.isHeader(child) ) {
+					batch.add(child);
+					if (batch.size() == BATCH_SIZE) {
+						tasks.add(new BatchTask(batch, dest));
+						batch = new ArrayList<File>();
+					}
+				}
+			}
+			if (! batch.isEmpty()) {
+				tasks.add(new BatchTask(batch, dest));
+			}
+
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Copies some files of one directory
+	 */
+	protected class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected List<File> files;
+		protected File dest;
+
+		protected BatchTask(List<File> files, File dest) {
+			this.files = files;
+			this.dest = dest;
+		}
+
+		@Override
+		protected void compute() {
+			for (File file : files) {
+				copyFile(file, new File(dest, destName(file)));
+			}
+		}
+	}
+
+	protected String destName(File orig) {
+		return toLowerCase ? orig.getName().toLowerCase() : orig.getName();
+	}
+
+	/**
+	 * Copies one source file, if needed.
+	 * If dest already exists with a different size or modification time, it is silently overridden
+	 */
+	protected void copyFile(File orig, File dest) {
+		long length = orig.length();
+
+		if ( dest.exists() && (dest.length() == length) && (dest.lastModified() == orig.lastModified()) ) {
+			nbUnchanged.incrementAndGet();
+			return;
+		}
+
+		dest.getParentFile().mkdirs();
+		try {
+			if (toLowerCase) {
+				copyToLower(orig, dest);
+			}
+			else {
+				copyChannel(orig, dest, length);
+			}
+			dest.setLastModified(orig.lastModified());
+			nbFiles.incrementAndGet();
+			nbBytes.addAndGet(length);
+		} catch (IOException e) {
+			Activator.log(IStatus.ERROR, "Error copying " + orig.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	protected void copyChannel(File orig, File dest, long length) throws IOException {
+		try (FileChannel in = new FileInputStream(orig).getChannel();
+				FileChannel out = new FileOutputStream(dest).getChannel()) {
+			long pos = 0;
+			while (pos < length) {
+				long n = in.transferTo(pos, length - pos, out);
+				if (n <= 0) {
+					break;   // file was truncated while copying
+				}
+				pos += n;
+			}
+		}
+	}
+
+	/**
+	 * Copies with include file names converted to lower case, see {@link IncludeToLowerInputStream}
+	 */
+	protected void copyToLower(File orig, File dest) throws IOException {
+		try (InputStream in = new IncludeToLowerInputStream(new FileInputStream(orig));    // the filter stream has its own buffer
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(dest), BUFFER_SIZE)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ( (n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	// STATISTICS
+
+	public long getNbFiles() {
+		return nbFiles.get();
+	}
+
+	public long getNbBytes() {
+		return nbBytes.get();
+	}
+
+	public long getNbUnchanged() {
+		return nbUnchanged.get();
+	}
+
+	protected void report(long millis) {
+		double seconds = Math.max(millis, 1) / 1000.0;
+		double megaBytes = getNbBytes() / (1024.0 * 1024.0);
+		Activator.log(IStatus.INFO, "Copied " + getNbFiles() + " files (" + String.format("%.1f", megaBytes) + " MB, " + getNbUnchanged() + " unchanged) in "
+				+ String.format("%.1f", seconds) + " s: " + String.format("%.0f", getNbFiles() / seconds) + " files/s, "
+				+ String.format("%.1f", megaBytes / seconds) + " MB/s");
+	}
+
+}
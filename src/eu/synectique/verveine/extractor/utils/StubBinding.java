@@ -1,74 +1,76 @@
 package eu.synectique.verveine.extractor.utils;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.eclipse.cdt.core.dom.ILinkage;
 import org.eclipse.cdt.core.dom.ast.DOMException;
 import org.eclipse.cdt.core.dom.ast.IBinding;
 import org.eclipse.cdt.core.dom.ast.IScope;
 
 import eu.synectique.verveine.core.gen.famix.NamedEntity;
-import eu.synectique.verveine.core.gen.famix.Package;
 
 /**
  * This is a CDT {@link IBinding} implementor to serve as key for unresolved entities
  * Rational: The Famix dictionary needs an IBinding as entity key.
  * But the stubs (and FamixPackages) don't have associated CDT binding
  * So we create this class that will implement a fake IBinding for each stub
- * The actual key will be some string including its Famix type (e.g. "Package") and a name (e.g. the fully qualified name of a Package)
- * (see also {@link #getInstance(String, Package)})
+ * The actual key is made of the Famix class of the entity (e.g. Package) and a name (e.g. the fully qualified name of a Package)
+ * StubBindings are obtained from the {@link StubBindingTable} of the current extraction
  * @author Anquetil and Bhatti
  */
 public class StubBinding implements IBinding {
 
-	private static final String KEY_SEPARATOR = "/";
-
 	/**
-	 * The actual key of the entity
+	 * The Famix class of the entity, first part of its key
 	 */
-	protected String keyname;
+	protected final Class<? extends NamedEntity> entityClass;
 
 	/**
-	 * A map of key/instances to make sure the same StubBinding instance is always associated to a given key
+	 * Some string identifying the entity within its Famix class, second part of its key
 	 */
-	protected static Map<String,StubBinding> instances = new HashMap<String, StubBinding>();
+	protected final String entityName;
 
 	/**
-	 * Returns a StubBinding instance that will serve as a key for a Famix Entity.<br>
-	 * First, computes the keyname of the entity (Class name + entity name), then looks in an internal dictionary to see if there is already
-	 * a StubBinding for that keyname, if not creates such StubBinding, returns the StubBinding
-	 * @param clazz Famix class of the entity for which we need a key
-	 * @param id some string identifying as uniquely as possible the entity, within its famix class (e.g. fully qualified package name, name and number of parameter of a method, etc.)
-	 * @return the StubBinding associated with the entity
+	 * Precomputed hash of the key
 	 */
-	public static <T extends NamedEntity>  StubBinding getInstance(Class<T> clazz, String id) {
-		String key = clazz.getName() + KEY_SEPARATOR + id;
-		StubBinding inst;
-		
-		inst = instances.get(key);
-		if (inst == null) {
-			inst = new StubBinding(key);
-			instances.put(key, inst);
-		}
-		return inst;
+	private final int hash;
+
+	protected StubBinding(Class<? extends NamedEntity> entityClass, String entityName) {
+		this.entityClass = entityClass;
+		this.entityName = entityName;
+		this.hash = 31 * entityClass.hashCode() + entityName.hashCode();
 	}
 
-	private StubBinding(String keyname) {
-		this.keyname = keyname;
+	public Class<? extends NamedEntity> getEntityClass() {
+		return entityClass;
 	}
 
-	public String getEntityClass() {
-		int i;
-		i = keyname.indexOf(KEY_SEPARATOR);
-		return keyname.substring(0, i);
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * StubBindings are usually unique for a given key (see {@link StubBindingTable}), but not always,
+	 * so they must be compared on their key
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (! (other instanceof StubBinding)) {
+			return false;
+		}
+		StubBinding stub = (StubBinding) other;
+		return (hash == stub.hash) && (entityClass == stub.entityClass) && entityName.equals(stub.entityName);
 	}
 
+	@Override
+	public int hashCode() {
+		return hash;
+	}
 
-	public String getEntityName() {
-		int i;
-		i = keyname.indexOf(KEY_SEPARATOR);
-		return keyname.substring(i+1);
+	@Override
+	public String toString() {
+		return entityClass.getName() + "/" + entityName;
 	}
 
 	/*
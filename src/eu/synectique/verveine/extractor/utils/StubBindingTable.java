@@ -0,0 +1,144 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.synectique.verveine.core.gen.famix.NamedEntity;
+
+/**
+ * The table of {@link StubBinding} instances of one extraction, so that the same instance is (almost) always associated to a given key.<br>
+ * It belongs to the {@link eu.synectique.verveine.extractor.plugin.CDictionary} of the extraction and is released with it,
+ * several extractions in the same JVM do not share (and accumulate) stub keys.
+ * <p>
+ * The table is thread safe and bounded: once it holds {@link #getMaxSize()} keys, new keys are not interned any more.
+ * This is not a problem for correctness since StubBindings with the same key are equal, only the memory sharing is lost.
+ */
+public class StubBindingTable {
+
+	/**
+	 * Default maximum number of StubBindings interned
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1000000;
+
+	/**
+	 * The instances, by Famix class then by name.
+	 * Having one map per Famix class allows to look for a key without building it
+	 */
+	protected ConcurrentMap<Class<?>,ConcurrentMap<String,StubBinding>> instances;
+
+	/**
+	 * Number of StubBindings interned
+	 */
+	protected AtomicInteger size;
+
+	/**
+	 * Maximum number of StubBindings interned
+	 */
+	protected int maxSize;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong overflows;
+
+	public StubBindingTable(int maxSize) {
+		this.maxSize = maxSize;
+		this.instances = new ConcurrentHashMap<Class<?>,ConcurrentMap<String,StubBinding>>();
+		this.size = new AtomicInteger(0);
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.overflows = new AtomicLong(0);
+	}
+
+	public StubBindingTable() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Returns a StubBinding instance that will serve as a key for a Famix Entity.<br>
+	 * Looks in the table of the Famix class to see if there is already a StubBinding for that id,
+	 * if not creates such StubBinding, returns the StubBinding. No key is built for the lookup
+	 * @param clazz Famix class of the entity for which we need a key
+	 * @param id some string identifying as uniquely as possible the entity, within its famix class (e.g. fully qualified package name, name and number of parameter of a method, etc.)
+	 * @return the StubBinding associated with the entity
+	 */
+	public <T extends NamedEntity> StubBinding getInstance(Class<T> clazz, String id) {
+		ConcurrentMap<String,StubBinding> ofClass = instancesOf(clazz);
+		StubBinding inst;
+
+		inst = ofClass.get(id);
+		if (inst != null) {
+			hits.incrementAndGet();
+			return inst;
+		}
+
+		misses.incrementAndGet();
+		inst = new StubBinding(clazz, id);
+		if (size.get() >= maxSize) {
+			// table is full, the new key is not interned
+			overflows.incrementAndGet();
+			return inst;
+		}
+
+		StubBinding previous = ofClass.putIfAbsent(id, inst);
+		if (previous != null) {
+			return previous;
+		}
+		size.incrementAndGet();
+		return inst;
+	}
+
+	protected ConcurrentMap<String,StubBinding> instancesOf(Class<?> clazz) {
+		ConcurrentMap<String,StubBinding> ofClass = instances.get(clazz);
+		if (ofClass == null) {
+			ConcurrentMap<String,StubBinding> created = new ConcurrentHashMap<String,StubBinding>();
+			ofClass = instances.putIfAbsent(clazz, created);
+			if (ofClass == null) {
+				ofClass = created;
+			}
+		}
+		return ofClass;
+	}
+
+	/**
+	 * Empties the table (statistics are kept)
+	 */
+	public void clear() {
+		instances.clear();
+		size.set(0);
+	}
+
+	// STATISTICS
+
+	public int size() {
+		return size.get();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	public double hitRatio() {
+		return CacheStatistics.hitRatio(getHits(), getMisses());
+	}
+
+	public void report() {
+		long h = getHits();
+		long m = getMisses();
+		CacheStatistics.report("Stub keys", size() + " interned, " + h + " hits, " + m + " misses, " + getOverflows() + " not interned (table full)", h, m);
+	}
+
+}
@@ -0,0 +1,157 @@
+package eu.synectique.verveine.extractor.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.cdt.core.model.CModelException;
+import org.eclipse.cdt.core.model.ICElement;
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.model.IParent;
+import org.eclipse.cdt.core.model.ITranslationUnit;
+
+/**
+ * All the translation units of a project, listed once for all the passes of an extraction run.<br>
+ * Walking the C model of the project (<code>cproject.accept(visitor)</code>) for each pass is costly because visiting a translation unit
+ * makes CDT build its children (a structural parse of the file) even if the pass does not need them.
+ * Here, only the directories of the project are walked, translation units are listed without asking for their children.
+ * <p>
+ * The translation units are kept in the order of <code>cproject.accept()</code>, split into headers and sources (see {@link FileUtil#isHeader(ITranslationUnit)}),
+ * each with the path of its package (the names of the directories containing it, without the leading directories of the Eclipse project).
+ */
+public class TranslationUnitManifest {
+
+	/**
+	 * Leading directories are the path of the project (i.e. tempProj/src), they are not packages
+	 */
+	public static final int NB_LEADING_DIRECTORIES = 2;
+
+	private static final String[] NO_PACKAGE = new String[0];
+
+	protected ITranslationUnit[] translationUnits;
+	protected ITranslationUnit[] headers;
+	protected ITranslationUnit[] sources;
+
+	/**
+	 * Paths of all the packages, a package always comes after its parent
+	 */
+	protected List<String[]> packages;
+
+	/**
+	 * Path of the package of each translation unit (empty if it is directly in a leading directory)
+	 */
+	protected Map<ITranslationUnit,String[]> packageOf;
+
+	protected TranslationUnitManifest(List<ITranslationUnit> tus, List<String[]> packages, Map<ITranslationUnit,String[]> packageOf) {
+		List<ITranslationUnit> hdrs = new ArrayList<ITranslationUnit>();
+		List<ITranslationUnit> srcs = new ArrayList<ITranslationUnit>();
+		for (ITranslationUnit tu : tus) {
+			if (FileUtil.isHeader(tu)) {
+				hdrs.add(tu);
+			}
+			else {
+				srcs.add(tu);
+			}
+		}
+		this.translationUnits = tus.toArray(new ITranslationUnit[tus.size()]);
+		this.headers = hdrs.toArray(new ITranslationUnit[hdrs.size()]);
+		this.sources = srcs.toArray(new ITranslationUnit[srcs.size()]);
+		this.packages = packages;
+		this.packageOf = packageOf;
+	}
+
+	/**
+	 * Lists the translation units and packages of a project
+	 */
+	public static TranslationUnitManifest build(ICProject cproject) throws CModelException {
+		List<ITranslationUnit> tus = new ArrayList<ITranslationUnit>();
+		List<String[]> packages = new ArrayList<String[]>();
+		Map<ITranslationUnit,String[]> packageOf = new HashMap<ITranslationUnit,String[]>();
+
+		collect(cproject, new ArrayList<String>(), tus, packages, packageOf);
+
+		return new TranslationUnitManifest(tus, packages, packageOf);
+	}
+
+	/**
+	 * Walks the directories under <code>parent</code>, <code>path</code> being the names of the directories leading to it
+	 */
+	private static void collect(IParent parent, List<String> path, List<ITranslationUnit> tus, List<String[]> packages, Map<ITranslationUnit,String[]> packageOf) throws CModelException {
+		String[] pckg = packagePath(path);
+		for (ICElement child : parent.getChildren()) {
+			switch (child.getElementType()) {
+			case ICElement.C_CCONTAINER:
+				path.add(child.getElementName());
+				if (path.size() > NB_LEADING_DIRECTORIES) {
+					packages.add(packagePath(path));
+				}
+				collect((IParent) child, path, tus, packages, packageOf);
+				path.remove(path.size() - 1);
+				break;
+			case ICElement.C_UNIT:
+				tus.add((ITranslationUnit) child);
+				packageOf.put((ITranslationUnit) child, pckg);
+				break;
+			default:
+				// not a file or directory
+			}
+		}
+	}
+
+	private static String[] packagePath(List<String> path) {
+		if (path.size() <= NB_LEADING_DIRECTORIES) {
+			return NO_PACKAGE;
+		}
+		List<String> pckg = path.subList(NB_LEADING_DIRECTORIES, path.size());
+		return pckg.toArray(new String[pckg.size()]);
+	}
+
+	/**
+	 * A manifest with only the translation units in <code>selection</code> (the packages are all kept)
+	 */
+	public TranslationUnitManifest select(Set<ITranslationUnit> selection) {
+		List<ITranslationUnit> selected = new ArrayList<ITranslationUnit>(selection.size());
+		for (ITranslationUnit tu : translationUnits) {
+			if (selection.contains(tu)) {
+				selected.add(tu);
+			}
+		}
+		return new TranslationUnitManifest(selected, packages, packageOf);
+	}
+
+	// ACCESSORS
+
+	/**
+	 * All the translation units, in the order of <code>cproject.accept()</code>
+	 */
+	public ITranslationUnit[] getTranslationUnits() {
+		return translationUnits;
+	}
+
+	public ITranslationUnit[] getHeaders() {
+		return headers;
+	}
+
+	public ITranslationUnit[] getSources() {
+		return sources;
+	}
+
+	public List<String[]> getPackages() {
+		return packages;
+	}
+
+	/**
+	 * Names of the directories from the root package to the package of <code>tu</code>, empty if it is not in a package
+	 */
+	public String[] getPackage(ITranslationUnit tu) {
+		String[] pckg = packageOf.get(tu);
+		return (pckg == null) ? NO_PACKAGE : pckg;
+	}
+
+	public int size() {
+		return translationUnits.length;
+	}
+
+}
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.ASTVisitor;
 import org.eclipse.cdt.core.dom.ast.IASTBinaryExpression;
 import org.eclipse.cdt.core.dom.ast.IASTCastExpression;
@@ -23,6 +26,7 @@ import org.eclipse.cdt.core.dom.ast.IASTParameterDeclaration;
 import org.eclipse.cdt.core.dom.ast.IASTSimpleDeclSpecifier;
 import org.eclipse.cdt.core.dom.ast.IASTSimpleDeclaration;
 import org.eclipse.cdt.core.dom.ast.IASTStandardFunctionDeclarator;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
 import org.eclipse.cdt.core.dom.ast.IASTTypeId;
 import org.eclipse.cdt.core.dom.ast.IASTTypeIdExpression;
 import org.eclipse.cdt.core.dom.ast.IASTUnaryExpression;
@@ -42,18 +46,16 @@ import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTVisibilityLabel;
 import org.eclipse.cdt.core.dom.ast.gnu.c.ICASTKnRFunctionDeclarator;
 import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTCompositeTypeSpecifier.ICPPASTBaseSpecifier;
 import org.eclipse.cdt.core.index.IIndex;
-import org.eclipse.cdt.core.model.ICContainer;
 import org.eclipse.cdt.core.model.ICElement;
 import org.eclipse.cdt.core.model.ICElementVisitor;
-import org.eclipse.cdt.core.model.ICProject;
-import org.eclipse.cdt.core.model.IInclude;
-import org.eclipse.cdt.core.model.IParent;
 import org.eclipse.cdt.core.model.ITranslationUnit;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 
 import eu.synectique.verveine.extractor.plugin.Activator;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
+import eu.synectique.verveine.extractor.utils.ASTCache;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
 
 
 /**
@@ -76,6 +78,21 @@ public abstract class AbstractDispatcherVisitor extends ASTVisitor implements IC
 	 */
 	protected CDictionary dico;
 
+	/**
+	 * Cache of ASTs shared by all visitors of an extraction run. May be null, in which case each visitor parses the translation units itself
+	 */
+	protected ASTCache astCache;
+
+	/**
+	 * When not null, this visitor is one of the passes run by a {@link CompositeVisitor} that traverses the ASTs for it
+	 */
+	protected CompositeVisitor composite = null;
+
+	/**
+	 * When not null, only these translation units are visited (incremental extraction)
+	 */
+	protected Set<ITranslationUnit> selection = null;
+
 
 	// CONSTRUCTOR ==========================================================================================================================
 
@@ -98,22 +115,42 @@ public abstract class AbstractDispatcherVisitor extends ASTVisitor implements IC
 
 	abstract protected String msgTrace();
 
+	/**
+	 * The parts of the model this pass needs, i.e. the passes creating them must be run before this one (see {@link ModelPart})
+	 */
+	public Set<ModelPart> inputs() {
+		return EnumSet.noneOf(ModelPart.class);
+	}
+
+	/**
+	 * The parts of the model this pass creates
+	 */
+	public Set<ModelPart> outputs() {
+		return EnumSet.noneOf(ModelPart.class);
+	}
+
+	public void setASTCache(ASTCache astCache) {
+		this.astCache = astCache;
+	}
+
+	public void setComposite(CompositeVisitor composite) {
+		this.composite = composite;
+	}
+
+	public void setSelection(Set<ITranslationUnit> selection) {
+		this.selection = selection;
+	}
+
 	// VISITING METODS ON ICELEMENT HIERARCHY (ICElementVisitor) ===========================================================================
 
 	@Override
 	public boolean visit(ICElement elt) {
 		switch (elt.getElementType()) {
-		case ICElement.C_PROJECT:
-			visit( (ICProject) elt);
-			break;
-		case ICElement.C_CCONTAINER:
-			visit( (ICContainer) elt);
-			break;
 		case ICElement.C_UNIT:
-			visit( (ITranslationUnit) elt);
-			break;
-		case ICElement.C_INCLUDE:
-			visit( (IInclude) elt);
+			if ( (selection == null) || selection.contains(elt) ) {
+				visit( (ITranslationUnit) elt);
+				dico.translationUnitDone();
+			}
 			break;
 
 		default:
@@ -122,30 +159,64 @@ public abstract class AbstractDispatcherVisitor extends ASTVisitor implements IC
 		return false;
 	}
 
-	public void visit(ICProject project) {
-		visitChildren(project);
+	/**
+	 * This is the method merging ICElementVisitor and ASTVisitor.<br>
+	 * The children of the translation unit (ICElementVisitor) are not visited: CDT would have to build them,
+	 * the includes are read from the index (see {@link IncludeVisitor})
+	 */
+	public void visit(ITranslationUnit elt) {
+		visitAST(elt);
 	}
 
-	public void visit(ICContainer cont) {
-		visitChildren(cont);
-	}
+	// VISITING METODS ON THE TRANSLATION UNITS MANIFEST ==================================================================================
 
-	public void visit(IInclude project) {
+	/**
+	 * Visits all the translation units of the manifest, without walking the C model of the project
+	 */
+	public void visit(TranslationUnitManifest manifest) {
+		for (ITranslationUnit tu : manifest.getTranslationUnits()) {
+			visit(manifest, tu);
+		}
 	}
 
-	public void visit(ITranslationUnit elt) {
-		// this is the method merging ICElementVisitor and ASTVisitor
+	/**
+	 * Visits one translation unit of the manifest (if it is in the {@link #selection})
+	 */
+	public void visit(TranslationUnitManifest manifest, ITranslationUnit tu) {
+		if ( (selection == null) || selection.contains(tu) ) {
+			visit(tu);
+			dico.translationUnitDone();
+		}
+	}
 
-		// visit children (ICElementVisitor) ...
-		visitChildren(elt);
+	/**
+	 * Visits the AST of a translation unit (ASTVisitor part of the visit)
+	 */
+	protected void visitAST(ITranslationUnit elt) {
+		if (composite != null) {
+			composite.waitForAST(this);
+			return;
+		}
 		try {
-			// ... then visit AST (ASTVisitor)
-			elt.getAST(index, ITranslationUnit.AST_CONFIGURE_USING_SOURCE_CONTEXT | ITranslationUnit.AST_SKIP_INDEXED_HEADERS).accept(this);
+			IASTTranslationUnit ast = getAST(elt);
+			if (ast != null) {
+				ast.accept(this);
+			}
 		} catch (CoreException e) {
 			Activator.log(IStatus.ERROR, "Got CoreException (\""+ e.getMessage() +"\") while getting AST of "+ elt.getElementName() );
 		}
 	}
 
+	/**
+	 * Returns the AST of a translation unit, from the AST cache if there is one
+	 */
+	protected IASTTranslationUnit getAST(ITranslationUnit elt) throws CoreException {
+		if (astCache != null) {
+			return astCache.getAST(elt);
+		}
+		return elt.getAST(index, ASTCache.AST_STYLE);
+	}
+
 
 	// CDT VISITING METODS ON AST (ASTVisitor) =============================================================================================
 
@@ -468,16 +539,4 @@ public abstract class AbstractDispatcherVisitor extends ASTVisitor implements IC
 		return PROCESS_CONTINUE;
 	}
 
-	// UTILITIES ======================================================================================================
-
-	protected void visitChildren(IParent elt) {
-		try {
-			for (ICElement child : elt.getChildren()) {
-				child.accept(this);
-			}
-		} catch (CoreException e) {
-			e.printStackTrace();
-		}
-	}
-
 }
\ No newline at end of file
@@ -82,7 +82,7 @@ public abstract class AbstractVisitor extends AbstractDispatcherVisitor {
 	@Override
 	public void visit(ITranslationUnit elt) {
 		setContext(new CppEntityStack());
-		this.filename = FileUtil.localized(elt.getFile().getRawLocation().toString(), rootFolder);
+		this.filename = FileUtil.localized(FileUtil.location(elt.getFile()), rootFolder);
 		super.visit(elt);
 	}
 
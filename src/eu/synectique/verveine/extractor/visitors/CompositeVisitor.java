@@ -0,0 +1,447 @@
+package eu.synectique.verveine.extractor.visitors;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.cdt.core.dom.ast.ASTVisitor;
+import org.eclipse.cdt.core.dom.ast.IASTDeclSpecifier;
+import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
+import org.eclipse.cdt.core.dom.ast.IASTDeclarator;
+import org.eclipse.cdt.core.dom.ast.IASTEnumerationSpecifier.IASTEnumerator;
+import org.eclipse.cdt.core.dom.ast.IASTExpression;
+import org.eclipse.cdt.core.dom.ast.IASTInitializer;
+import org.eclipse.cdt.core.dom.ast.IASTName;
+import org.eclipse.cdt.core.dom.ast.IASTNode;
+import org.eclipse.cdt.core.dom.ast.IASTParameterDeclaration;
+import org.eclipse.cdt.core.dom.ast.IASTPointerOperator;
+import org.eclipse.cdt.core.dom.ast.IASTProblem;
+import org.eclipse.cdt.core.dom.ast.IASTStatement;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.dom.ast.IASTTypeId;
+import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTCompositeTypeSpecifier.ICPPASTBaseSpecifier;
+import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTNamespaceDefinition;
+import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTTemplateParameter;
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.model.ITranslationUnit;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+
+import eu.synectique.verveine.extractor.plugin.Activator;
+import eu.synectique.verveine.extractor.plugin.CDictionary;
+
+/**
+ * A visitor running several independent passes (sub-visitors) in a single traversal of each AST.<BR>
+ * Each AST node is forwarded to all the sub-visitors, in the order they were given.
+ * Each sub-visitor keeps its own state (context stack, flags, ...) and its own skip/abort state:
+ * when a sub-visitor returns {@link ASTVisitor#PROCESS_SKIP} for a node, it does not see the descendants of this node
+ * (nor its <code>leave()</code>), but the other sub-visitors still do.
+ * The traversal itself skips a node only when all sub-visitors skip it.
+ * <p>
+ * The sub-visitors still do their own ICElement visit of the translation unit (see {@link #visit(ITranslationUnit)}),
+ * only the AST traversal is shared.
+ */
+public class CompositeVisitor extends AbstractDispatcherVisitor {
+
+	/*
+	 * The kinds of nodes ASTVisitor has visit/leave methods for
+	 */
+	private static final int TRANSLATION_UNIT = 0;
+	private static final int NAME = 1;
+	private static final int DECLARATION = 2;
+	private static final int INITIALIZER = 3;
+	private static final int PARAMETER_DECLARATION = 4;
+	private static final int DECLARATOR = 5;
+	private static final int DECL_SPECIFIER = 6;
+	private static final int POINTER_OPERATOR = 7;
+	private static final int EXPRESSION = 8;
+	private static final int STATEMENT = 9;
+	private static final int TYPE_ID = 10;
+	private static final int ENUMERATOR = 11;
+	private static final int PROBLEM = 12;
+	private static final int BASE_SPECIFIER = 13;
+	private static final int NAMESPACE = 14;
+	private static final int TEMPLATE_PARAMETER = 15;
+
+	/**
+	 * The passes run by this visitor
+	 */
+	protected AbstractDispatcherVisitor[] subVisitors;
+
+	/**
+	 * Sub-visitors that asked for the AST of the translation unit being visited
+	 * (see {@link AbstractDispatcherVisitor#visitAST(ITranslationUnit)})
+	 */
+	protected List<AbstractDispatcherVisitor> waiting;
+
+	/**
+	 * Sub-visitors taking part to the current AST traversal
+	 */
+	private AbstractDispatcherVisitor[] active;
+
+	/**
+	 * For each active sub-visitor, the node for which it returned PROCESS_SKIP, or null if it is not skipping a sub-tree
+	 */
+	private IASTNode[] skipping;
+
+	/**
+	 * For each active sub-visitor, whether it returned PROCESS_ABORT
+	 */
+	private boolean[] aborted;
+
+	public CompositeVisitor(CDictionary dico, IIndex index, AbstractDispatcherVisitor... subVisitors) {
+		super(dico, index);
+		this.subVisitors = subVisitors;
+		this.waiting = new ArrayList<AbstractDispatcherVisitor>(subVisitors.length);
+		for (AbstractDispatcherVisitor sub : subVisitors) {
+			sub.setComposite(this);
+		}
+	}
+
+	@Override
+	protected String msgTrace() {
+		return null;
+	}
+
+	/**
+	 * What the sub-visitors need, except what they create themselves
+	 */
+	@Override
+	public Set<ModelPart> inputs() {
+		Set<ModelPart> inputs = EnumSet.noneOf(ModelPart.class);
+		for (AbstractDispatcherVisitor sub : subVisitors) {
+			inputs.addAll(sub.inputs());
+		}
+		inputs.removeAll(outputs());
+		return inputs;
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		Set<ModelPart> outputs = EnumSet.noneOf(ModelPart.class);
+		for (AbstractDispatcherVisitor sub : subVisitors) {
+			outputs.addAll(sub.outputs());
+		}
+		return outputs;
+	}
+
+	/**
+	 * Lets all sub-visitors visit the translation unit (ICElementVisitor part),
+	 * then does one traversal of the AST for all the sub-visitors that asked for it
+	 */
+	@Override
+	public void visit(ITranslationUnit elt) {
+		waiting.clear();
+		for (AbstractDispatcherVisitor sub : subVisitors) {
+			sub.visit(elt);
+		}
+
+		if (waiting.isEmpty()) {
+			return;
+		}
+
+		active = waiting.toArray(new AbstractDispatcherVisitor[waiting.size()]);
+		skipping = new IASTNode[active.length];
+		aborted = new boolean[active.length];
+		try {
+			IASTTranslationUnit ast = getAST(elt);
+			if (ast != null) {
+				ast.accept(this);
+			}
+		} catch (CoreException e) {
+			Activator.log(IStatus.ERROR, "Got CoreException (\""+ e.getMessage() +"\") while getting AST of "+ elt.getElementName() );
+		}
+		active = null;
+	}
+
+	/**
+	 * Called by a sub-visitor instead of traversing the AST itself
+	 */
+	protected void waitForAST(AbstractDispatcherVisitor sub) {
+		waiting.add(sub);
+	}
+
+	// FORWARDING ==========================================================================================================================
+
+	/**
+	 * Forwards the visit of a node to all the sub-visitors that are not skipping it and computes the result for the traversal:
+	 * PROCESS_CONTINUE if at least one sub-visitor wants to see the children, PROCESS_ABORT if all sub-visitors aborted,
+	 * PROCESS_SKIP otherwise
+	 */
+	private int forwardVisit(IASTNode node, int kind) {
+		boolean someContinue = false;
+		boolean allAborted = true;
+
+		for (int i=0; i < active.length; i++) {
+			if (aborted[i]) {
+				continue;
+			}
+			if (skipping[i] == null) {
+				switch (dispatchVisit(active[i], node, kind)) {
+				case PROCESS_SKIP:
+					skipping[i] = node;
+					break;
+				case PROCESS_ABORT:
+					aborted[i] = true;
+					break;
+				default:
+					someContinue = true;
+				}
+			}
+			else {
+				// still inside the sub-tree this sub-visitor skips. No need to go down for it, but the others may need to
+			}
+			allAborted = allAborted && aborted[i];
+		}
+
+		if (someContinue) {
+			return PROCESS_CONTINUE;
+		}
+		else if (allAborted) {
+			return PROCESS_ABORT;
+		}
+		else {
+			// leave() will not be called on this node, so the sub-visitors that started skipping here are done with it
+			clearSkipping(node);
+			return PROCESS_SKIP;
+		}
+	}
+
+	/**
+	 * Forwards <code>leave()</code> of a node to the sub-visitors that visited its children
+	 */
+	private int forwardLeave(IASTNode node, int kind) {
+		boolean allAborted = true;
+
+		for (int i=0; i < active.length; i++) {
+			if (aborted[i]) {
+				continue;
+			}
+			if (skipping[i] == node) {
+				skipping[i] = null;    // end of the skipped sub-tree, no leave() because the visit returned PROCESS_SKIP
+			}
+			else if ( (skipping[i] == null) && (dispatchLeave(active[i], node, kind) == PROCESS_ABORT) ) {
+				aborted[i] = true;
+			}
+			allAborted = allAborted && aborted[i];
+		}
+
+		return allAborted ? PROCESS_ABORT : PROCESS_CONTINUE;
+	}
+
+	private void clearSkipping(IASTNode node) {
+		for (int i=0; i < active.length; i++) {
+			if (skipping[i] == node) {
+				skipping[i] = null;
+			}
+		}
+	}
+
+	private int dispatchVisit(AbstractDispatcherVisitor sub, IASTNode node, int kind) {
+		switch (kind) {
+		case TRANSLATION_UNIT:		return sub.visit((IASTTranslationUnit) node);
+		case NAME:					return sub.visit((IASTName) node);
+		case DECLARATION:			return sub.visit((IASTDeclaration) node);
+		case INITIALIZER:			return sub.visit((IASTInitializer) node);
+		case PARAMETER_DECLARATION:	return sub.visit((IASTParameterDeclaration) node);
+		case DECLARATOR:			return sub.visit((IASTDeclarator) node);
+		case DECL_SPECIFIER:		return sub.visit((IASTDeclSpecifier) node);
+		case POINTER_OPERATOR:		return sub.visit((IASTPointerOperator) node);
+		case EXPRESSION:			return sub.visit((IASTExpression) node);
+		case STATEMENT:				return sub.visit((IASTStatement) node);
+		case TYPE_ID:				return sub.visit((IASTTypeId) node);
+		case ENUMERATOR:			return sub.visit((IASTEnumerator) node);
+		case PROBLEM:				return sub.visit((IASTProblem) node);
+		case BASE_SPECIFIER:		return sub.visit((ICPPASTBaseSpecifier) node);
+		case NAMESPACE:				return sub.visit((ICPPASTNamespaceDefinition) node);
+		case TEMPLATE_PARAMETER:	return sub.visit((ICPPASTTemplateParameter) node);
+		default:					return PROCESS_CONTINUE;
+		}
+	}
+
+	private int dispatchLeave(AbstractDispatcherVisitor sub, IASTNode node, int kind) {
+		switch (kind) {
+		case TRANSLATION_UNIT:		return sub.leave((IASTTranslationUnit) node);
+		case NAME:					return sub.leave((IASTName) node);
+		case DECLARATION:			return sub.leave((IASTDeclaration) node);
+		case INITIALIZER:			return sub.leave((IASTInitializer) node);
+		case PARAMETER_DECLARATION:	return sub.leave((IASTParameterDeclaration) node);
+		case DECLARATOR:			return sub.leave((IASTDeclarator) node);
+		case DECL_SPECIFIER:		return sub.leave((IASTDeclSpecifier) node);
+		case POINTER_OPERATOR:		return sub.leave((IASTPointerOperator) node);
+		case EXPRESSION:			return sub.leave((IASTExpression) node);
+		case STATEMENT:				return sub.leave((IASTStatement) node);
+		case TYPE_ID:				return sub.leave((IASTTypeId) node);
+		case ENUMERATOR:			return sub.leave((IASTEnumerator) node);
+		case PROBLEM:				return sub.leave((IASTProblem) node);
+		case BASE_SPECIFIER:		return sub.leave((ICPPASTBaseSpecifier) node);
+		case NAMESPACE:				return sub.leave((ICPPASTNamespaceDefinition) node);
+		case TEMPLATE_PARAMETER:	return sub.leave((ICPPASTTemplateParameter) node);
+		default:					return PROCESS_CONTINUE;
+		}
+	}
+
+	// CDT VISITING METODS ON AST (ASTVisitor) =============================================================================================
+
+	@Override
+	public int visit(IASTTranslationUnit node) {
+		return forwardVisit(node, TRANSLATION_UNIT);
+	}
+
+	@Override
+	public int leave(IASTTranslationUnit node) {
+		return forwardLeave(node, TRANSLATION_UNIT);
+	}
+
+	@Override
+	public int visit(IASTName node) {
+		return forwardVisit(node, NAME);
+	}
+
+	@Override
+	public int leave(IASTName node) {
+		return forwardLeave(node, NAME);
+	}
+
+	@Override
+	public int visit(IASTDeclaration node) {
+		return forwardVisit(node, DECLARATION);
+	}
+
+	@Override
+	public int leave(IASTDeclaration node) {
+		return forwardLeave(node, DECLARATION);
+	}
+
+	@Override
+	public int visit(IASTInitializer node) {
+		return forwardVisit(node, INITIALIZER);
+	}
+
+	@Override
+	public int leave(IASTInitializer node) {
+		return forwardLeave(node, INITIALIZER);
+	}
+
+	@Override
+	public int visit(IASTParameterDeclaration node) {
+		return forwardVisit(node, PARAMETER_DECLARATION);
+	}
+
+	@Override
+	public int leave(IASTParameterDeclaration node) {
+		return forwardLeave(node, PARAMETER_DECLARATION);
+	}
+
+	@Override
+	public int visit(IASTDeclarator node) {
+		return forwardVisit(node, DECLARATOR);
+	}
+
+	@Override
+	public int leave(IASTDeclarator node) {
+		return forwardLeave(node, DECLARATOR);
+	}
+
+	@Override
+	public int visit(IASTDeclSpecifier node) {
+		return forwardVisit(node, DECL_SPECIFIER);
+	}
+
+	@Override
+	public int leave(IASTDeclSpecifier node) {
+		return forwardLeave(node, DECL_SPECIFIER);
+	}
+
+	@Override
+	public int visit(IASTPointerOperator node) {
+		return forwardVisit(node, POINTER_OPERATOR);
+	}
+
+	@Override
+	public int leave(IASTPointerOperator node) {
+		return forwardLeave(node, POINTER_OPERATOR);
+	}
+
+	@Override
+	public int visit(IASTExpression node) {
+		return forwardVisit(node, EXPRESSION);
+	}
+
+	@Override
+	public int leave(IASTExpression node) {
+		return forwardLeave(node, EXPRESSION);
+	}
+
+	@Override
+	public int visit(IASTStatement node) {
+		return forwardVisit(node, STATEMENT);
+	}
+
+	@Override
+	public int leave(IASTStatement node) {
+		return forwardLeave(node, STATEMENT);
+	}
+
+	@Override
+	public int visit(IASTTypeId node) {
+		return forwardVisit(node, TYPE_ID);
+	}
+
+	@Override
+	public int leave(IASTTypeId node) {
+		return forwardLeave(node, TYPE_ID);
+	}
+
+	@Override
+	public int visit(IASTEnumerator node) {
+		return forwardVisit(node, ENUMERATOR);
+	}
+
+	@Override
+	public int leave(IASTEnumerator node) {
+		return forwardLeave(node, ENUMERATOR);
+	}
+
+	@Override
+	public int visit(IASTProblem node) {
+		return forwardVisit(node, PROBLEM);
+	}
+
+	@Override
+	public int leave(IASTProblem node) {
+		return forwardLeave(node, PROBLEM);
+	}
+
+	@Override
+	public int visit(ICPPASTBaseSpecifier node) {
+		return forwardVisit(node, BASE_SPECIFIER);
+	}
+
+	@Override
+	public int leave(ICPPASTBaseSpecifier node) {
+		return forwardLeave(node, BASE_SPECIFIER);
+	}
+
+	@Override
+	public int visit(ICPPASTNamespaceDefinition node) {
+		return forwardVisit(node, NAMESPACE);
+	}
+
+	@Override
+	public int leave(ICPPASTNamespaceDefinition node) {
+		return forwardLeave(node, NAMESPACE);
+	}
+
+	@Override
+	public int visit(ICPPASTTemplateParameter node) {
+		return forwardVisit(node, TEMPLATE_PARAMETER);
+	}
+
+	@Override
+	public int leave(ICPPASTTemplateParameter node) {
+		return forwardLeave(node, TEMPLATE_PARAMETER);
+	}
+
+}
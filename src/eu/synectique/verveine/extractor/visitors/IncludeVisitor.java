@@ -1,100 +1,152 @@
 package eu.synectique.verveine.extractor.visitors;
 
-import java.io.File;
 import java.io.PrintStream;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.cdt.core.dom.ast.IBinding;
 import org.eclipse.cdt.core.index.IIndex;
-import org.eclipse.cdt.core.model.ICProject;
-import org.eclipse.cdt.core.model.IInclude;
+import org.eclipse.cdt.core.index.IIndexFile;
+import org.eclipse.cdt.core.index.IIndexFileLocation;
+import org.eclipse.cdt.core.index.IIndexInclude;
+import org.eclipse.cdt.core.index.IndexLocationFactory;
 import org.eclipse.cdt.core.model.ITranslationUnit;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 
 import eu.synectique.verveine.core.gen.famix.CFile;
 import eu.synectique.verveine.extractor.plugin.Activator;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
-import eu.synectique.verveine.extractor.plugin.VerveineCParser;
 import eu.synectique.verveine.extractor.utils.FileUtil;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
 
 public class IncludeVisitor extends AbstractVisitor {
 
 	protected CFile currentFile;
 
-	/**
-	 * Prefix to remove from file names
-	 */
-	protected String projectRootFolder;
-
 	/**
 	 * A set of all unresolved includes so that we report them only once
 	 */
 	protected Set<String> unresolvedIncludes;
 
 	/**
-	 * Full path of the project root
+	 * While reading the includes from the index, files of the translation units extracted by their location
 	 */
-	private String projPath;
+	protected Map<URI,CFile> projectFiles;
 
 	public IncludeVisitor(CDictionary dico, IIndex index, String rootFolder) {
 		super(dico, index, rootFolder);
 		unresolvedIncludes = new HashSet<String>();
-		int i = rootFolder.indexOf(VerveineCParser.WORKSPACE_NAME);
-		if (i > 0) {		
-			this.projectRootFolder = rootFolder.substring(i+VerveineCParser.WORKSPACE_NAME.length());
-		}
 	}
 
 	protected String msgTrace() {
 		return "checking unresolved includes";
 	}
 
-	public void visit(ICProject project) {
-		projPath = project.getLocationURI().getRawPath();
-		int i = projPath.lastIndexOf(File.separator);
-		if (i > 0) {
-			projPath=projPath.substring(0, i);
-		}
-		super.visit(project);
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.noneOf(ModelPart.class);
 	}
 
 	@Override
-	public void visit(ITranslationUnit elt) {
-		String filename = elt.getFile().getFullPath().toString();        // fullPath relative to project directory
-		IBinding key = resolver.mkStubKey(projPath+filename, /*container*/null, CFile.class);   // better not to localize filename for the key
-		currentFile = dico.ensureFamixCFile(key, FileUtil.localized(filename, projectRootFolder));
-		
-		// overriding superclass visit() to not visit AST but only the children
-		visitChildren(elt);
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.FILES, ModelPart.INCLUDES);
 	}
 
-	public void visit(IInclude elt) {
+	/**
+	 * Reads the includes of all the translation units from the CDT index in one sweep, in the order of the manifest.<br>
+	 * A file may be several times in the index (e.g. for different macro definitions), each include directive is only taken once.
+	 */
+	@Override
+	public void visit(TranslationUnitManifest manifest) {
+		projectFiles = new HashMap<URI,CFile>();
+		for (ITranslationUnit tu : manifest.getTranslationUnits()) {
+			if ( (selection == null) || selection.contains(tu) ) {
+				projectFiles.put(tu.getLocationURI(), ensureFile(tu));
+			}
+		}
+
+		try {
+			index.acquireReadLock();
+		} catch (InterruptedException e) {
+			Activator.log(IStatus.ERROR, "Interrupted while waiting for the index read lock");
+			return;
+		}
+		try {
+			Set<String> directives = new HashSet<String>();
+			for (ITranslationUnit tu : manifest.getTranslationUnits()) {
+				URI location = tu.getLocationURI();
+				currentFile = projectFiles.get(location);
+				IIndexFileLocation ifl = IndexLocationFactory.getIFL(tu);
+				if ( (currentFile == null) || (ifl == null) ) {
+					continue;    // not selected, or not a file of the file system
+				}
+				for (IIndexFile file : index.getFiles(ifl)) {
+					for (IIndexInclude inc : file.getIncludes()) {
+						if (directives.add(location.getPath() + "@" + inc.getNameOffset())) {
+							visit(inc);
+						}
+					}
+				}
+			}
+		} catch (CoreException e) {
+			Activator.log(IStatus.ERROR, "Got CoreException (\""+ e.getMessage() +"\") while reading includes from the index");
+		} finally {
+			index.releaseReadLock();
+		}
+		projectFiles = null;
+	}
+
+	protected void visit(IIndexInclude inc) throws CoreException {
 		CFile included;
-		String includedName;
-		IBinding key;
-	
-		if (elt.isResolved()) {
-			includedName = elt.getFullFileName();                       // fullpath relative to the entire file system
-			key = resolver.mkStubKey(includedName, /*container*/null, CFile.class);
-			includedName = FileUtil.localized(includedName, rootFolder);
+
+		if (inc.isResolved()) {
+			URI location = inc.getIncludesLocation().getURI();
+			included = projectFiles.get(location);
+			if (included == null) {
+				included = includedFile(location.getPath());
+			}
 		}
 		else {
-			String includeStr;
-			includeStr = elt.isLocal() ? "\"" : "<";
-			includeStr += elt.getIncludeName();
-			includeStr += elt.isLocal() ? "\"" : ">";
-			if (! unresolvedIncludes.contains(includeStr)) {
-				unresolvedIncludes.add(includeStr);
-			}
-			includedName = elt.getIncludeName();
-			key = resolver.mkStubKey(includedName, /*container*/null, CFile.class);
+			included = unresolvedFile(inc.getFullName(), ! inc.isSystemInclude());
 		}
 
-		included = dico.ensureFamixCFile(key, includedName);
 		dico.addFamixInclude(currentFile, included);
 	}
 
+	protected CFile ensureFile(ITranslationUnit elt) {
+		String filename = FileUtil.location(elt.getFile());        // fullpath relative to the entire file system (source files may be copied or linked)
+		IBinding key = resolver.mkStubKey(filename, /*container*/null, CFile.class);   // better not to localize filename for the key
+		return dico.ensureFamixCFile(key, FileUtil.localized(filename, rootFolder));
+	}
+
+	/**
+	 * @param includedName -- fullpath relative to the entire file system
+	 */
+	protected CFile includedFile(String includedName) {
+		IBinding key = resolver.mkStubKey(includedName, /*container*/null, CFile.class);
+		return dico.ensureFamixCFile(key, FileUtil.localized(includedName, rootFolder));
+	}
+
+	/**
+	 * @param includedName -- the name as written in the include directive
+	 */
+	protected CFile unresolvedFile(String includedName, boolean local) {
+		String includeStr;
+		includeStr = local ? "\"" : "<";
+		includeStr += includedName;
+		includeStr += local ? "\"" : ">";
+		if (! unresolvedIncludes.contains(includeStr)) {
+			unresolvedIncludes.add(includeStr);
+		}
+		IBinding key = resolver.mkStubKey(includedName, /*container*/null, CFile.class);
+		return dico.ensureFamixCFile(key, includedName);
+	}
+
 	public int nbUnresolvedIncludes() {
 		return unresolvedIncludes.size();
 	}
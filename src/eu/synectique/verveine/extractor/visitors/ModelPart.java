@@ -0,0 +1,39 @@
+package eu.synectique.verveine.extractor.visitors;
+
+/**
+ * The parts of the model created by the passes (visitors) of an extraction.<br>
+ * Each pass declares the parts it needs and the parts it creates (see {@link AbstractDispatcherVisitor#inputs()} and
+ * {@link AbstractDispatcherVisitor#outputs()}), from which {@link eu.synectique.verveine.extractor.plugin.PassScheduler} knows
+ * in which order they must run and which ones may run at the same time.
+ */
+public enum ModelPart {
+	FILES,
+	INCLUDES,
+	PACKAGES,
+	NAMESPACES,
+	TYPES,
+	/**
+	 * Functions and methods declared in header files
+	 */
+	BEHAVIOURAL_DECLARATIONS,
+	/**
+	 * Functions and methods defined in the other files
+	 */
+	BEHAVIOURALS,
+	TEMPLATE_PARAMETERS,
+	/**
+	 * Attributes and global variables
+	 */
+	ATTRIBUTES,
+	INHERITANCES,
+	/**
+	 * Declared types of variables and return types of behaviourals
+	 */
+	DECLARED_TYPES,
+	/**
+	 * Invocations, accesses, and references
+	 */
+	REFERENCES,
+	COMMENTS,
+	PREPROCESSOR_STATEMENTS
+}
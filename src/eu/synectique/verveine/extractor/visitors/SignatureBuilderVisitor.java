@@ -84,7 +84,7 @@ public class SignatureBuilderVisitor extends AbstractVisitor {
 	@Override
 	protected int visit(IASTStandardFunctionDeclarator node) {
 		// name
-		signature = new QualifiedName(node.getName()).unqualifiedName();
+		signature = QualifiedName.valueOf(node.getName()).unqualifiedName();
 		// parameters
 		visitParameters(node.getParameters());
 		// return type
@@ -96,7 +96,7 @@ public class SignatureBuilderVisitor extends AbstractVisitor {
 	@Override
 	protected int visit(ICASTKnRFunctionDeclarator node) {
 		// name
-		signature = new QualifiedName(node.getName()).unqualifiedName();
+		signature = QualifiedName.valueOf(node.getName()).unqualifiedName();
 		// parameters
 		visitParameters(node.getParameterDeclarations());
 		// return type
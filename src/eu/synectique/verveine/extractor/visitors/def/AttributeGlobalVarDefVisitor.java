@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTDeclarator;
 import org.eclipse.cdt.core.dom.ast.IASTEnumerationSpecifier;
 import org.eclipse.cdt.core.dom.ast.IASTEnumerationSpecifier.IASTEnumerator;
@@ -28,6 +31,7 @@ import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.core.gen.famix.UnknownVariable;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.utils.QualifiedName;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class AttributeGlobalVarDefVisitor extends ClassMemberDefVisitor {
 
@@ -46,6 +50,16 @@ public class AttributeGlobalVarDefVisitor extends ClassMemberDefVisitor {
 		return "creating attributes and struct members";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.FILES, ModelPart.TYPES);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.ATTRIBUTES);
+	}
+
 	/*
 	 * To avoid type name with "parameter" as in: aType<aParam>
 	 */
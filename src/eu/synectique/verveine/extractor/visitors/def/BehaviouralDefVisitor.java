@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTCaseStatement;
 import org.eclipse.cdt.core.dom.ast.IASTCompoundStatement;
 import org.eclipse.cdt.core.dom.ast.IASTDeclSpecifier;
@@ -34,6 +37,8 @@ import eu.synectique.verveine.core.gen.famix.Parameter;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.utils.FileUtil;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 /**
  * A visitor for Behavioural entities: Functions and methods.
@@ -92,6 +97,32 @@ public class BehaviouralDefVisitor extends ClassMemberDefVisitor {
 		this.headerFiles = head;
 	}
 
+	/**
+	 * Definitions in .c files need the declarations in .h files
+	 */
+	@Override
+	public Set<ModelPart> inputs() {
+		if (headerFiles) {
+			return EnumSet.of(ModelPart.FILES, ModelPart.TYPES);
+		}
+		return EnumSet.of(ModelPart.FILES, ModelPart.TYPES, ModelPart.BEHAVIOURAL_DECLARATIONS);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(headerFiles ? ModelPart.BEHAVIOURAL_DECLARATIONS : ModelPart.BEHAVIOURALS);
+	}
+
+	/**
+	 * Overridden to visit only .h or .c files of the manifest, already sorted
+	 */
+	@Override
+	public void visit(TranslationUnitManifest manifest) {
+		for (ITranslationUnit tu : (headerFiles ? manifest.getHeaders() : manifest.getSources()) ) {
+			visit(manifest, tu);
+		}
+	}
+
 	/**
 	 * Overridden to visit only .h or .c files
 	 */
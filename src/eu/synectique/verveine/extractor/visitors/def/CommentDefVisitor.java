@@ -1,18 +1,19 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTComment;
 import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
 import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
 import org.eclipse.cdt.core.index.IIndex;
 import org.eclipse.cdt.core.model.ITranslationUnit;
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IStatus;
 
 import eu.synectique.verveine.core.gen.famix.Comment;
-import eu.synectique.verveine.extractor.plugin.Activator;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.utils.FileUtil;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class CommentDefVisitor extends AbstractVisitor {
 
@@ -24,17 +25,23 @@ public class CommentDefVisitor extends AbstractVisitor {
 		return "extracting comments";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.noneOf(ModelPart.class);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.COMMENTS);
+	}
+
 	/*
 	 * Redefined because no need to visit the children, only the AST
 	 */
 	public void visit(ITranslationUnit elt) {
-		this.filename = FileUtil.localized(elt.getFile().getRawLocation().toString(), rootFolder);
+		this.filename = FileUtil.localized(FileUtil.location(elt.getFile()), rootFolder);
 
-		try {
-			elt.getAST(index, ITranslationUnit.AST_CONFIGURE_USING_SOURCE_CONTEXT | ITranslationUnit.AST_SKIP_INDEXED_HEADERS).accept(this);
-		} catch (CoreException e) {
-			Activator.log(IStatus.ERROR,"Got CoreException (\""+ e.getMessage() +"\") while getting AST of "+ elt.getElementName() );
-		}
+		visitAST(elt);
 	}
 
 	@Override
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
 import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTNamespaceDefinition;
 import org.eclipse.cdt.core.index.IIndex;
@@ -7,6 +10,7 @@ import org.eclipse.cdt.core.index.IIndex;
 import eu.synectique.verveine.core.gen.famix.Namespace;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class NamespaceDefVisitor extends AbstractVisitor {
 
@@ -26,6 +30,16 @@ public class NamespaceDefVisitor extends AbstractVisitor {
 		return "creating namespaces";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.FILES);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.NAMESPACES);
+	}
+
 	@Override
 	public int visit(ICPPASTNamespaceDefinition node) {
 		Namespace fmx;
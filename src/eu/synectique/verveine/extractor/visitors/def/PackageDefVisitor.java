@@ -1,57 +1,47 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
-import org.eclipse.cdt.core.model.ICContainer;
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.model.ITranslationUnit;
 
 import eu.synectique.verveine.core.gen.famix.Package;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
 import eu.synectique.verveine.extractor.visitors.AbstractDispatcherVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class PackageDefVisitor extends AbstractDispatcherVisitor {
 
-	/**
-	 * The file directory being visited at any given time
-	 */
-	protected eu.synectique.verveine.core.gen.famix.Package currentPackage = null;
-
-	/**
-	 * Leading directory are the path of the project.
-	 * We do not create packages for these, so we must remember how deep in the directory hierarchy we are,
-	 * to know when to create packages
-	 */
-	protected int nbOfLeadingDirectory;
-
 	public PackageDefVisitor(CDictionary dico) {
 		super(dico, null);
-		nbOfLeadingDirectory = 2;  // i.e. tempProj/src
 	}
 
 	protected String msgTrace() {
 		return "creating packages";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.noneOf(ModelPart.class);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.PACKAGES);
+	}
+
 	/**
-	 * File directories are treated as Package
+	 * Packages of the manifest, each one comes after its parent package
 	 */
 	@Override
-	public void visit(ICContainer elt) {
-		Package fmx = null;
-		
-		nbOfLeadingDirectory--; // one directory less
-
-		if (nbOfLeadingDirectory < 0) {
-			fmx = dico.ensureFamixPackage(elt.getElementName(), currentPackage);
-			fmx.setIsStub(false);
-			currentPackage = fmx;
+	public void visit(TranslationUnitManifest manifest) {
+		for (String[] path : manifest.getPackages()) {
+			Package fmx = null;
+			for (String name : path) {
+				fmx = dico.ensureFamixPackage(name, fmx);    // the parent packages were already created
+			}
 		}
-		
-		super.visit(elt);
-		
-		if (nbOfLeadingDirectory < 0) {
-			currentPackage = fmx.getParentPackage();
-		}
-
-		nbOfLeadingDirectory++; // going up one directory
 	}
 
 
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTFileLocation;
 import org.eclipse.cdt.core.dom.ast.IASTName;
 import org.eclipse.cdt.core.dom.ast.IASTPreprocessorIfdefStatement;
@@ -12,6 +15,7 @@ import org.eclipse.cdt.core.index.IIndex;
 import eu.synectique.verveine.core.gen.famix.PreprocessorIfdef;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class PreprocessorStmtDefVisitor extends AbstractVisitor {
 
@@ -24,6 +28,16 @@ public class PreprocessorStmtDefVisitor extends AbstractVisitor {
 		return "recording preprocessor statements";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.noneOf(ModelPart.class);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.PREPROCESSOR_STATEMENTS);
+	}
+
 	@Override
 	public int visit(IASTTranslationUnit node) {
 		if (isProjectFile(node.getFilePath())) {
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
 import org.eclipse.cdt.core.dom.ast.IASTFunctionDeclarator;
 import org.eclipse.cdt.core.dom.ast.IBinding;
@@ -18,6 +21,7 @@ import eu.synectique.verveine.core.gen.famix.ContainerEntity;
 import eu.synectique.verveine.core.gen.famix.UnknownVariable;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class TemplateParameterDefVisitor extends AbstractVisitor {
 
@@ -29,6 +33,16 @@ public class TemplateParameterDefVisitor extends AbstractVisitor {
 		return "dealing with templates (generics)";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.TYPES, ModelPart.BEHAVIOURAL_DECLARATIONS, ModelPart.BEHAVIOURALS);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.TEMPLATE_PARAMETERS);
+	}
+
 	/*
 	 * Putting class definition on the context stack
 	 */
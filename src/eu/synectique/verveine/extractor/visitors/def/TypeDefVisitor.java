@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.def;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTCastExpression;
 import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
 import org.eclipse.cdt.core.dom.ast.IASTDeclarator;
@@ -11,7 +14,6 @@ import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTCompositeTypeSpecifier;
 import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTFunctionDeclarator;
 import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTTemplateDeclaration;
 import org.eclipse.cdt.core.index.IIndex;
-import org.eclipse.cdt.core.model.ICContainer;
 import org.eclipse.cdt.core.model.ITranslationUnit;
 
 import eu.synectique.verveine.core.gen.famix.Class;
@@ -20,15 +22,22 @@ import eu.synectique.verveine.core.gen.famix.Package;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.core.gen.famix.TypeAlias;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
+import eu.synectique.verveine.extractor.utils.TranslationUnitManifest;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class TypeDefVisitor extends AbstractVisitor {
 
 	/**
-	 * The file directory being visited at any given time
+	 * The package of the translation unit being visited
 	 */
 	protected Package currentPackage = null;
 
+	/**
+	 * Path of {@link #currentPackage} in the manifest (see {@link #visit(TranslationUnitManifest, ITranslationUnit)})
+	 */
+	private String[] currentPackagePath = null;
+
 	/**
 	 * used between {@link #visit(ICPPASTTemplateDeclaration)} and {@link #visit(ICPPASTCompositeTypeSpecifier)}
 	 * to mark class definitions that are FAMIXParameterizableClass
@@ -50,20 +59,35 @@ public class TypeDefVisitor extends AbstractVisitor {
 		return "creating classes and types";
 	}
 
-	/**
-	 * get Package associated to file directory
-	 */
 	@Override
-	public void visit(ICContainer elt) {
-		IBinding key = resolver.mkStubKey(elt.getElementName(), currentPackage, Package.class);
-
-		currentPackage = (Package) dico.getEntityByKey(key);
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.FILES, ModelPart.PACKAGES, ModelPart.NAMESPACES);
+	}
 
-		super.visit(elt);                                // visit children
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.TYPES);
+	}
 
-		if (currentPackage != null) {
-			currentPackage = currentPackage.getParentPackage();    // back to parent package
+	/**
+	 * get Package associated to the directory of the translation unit (directories themselves are not visited)
+	 */
+	@Override
+	public void visit(TranslationUnitManifest manifest, ITranslationUnit tu) {
+		String[] path = manifest.getPackage(tu);
+		if (path != currentPackagePath) {    // translation units of the same directory share their path
+			currentPackage = null;
+			for (String name : path) {
+				IBinding key = resolver.mkStubKey(name, currentPackage, Package.class);
+				currentPackage = (Package) dico.getEntityByKey(key);
+				if (currentPackage == null) {
+					break;
+				}
+			}
+			currentPackagePath = path;
 		}
+
+		super.visit(manifest, tu);
 	}
 
 	/*
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.ref;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTCompositeTypeSpecifier;
 import org.eclipse.cdt.core.dom.ast.IASTDeclSpecifier;
 import org.eclipse.cdt.core.dom.ast.IASTDeclaration;
@@ -44,6 +47,7 @@ import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.utils.QualifiedName;
 import eu.synectique.verveine.extractor.utils.StubBinding;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 /**
  * Abstract superclass for Reference visitors.<BR>
@@ -65,6 +69,20 @@ public abstract class AbstractRefVisitor extends AbstractVisitor {
 		super(dico, index, rootFolder);
 	}
 
+	/**
+	 * References are looked for in all entities, including super-classes (name resolution)
+	 */
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.FILES, ModelPart.NAMESPACES, ModelPart.TYPES, ModelPart.BEHAVIOURAL_DECLARATIONS, ModelPart.BEHAVIOURALS,
+				ModelPart.TEMPLATE_PARAMETERS, ModelPart.ATTRIBUTES, ModelPart.INHERITANCES);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.REFERENCES);
+	}
+
 
 	/*
 	 * putting class definition on the context stack
@@ -195,7 +213,7 @@ public abstract class AbstractRefVisitor extends AbstractVisitor {
 				fmx = referedParameterTypeInstance(bnd, name);
 			}
 			else {
-				QualifiedName qualName = new QualifiedName(name);
+				QualifiedName qualName = QualifiedName.valueOf(name);
 				fmx = dico.ensureFamixType(bnd, qualName.unqualifiedName(), /*owner*/(ContainerEntity)resolver.resolveOrCreate(qualName.nameQualifiers().toString(), /*mayBeNull*/false, /*mustBeClass*/false));
 			}
 		}
@@ -210,7 +228,7 @@ public abstract class AbstractRefVisitor extends AbstractVisitor {
 	private Type referedParameterTypeInstance(IBinding bnd, IASTName name) {
 		String strName = name.toString();
 		int i = strName.indexOf('<');
-		String typName = new QualifiedName(strName.substring(0, i)).unqualifiedName();
+		String typName = QualifiedName.valueOf(strName.substring(0, i)).unqualifiedName();
 
 		ParameterizedType fmx = null;
 		ParameterizableClass generic = null;
@@ -221,14 +239,14 @@ public abstract class AbstractRefVisitor extends AbstractVisitor {
 			// create a ParameterizedType for an unknown generic
 			// 'generic' var. remains null
 		}
-		fmx = dico.ensureFamixParameterizedType(bnd, typName, generic, (ContainerEntity)resolver.resolveOrCreate(new QualifiedName(name).nameQualifiers().toString(), /*mayBeNull*/false, /*mustBeClass*/false));
+		fmx = dico.ensureFamixParameterizedType(bnd, typName, generic, (ContainerEntity)resolver.resolveOrCreate(QualifiedName.valueOf(name).nameQualifiers().toString(), /*mayBeNull*/false, /*mustBeClass*/false));
 
 		for (String typArg : strName.substring(i+1, strName.length()-1).split(",")) {
 			typArg = typArg.trim();
 			try {
 				Type arg = (Type) resolver.findInParent(typArg, getContext().top(), /*recursive*/true);
 				if (arg != null) {
-					fmx.addArguments(arg);
+					dico.addTypeArgument(fmx, arg);
 				}
 			}
 			catch (ClassCastException e) {
@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.ref;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTDeclarator;
 import org.eclipse.cdt.core.dom.ast.IASTFunctionDeclarator;
 import org.eclipse.cdt.core.dom.ast.IASTFunctionDefinition;
@@ -17,6 +20,7 @@ import eu.synectique.verveine.core.gen.famix.Parameter;
 import eu.synectique.verveine.core.gen.famix.StructuralEntity;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class DeclaredTypeRefVisitor extends AbstractRefVisitor {
 
@@ -41,6 +45,11 @@ public class DeclaredTypeRefVisitor extends AbstractRefVisitor {
 		return "recording variables declared type and methods/functions return type";
 	}
 
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.DECLARED_TYPES);
+	}
+
 	/*
 	 * prune to not visit template parameters
 	 */
@@ -114,7 +123,7 @@ public class DeclaredTypeRefVisitor extends AbstractRefVisitor {
 
 		fmx = (StructuralEntity) dico.getEntityByKey(nodeBnd);
 		if (fmx != null) {
-			fmx.setDeclaredType(referredType);
+			dico.setDeclaredType(fmx, referredType);
 		}
 		else {
 		// else forget about it all
@@ -160,7 +169,7 @@ public class DeclaredTypeRefVisitor extends AbstractRefVisitor {
 		fmx = (BehaviouralEntity) returnedEntity;
 
 		if ( (fmx != null) && (! resolver.isConstructor(fmx)) && (! resolver.isDestructor(fmx)) ) {
-			fmx.setDeclaredType(referredType);
+			dico.setDeclaredType(fmx, referredType);
 		}
 	}
 
@@ -195,7 +204,7 @@ public class DeclaredTypeRefVisitor extends AbstractRefVisitor {
 			}
 			else {
 				node.getDeclSpecifier().accept(this);
-				fmx.setDeclaredType( (Type) returnedEntity );
+				dico.setDeclaredType(fmx, (Type) returnedEntity);
 			}
 		}
 		returnedEntity = fmx;
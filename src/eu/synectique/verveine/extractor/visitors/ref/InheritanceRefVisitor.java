@@ -1,5 +1,8 @@
 package eu.synectique.verveine.extractor.visitors.ref;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTName;
 import org.eclipse.cdt.core.dom.ast.IProblemBinding;
 import org.eclipse.cdt.core.dom.ast.cpp.ICPPASTCompositeTypeSpecifier;
@@ -12,6 +15,7 @@ import eu.synectique.verveine.core.gen.famix.Inheritance;
 import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.visitors.AbstractVisitor;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class InheritanceRefVisitor extends AbstractVisitor {
 
@@ -25,6 +29,16 @@ public class InheritanceRefVisitor extends AbstractVisitor {
 		return "recording inheritance relationships";
 	}
 
+	@Override
+	public Set<ModelPart> inputs() {
+		return EnumSet.of(ModelPart.TYPES, ModelPart.TEMPLATE_PARAMETERS);
+	}
+
+	@Override
+	public Set<ModelPart> outputs() {
+		return EnumSet.of(ModelPart.INHERITANCES);
+	}
+
 	/*
 	 * Recovering the sub-class
 	 */
@@ -1,5 +1,7 @@
 package eu.synectique.verveine.extractor.visitors.ref;
 
+import java.util.Set;
+
 import org.eclipse.cdt.core.dom.ast.IASTBinaryExpression;
 import org.eclipse.cdt.core.dom.ast.IASTCastExpression;
 import org.eclipse.cdt.core.dom.ast.IASTFieldReference;
@@ -37,6 +39,7 @@ import eu.synectique.verveine.core.gen.famix.Type;
 import eu.synectique.verveine.core.gen.famix.UnknownVariable;
 import eu.synectique.verveine.extractor.plugin.CDictionary;
 import eu.synectique.verveine.extractor.utils.QualifiedName;
+import eu.synectique.verveine.extractor.visitors.ModelPart;
 
 public class InvocationAccessRefVisitor extends AbstractRefVisitor {
 
@@ -59,6 +62,16 @@ public class InvocationAccessRefVisitor extends AbstractRefVisitor {
 		return "recording accesses to variables and invocations to methods/functions";
 	}
 
+	/**
+	 * Stubs of constructors are named after the declared type of the attribute they initialize
+	 */
+	@Override
+	public Set<ModelPart> inputs() {
+		Set<ModelPart> inputs = super.inputs();
+		inputs.add(ModelPart.DECLARED_TYPES);
+		return inputs;
+	}
+
 	/**
 	 * Overriden to initialize {@link #inAmpersandUnaryExpression} and  {@link #inCastExpr} to <code>false</code>
 	 * (e.g. at the begining of a .c file) 
@@ -120,7 +133,7 @@ public class InvocationAccessRefVisitor extends AbstractRefVisitor {
 
 			if (returnedEntity instanceof Association) {
 				if (invok != null) {
-					invok.addArguments((Association) returnedEntity);
+					dico.addInvocationArgument(invok, (Association) returnedEntity);
 				}
 			}
 			else {
@@ -130,7 +143,7 @@ public class InvocationAccessRefVisitor extends AbstractRefVisitor {
 				UnknownVariable fake = dico.ensureFamixUniqEntity(UnknownVariable.class, fakeBnd, EMPTY_ARGUMENT_NAME);
 				Access acc = dico.addFamixAccess(getContext().topBehaviouralEntity(), fake, /*isWrite*/false, /*prev*/null);
 				if (invok != null) {
-					invok.addArguments(acc);
+					dico.addInvocationArgument(invok, acc);
 				}
 				dico.addSourceAnchor(acc, filename, icl.getFileLocation());
 			}
@@ -238,11 +251,14 @@ public class InvocationAccessRefVisitor extends AbstractRefVisitor {
 			else if (parent instanceof ICPPASTConstructorChainInitializer) {
 				// FIXME what if returnedType == null but should be Attribute ... ?
 				if ( returnedEntity instanceof Attribute ) {    // hopefully set in visit(ICPPASTConstructorChainInitializer)
-					mthName = ((Attribute)returnedEntity).getDeclaredType().getName();
+					Type declaredType = ((Attribute)returnedEntity).getDeclaredType();
+					if (declaredType != null) {
+						mthName = declaredType.getName();
+					}
 				}
 				else {
 					// Constructor name is the name of its class (possibly fully qualified) + name of the class (unqualified) 
-					QualifiedName qualName = new QualifiedName( ((ICPPASTConstructorChainInitializer)parent).getMemberInitializerId().toString() );
+					QualifiedName qualName = QualifiedName.valueOf( ((ICPPASTConstructorChainInitializer)parent).getMemberInitializerId().toString() );
 					mthName = qualName.toString() + QualifiedName.CPP_NAME_SEPARATOR + qualName.unqualifiedName();
 				}
 			}
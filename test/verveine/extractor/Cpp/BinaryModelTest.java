@@ -0,0 +1,102 @@
+package verveine.extractor.Cpp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import ch.akuhn.fame.Repository;
+import ch.akuhn.fame.internal.MSEPrinter;
+import ch.akuhn.fame.parser.Parser;
+import ch.akuhn.fame.parser.Scanner;
+import eu.synectique.verveine.core.gen.famix.Comment;
+import eu.synectique.verveine.core.gen.famix.FAMIXModel;
+import eu.synectique.verveine.core.gen.famix.Function;
+import eu.synectique.verveine.core.gen.famix.IndexedFileAnchor;
+import eu.synectique.verveine.core.gen.famix.Invocation;
+import eu.synectique.verveine.extractor.utils.BinaryModelReader;
+import eu.synectique.verveine.extractor.utils.BinaryModelWriter;
+
+/**
+ * A small model written in binary format, then read back or converted to MSE: it must give the same MSE as the model itself
+ */
+public class BinaryModelTest {
+
+	public static void main(String[] args) throws java.lang.Exception {
+		Repository repo = new Repository(FAMIXModel.metamodel());
+		Function f = function(repo, "f", 1);
+		Function g = function(repo, "g", 150000);
+		Invocation invok = new Invocation();
+		invok.setSender(f);
+		invok.addCandidates(g);
+		invok.setSourceAnchor(anchor(repo, 10));
+		repo.add(invok);
+		Comment cmt = new Comment();
+		StringBuilder content = new StringBuilder("/* \u00e9t\u00e9");
+		for (int i = 0; i < 100; i++) {
+			content.append(" long comment");
+		}
+		cmt.setContent(content.append(" */").toString());
+		cmt.setContainer(f);
+		repo.add(cmt);
+		String mse = repo.exportMSE();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		repo.accept(new BinaryModelWriter(out));
+		byte[] binary = out.toByteArray();
+		if (binary.length >= mse.length()) {
+			throw new Error("Failed: binary smaller than MSE");
+		}
+
+		StringBuilder converted = new StringBuilder();
+		new BinaryModelReader(new ByteArrayInputStream(binary)).accept(new MSEPrinter(converted));
+		if (! converted.toString().equals(mse)) {
+			throw new Error("Failed: binary converted to MSE");
+		}
+
+		Repository result = new BinaryModelReader(new ByteArrayInputStream(binary)).importModel(FAMIXModel.metamodel());
+		if (result.all(Function.class).size() != 2) {
+			throw new Error("Failed: 2 functions");
+		}
+		if (result.all(Invocation.class).size() != 1) {
+			throw new Error("Failed: 1 invocation");
+		}
+		if (! result.all(Comment.class).iterator().next().getContent().equals(cmt.getContent())) {
+			throw new Error("Failed: long string");
+		}
+		for (Function fct : result.all(Function.class)) {
+			if (fct.getName().equals("g")) {
+				if (fct.getIncomingInvocations().size() != 1) {
+					throw new Error("Failed: references resolved");
+				}
+				if (((IndexedFileAnchor) fct.getSourceAnchor()).getStartPos().intValue() != 150000) {
+					throw new Error("Failed: numbers");
+				}
+			}
+		}
+
+		out = new ByteArrayOutputStream();
+		new Parser(new Scanner(mse)).accept(new BinaryModelWriter(out));
+		if (! java.util.Arrays.equals(out.toByteArray(), binary)) {
+			throw new Error("Failed: MSE converted to binary");
+		}
+	}
+
+	private static Function function(Repository repo, String name, int pos) {
+		Function fct = new Function();
+		fct.setName(name);
+		fct.setSignature(name + "()");
+		fct.setIsStub(false);
+		fct.setSourceAnchor(anchor(repo, pos));
+		repo.add(fct);
+		return fct;
+	}
+
+	private static IndexedFileAnchor anchor(Repository repo, int pos) {
+		IndexedFileAnchor anchor = new IndexedFileAnchor();
+		anchor.setFileName("src/a.c");
+		anchor.setStartPos(pos);
+		anchor.setEndPos(pos + 5);
+		repo.add(anchor);
+		return anchor;
+	}
+
+}
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.io.StringBufferInputStream;
 
 import eu.synectique.verveine.extractor.utils.IncludeToLowerInputStream;
+import eu.synectique.verveine.extractor.utils.IncludeWithHExtensionFilterStream;
 
 @SuppressWarnings("deprecation")
 public class IncludeFilterTest {
@@ -36,9 +37,47 @@ public class IncludeFilterTest {
 			System.exit(0);
 		}
 		
+		input.close();  // useless but avoid warnings in Eclipse
+
+		// reading at an offset in the buffer, by small chunks
+		srcBuf = new byte[SRC.length() + 10];
+		input = new IncludeToLowerInputStream( new StringBufferInputStream(SRC) );
+		int nb = 0;
+		int n;
+		while ( (n = input.read(srcBuf, 10 + nb, Math.min(7, SRC.length() - nb))) > 0) {
+			nb += n;
+		}
+		input.close();
+		if (! TGT.equals(new String(srcBuf, 10, nb))) {
+			System.err.println("Converted string not equal to expected string when reading at an offset");
+			System.exit(0);
+		}
+
+		if (! TGT_H.equals(readAll(new IncludeWithHExtensionFilterStream( new StringBufferInputStream(SRC_H) )))) {
+			System.err.println("Converted string not equal to expected string when adding .h extensions");
+			System.exit(0);
+		}
+
 		System.out.println("Everything went accroding to plans");
+	}
 
-		input.close();  // useless but avoid warnings in Eclipse
+	public static final String SRC_H = "#include <string>\n" +
+									   "# include \"sys/types.h\"\n" +
+									   "#include <boost/shared_ptr>\n" +
+									   "#include_next <vector>\n";
+	public static final String TGT_H = "#include <string.h>\n" +
+									   "# include \"sys/types.h\"\n" +
+									   "#include <boost/shared_ptr.h>\n" +
+									   "#include_next <vector>\n";
+
+	private static String readAll(InputStream input) throws IOException {
+		StringBuilder str = new StringBuilder();
+		int c;
+		while ( (c = input.read()) >= 0) {
+			str.append((char) c);
+		}
+		input.close();
+		return str.toString();
 	}
 
 }
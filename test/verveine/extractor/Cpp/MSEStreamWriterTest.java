@@ -0,0 +1,89 @@
+package verveine.extractor.Cpp;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.akuhn.fame.Repository;
+import eu.synectique.verveine.core.gen.famix.FAMIXModel;
+import eu.synectique.verveine.core.gen.famix.Function;
+import eu.synectique.verveine.core.gen.famix.IndexedFileAnchor;
+import eu.synectique.verveine.core.gen.famix.Invocation;
+import eu.synectique.verveine.extractor.utils.MSEStreamWriter;
+
+/**
+ * Function f() invokes g() and h(), the invocations are streamed before the functions, h() is not in the repository
+ */
+public class MSEStreamWriterTest {
+
+	public static void main(String[] args) throws java.lang.Exception {
+		Repository repo = new Repository(FAMIXModel.metamodel());
+		Function f = function(repo, "f");
+		Function g = function(repo, "g");
+		Function h = new Function();
+		h.setName("h");
+		h.setSignature("h()");
+
+		List<Object> streamed = new ArrayList<Object>();
+		streamed.add(invocation(f, g, streamed));
+		streamed.add(invocation(f, h, streamed));
+
+		StringWriter out = new StringWriter();
+		MSEStreamWriter writer = new MSEStreamWriter(repo.getMetamodel(), out);
+		writer.stream(streamed);
+		writer.release(streamed);
+		if (! f.getOutgoingInvocations().isEmpty()) {
+			throw new Error("Failed: streamed invocations released from their sender");
+		}
+		if (! g.getIncomingInvocations().isEmpty()) {
+			throw new Error("Failed: streamed invocations released from their candidates");
+		}
+		writer.close(repo.getElements());
+
+		Repository result = new Repository(FAMIXModel.metamodel());
+		result.importMSE(out.toString());
+		if (result.all(Function.class).size() != 3) {
+			throw new Error("Failed: 3 functions (h() in the fix-up section)");
+		}
+		if (result.all(Invocation.class).size() != 2) {
+			throw new Error("Failed: 2 invocations");
+		}
+		if (result.all(IndexedFileAnchor.class).size() != 2) {
+			throw new Error("Failed: 2 anchors");
+		}
+		for (Function fct : result.all(Function.class)) {
+			if (fct.getName().equals("f")) {
+				if (fct.getOutgoingInvocations().size() != 2) {
+					throw new Error("Failed: forward references to f() resolved");
+				}
+			}
+			else {
+				if (fct.getIncomingInvocations().size() != 1) {
+					throw new Error("Failed: forward references to " + fct.getName() + "() resolved");
+				}
+			}
+		}
+	}
+
+	private static Function function(Repository repo, String name) {
+		Function fct = new Function();
+		fct.setName(name);
+		fct.setSignature(name + "()");
+		repo.add(fct);
+		return fct;
+	}
+
+	private static Invocation invocation(Function sender, Function candidate, List<Object> streamed) {
+		Invocation invok = new Invocation();
+		invok.setSender(sender);
+		invok.addCandidates(candidate);
+		IndexedFileAnchor anchor = new IndexedFileAnchor();
+		anchor.setFileName("a.c");
+		anchor.setStartPos(1);
+		anchor.setEndPos(2);
+		invok.setSourceAnchor(anchor);
+		streamed.add(anchor);
+		return invok;
+	}
+
+}
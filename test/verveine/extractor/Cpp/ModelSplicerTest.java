@@ -0,0 +1,227 @@
+package verveine.extractor.Cpp;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import ch.akuhn.fame.Repository;
+import eu.synectique.verveine.core.gen.famix.CFile;
+import eu.synectique.verveine.core.gen.famix.CompilationUnit;
+import eu.synectique.verveine.core.gen.famix.CppSourceLanguage;
+import eu.synectique.verveine.core.gen.famix.Function;
+import eu.synectique.verveine.core.gen.famix.FAMIXModel;
+import eu.synectique.verveine.core.gen.famix.Header;
+import eu.synectique.verveine.core.gen.famix.Include;
+import eu.synectique.verveine.core.gen.famix.IndexedFileAnchor;
+import eu.synectique.verveine.core.gen.famix.Invocation;
+import eu.synectique.verveine.core.gen.famix.Method;
+import eu.synectique.verveine.core.gen.famix.NamedEntity;
+import eu.synectique.verveine.core.gen.famix.Package;
+import eu.synectique.verveine.core.gen.famix.SourceLanguage;
+import eu.synectique.verveine.core.gen.famix.SourcedEntity;
+import eu.synectique.verveine.extractor.utils.ModelSplicer;
+
+/**
+ * Tests {@link ModelSplicer#splice()} and {@link ModelSplicer#merge()}
+ */
+public class ModelSplicerTest {
+
+	public static void main(String[] args) {
+		splice();
+		merge();
+	}
+
+	/**
+	 * Class C is defined in a.h, its methods in b.cpp, and function f() in c.cpp calls them.<br>
+	 * Then b.cpp is modified: method old() is removed and method added() is added
+	 */
+	private static void splice() {
+		Repository previous = new Repository(FAMIXModel.metamodel());
+		CFile ah = file(previous, new Header(), "a.h");
+		CFile bcpp = file(previous, new CompilationUnit(), "b.cpp");
+		file(previous, new CompilationUnit(), "c.cpp");
+		include(previous, bcpp, ah);
+		eu.synectique.verveine.core.gen.famix.Class cls = entity(previous, new eu.synectique.verveine.core.gen.famix.Class(), "C", "a.h");
+		Method m = method(previous, cls, "m", "b.cpp");
+		Method old = method(previous, cls, "old", "b.cpp");
+		Function f = function(previous, "f", "c.cpp");
+		invocation(previous, f, m, "c.cpp");
+		invocation(previous, f, old, "c.cpp");
+
+		Repository partial = new Repository(FAMIXModel.metamodel());
+		ah = file(partial, new Header(), "a.h");
+		bcpp = file(partial, new CompilationUnit(), "b.cpp");
+		include(partial, bcpp, ah);
+		cls = entity(partial, new eu.synectique.verveine.core.gen.famix.Class(), "C", null);
+		cls.setIsStub(true);
+		Method newM = method(partial, cls, "m", "b.cpp");
+		method(partial, cls, "added", "b.cpp");
+
+		ModelSplicer splicer = new ModelSplicer(previous, partial, new HashSet<String>(Arrays.asList("b.cpp")));
+		Repository result = splicer.splice();
+
+		if (result.all(CFile.class).size() != 3) {
+			throw new Error("Failed: 3 files");
+		}
+		if (result.all(Include.class).size() != 1) {
+			throw new Error("Failed: 1 include");
+		}
+		if (result.all(eu.synectique.verveine.core.gen.famix.Class.class).size() != 1) {
+			throw new Error("Failed: 1 class");
+		}
+		cls = result.all(eu.synectique.verveine.core.gen.famix.Class.class).iterator().next();
+		if (cls.getSourceAnchor() == null) {
+			throw new Error("Failed: class C of the previous model kept (defined in clean a.h)");
+		}
+		if (cls.getMethods().size() != 3) {
+			throw new Error("Failed: methods of C: m, added, and old");
+		}
+		if (newM.getParentType() != cls) {
+			throw new Error("Failed: new version of m() in C");
+		}
+		for (Method meth : cls.getMethods()) {
+			if (meth.getName().equals("old")) {
+				if (! (meth.getIsStub() && (meth.getSourceAnchor() == null))) {
+					throw new Error("Failed: old() kept as a stub because f() still invokes it");
+				}
+			}
+		}
+		for (Invocation invok : result.all(Invocation.class)) {
+			if (! result.all(Method.class).containsAll(invok.getCandidates())) {
+				throw new Error("Failed: invocations only reference methods of the result");
+			}
+		}
+		if (result.exportMSE().length() <= 0) {
+			throw new Error("Failed: exported");
+		}
+	}
+
+	/**
+	 * Shard "a" defines function f() in a/f.h and a/f.c. Shard "b" has function g() in b/g.c that includes a/f.h and calls f(),
+	 * so f() is a stub in shard "b"
+	 */
+	private static void merge() {
+		Repository shardA = new Repository(FAMIXModel.metamodel());
+		shardA.add(new CppSourceLanguage());
+		Package pckA = pckg(shardA, "a");
+		pckg(shardA, "b");
+		CFile fh = file(shardA, new Header(), "a/f.h");
+		CFile fc = file(shardA, new CompilationUnit(), "a/f.c");
+		include(shardA, fc, fh);
+		Function f = function(shardA, "f", "a/f.c");
+		f.setParentPackage(pckA);
+
+		Repository shardB = new Repository(FAMIXModel.metamodel());
+		shardB.add(new CppSourceLanguage());
+		Package pckB = pckg(shardB, "b");
+		Package stubPckA = pckg(shardB, "a");
+		fh = file(shardB, new Header(), "a/f.h");
+		CFile gc = file(shardB, new CompilationUnit(), "b/g.c");
+		include(shardB, gc, fh);
+		Function g = function(shardB, "g", "b/g.c");
+		g.setParentPackage(pckB);
+		Function stubF = function(shardB, "f", null);
+		stubF.setParentPackage(stubPckA);
+		stubF.setIsStub(true);
+		Invocation invok = new Invocation();
+		invok.setSender(g);
+		invok.addCandidates(stubF);
+		shardB.add(invok);
+
+		ModelSplicer splicer = new ModelSplicer(shardA, shardB);
+		Repository result = splicer.merge();
+
+		if (result.all(SourceLanguage.class).size() != 1) {
+			throw new Error("Failed: 1 source language");
+		}
+		if (result.all(Package.class).size() != 2) {
+			throw new Error("Failed: 2 packages");
+		}
+		if (result.all(CFile.class).size() != 3) {
+			throw new Error("Failed: 3 files (a/f.h shared)");
+		}
+		if (result.all(Include.class).size() != 2) {
+			throw new Error("Failed: 2 includes");
+		}
+		if (result.all(Function.class).size() != 2) {
+			throw new Error("Failed: 2 functions");
+		}
+		if (invok.getCandidates().iterator().next() != f) {
+			throw new Error("Failed: stub f() replaced by its definition");
+		}
+		if (f.getIncomingInvocations().size() != 1) {
+			throw new Error("Failed: f() invoked");
+		}
+		if (! g.getParentPackage().getChildNamedEntities().contains(g)) {
+			throw new Error("Failed: g() in package b");
+		}
+		for (Include inc : result.all(Include.class)) {
+			if (! result.all(CFile.class).contains(inc.getTarget())) {
+				throw new Error("Failed: includes target files of the result");
+			}
+		}
+		if (result.exportMSE().length() <= 0) {
+			throw new Error("Failed: exported");
+		}
+	}
+
+	private static Package pckg(Repository repo, String name) {
+		Package pckg = new Package();
+		pckg.setName(name);
+		repo.add(pckg);
+		return pckg;
+	}
+
+	private static CFile file(Repository repo, CFile file, String name) {
+		file.setName(name);
+		repo.add(file);
+		return file;
+	}
+
+	private static void include(Repository repo, CFile src, CFile tgt) {
+		Include inc = new Include();
+		inc.setSource(src);
+		inc.setTarget(tgt);
+		repo.add(inc);
+	}
+
+	private static <T extends NamedEntity> T entity(Repository repo, T entity, String name, String fileName) {
+		entity.setName(name);
+		entity.setIsStub(false);
+		anchor(repo, entity, fileName);
+		repo.add(entity);
+		return entity;
+	}
+
+	private static void anchor(Repository repo, SourcedEntity entity, String fileName) {
+		if (fileName != null) {
+			IndexedFileAnchor anchor = new IndexedFileAnchor();
+			anchor.setFileName(fileName);
+			anchor.setStartPos(1);
+			anchor.setEndPos(2);
+			entity.setSourceAnchor(anchor);
+			repo.add(anchor);
+		}
+	}
+
+	private static Method method(Repository repo, eu.synectique.verveine.core.gen.famix.Class owner, String name, String fileName) {
+		Method meth = entity(repo, new Method(), name, fileName);
+		meth.setSignature(name + "()");
+		meth.setParentType(owner);
+		return meth;
+	}
+
+	private static Function function(Repository repo, String name, String fileName) {
+		Function fct = entity(repo, new Function(), name, fileName);
+		fct.setSignature(name + "()");
+		return fct;
+	}
+
+	private static void invocation(Repository repo, Function sender, Method candidate, String fileName) {
+		Invocation invok = new Invocation();
+		invok.setSender(sender);
+		invok.addCandidates(candidate);
+		anchor(repo, invok, fileName);
+		repo.add(invok);
+	}
+
+}
@@ -15,6 +15,7 @@ public class QualifiedNameTest {
 		testQualifiedTemplate();
 		testUnqualifiedFct();
 		testQualifiedFct();
+		testParseCache();
 	}
 
 	protected static void testEmpty() {
@@ -185,4 +186,20 @@ public class QualifiedNameTest {
 		}
 	}
 
+	protected static void testParseCache() {
+		QualifiedName qual = QualifiedName.valueOf("toto::titi::tutu()");
+		if (qual != QualifiedName.valueOf("toto::titi::tutu()")) {
+			throw new Error("Should be the same instance");
+		}
+		if (qual.nameQualifiers() != qual.nameQualifiers()) {
+			throw new Error("nameQualifiers should be cached");
+		}
+		if (! "toto".equals(qual.nameQualifiers().nameQualifiers().toString())) {
+			throw new Error("Wrong toString: "+qual.nameQualifiers().nameQualifiers().toString());
+		}
+		if (! "titi".equals(qual.nameQualifiers().unqualifiedName())) {
+			throw new Error("Wrong unqualified name: "+qual.nameQualifiers().unqualifiedName());
+		}
+	}
+
 }